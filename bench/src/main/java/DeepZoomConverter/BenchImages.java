@@ -0,0 +1,84 @@
+package DeepZoomConverter;
+
+/**
+ *  Deep Zoom Converter
+ *
+ *  Version: MPL 1.1/GPL 3/LGPL 3
+ *
+ *  The contents of this file are subject to the Mozilla Public License Version
+ *  1.1 (the "License"); you may not use this file except in compliance with
+ *  the License. You may obtain a copy of the License at
+ *  http: *www.mozilla.org/MPL/
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ *  for the specific language governing rights and limitations under the
+ *  License.
+ *
+ *  The Original Code is this Java package called DeepZoomConverter
+ *
+ *  The Initial Developer of the Original Code is Glenn Lawrence.
+ *  Portions created by the Initial Developer are Copyright (c) 2007-2009
+ *  the Initial Developer. All Rights Reserved.
+ *
+ *  Contributor(s):
+ *    Glenn Lawrence  <glenn.c.lawrence@gmail.com>
+ *
+ *  Alternatively, the contents of this file may be used under the terms of
+ *  either the GNU General Public License Version 3 or later (the "GPL"), or
+ *  the GNU Lesser General Public License Version 3 or later (the "LGPL"),
+ *  in which case the provisions of the GPL or the LGPL are applicable instead
+ *  of those above. If you wish to allow use of your version of this file only
+ *  under the terms of either the GPL or the LGPL, and not to allow others to
+ *  use your version of this file under the terms of the MPL, indicate your
+ *  decision by deleting the provisions above and replace them with the notice
+ *  and other provisions required by the GPL or the LGPL. If you do not delete
+ *  the provisions above, a recipient may use your version of this file under
+ *  the terms of any one of the MPL, the GPL or the LGPL.
+ */
+
+import java.awt.Color;
+import java.awt.GradientPaint;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+
+/**
+ * Synthetic test images for the benchmarks
+ */
+class BenchImages {
+
+    /**
+     * Returns the BufferedImage type constant for a benchmark parameter name
+     * @param name one of INT_RGB, INT_ARGB, 3BYTE_BGR or BYTE_GRAY
+     */
+    static int type(String name) {
+        if (name.equals("INT_RGB"))
+            return BufferedImage.TYPE_INT_RGB;
+        if (name.equals("INT_ARGB"))
+            return BufferedImage.TYPE_INT_ARGB;
+        if (name.equals("3BYTE_BGR"))
+            return BufferedImage.TYPE_3BYTE_BGR;
+        if (name.equals("BYTE_GRAY"))
+            return BufferedImage.TYPE_BYTE_GRAY;
+        throw new IllegalArgumentException("Unknown image type: " + name);
+    }
+
+    /**
+     * Creates an image with a gradient and some detail, so that encoding
+     * and resampling do realistic work
+     * @param width the image width
+     * @param height the image height
+     * @param type the BufferedImage type
+     */
+    static BufferedImage create(int width, int height, int type) {
+        BufferedImage img = new BufferedImage(width, height, type);
+        Graphics2D g = img.createGraphics();
+        g.setPaint(new GradientPaint(0, 0, Color.RED, width, height, Color.BLUE));
+        g.fillRect(0, 0, width, height);
+        g.setColor(Color.WHITE);
+        for (int i = 0; i < 200; i++)
+            g.drawOval((i * 37) % width, (i * 53) % height, (i * 11) % width, (i * 7) % height);
+        g.dispose();
+        return img;
+    }
+}
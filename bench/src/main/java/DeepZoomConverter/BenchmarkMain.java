@@ -0,0 +1,69 @@
+package DeepZoomConverter;
+
+/**
+ *  Deep Zoom Converter
+ *
+ *  Version: MPL 1.1/GPL 3/LGPL 3
+ *
+ *  The contents of this file are subject to the Mozilla Public License Version
+ *  1.1 (the "License"); you may not use this file except in compliance with
+ *  the License. You may obtain a copy of the License at
+ *  http: *www.mozilla.org/MPL/
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ *  for the specific language governing rights and limitations under the
+ *  License.
+ *
+ *  The Original Code is this Java package called DeepZoomConverter
+ *
+ *  The Initial Developer of the Original Code is Glenn Lawrence.
+ *  Portions created by the Initial Developer are Copyright (c) 2007-2009
+ *  the Initial Developer. All Rights Reserved.
+ *
+ *  Contributor(s):
+ *    Glenn Lawrence  <glenn.c.lawrence@gmail.com>
+ *
+ *  Alternatively, the contents of this file may be used under the terms of
+ *  either the GNU General Public License Version 3 or later (the "GPL"), or
+ *  the GNU Lesser General Public License Version 3 or later (the "LGPL"),
+ *  in which case the provisions of the GPL or the LGPL are applicable instead
+ *  of those above. If you wish to allow use of your version of this file only
+ *  under the terms of either the GPL or the LGPL, and not to allow others to
+ *  use your version of this file under the terms of the MPL, indicate your
+ *  decision by deleting the provisions above and replace them with the notice
+ *  and other provisions required by the GPL or the LGPL. If you do not delete
+ *  the provisions above, a recipient may use your version of this file under
+ *  the terms of any one of the MPL, the GPL or the LGPL.
+ */
+
+import java.io.IOException;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks with the GC profiler enabled, so that allocation
+ * rates are reported alongside timings. Accepts the usual JMH command line
+ * options, e.g. a benchmark name regex or -p size=4096.
+ */
+public class BenchmarkMain {
+
+    public static void main(String[] args)
+            throws IOException, RunnerException, CommandLineOptionException {
+        CommandLineOptions cmd = new CommandLineOptions(args);
+        Runner runner = new Runner(new OptionsBuilder()
+                                   .parent(cmd)
+                                   .addProfiler(GCProfiler.class)
+                                   .build());
+        if (cmd.shouldHelp())
+            cmd.showHelp();
+        else if (cmd.shouldList())
+            runner.list();
+        else
+            runner.run();
+    }
+}
@@ -0,0 +1,122 @@
+package DeepZoomConverter;
+
+/**
+ *  Deep Zoom Converter
+ *
+ *  Version: MPL 1.1/GPL 3/LGPL 3
+ *
+ *  The contents of this file are subject to the Mozilla Public License Version
+ *  1.1 (the "License"); you may not use this file except in compliance with
+ *  the License. You may obtain a copy of the License at
+ *  http: *www.mozilla.org/MPL/
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ *  for the specific language governing rights and limitations under the
+ *  License.
+ *
+ *  The Original Code is this Java package called DeepZoomConverter
+ *
+ *  The Initial Developer of the Original Code is Glenn Lawrence.
+ *  Portions created by the Initial Developer are Copyright (c) 2007-2009
+ *  the Initial Developer. All Rights Reserved.
+ *
+ *  Contributor(s):
+ *    Glenn Lawrence  <glenn.c.lawrence@gmail.com>
+ *
+ *  Alternatively, the contents of this file may be used under the terms of
+ *  either the GNU General Public License Version 3 or later (the "GPL"), or
+ *  the GNU Lesser General Public License Version 3 or later (the "LGPL"),
+ *  in which case the provisions of the GPL or the LGPL are applicable instead
+ *  of those above. If you wish to allow use of your version of this file only
+ *  under the terms of either the GPL or the LGPL, and not to allow others to
+ *  use your version of this file under the terms of the MPL, indicate your
+ *  decision by deleting the provisions above and replace them with the notice
+ *  and other provisions required by the GPL or the LGPL. If you do not delete
+ *  the provisions above, a recipient may use your version of this file under
+ *  the terms of any one of the MPL, the GPL or the LGPL.
+ */
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import javax.imageio.ImageIO;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * End-to-end conversion of an image file into a full pyramid, including
+ * decoding, the per-level directories and the descriptor
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ProcessBenchmark {
+
+    @Param({ "INT_RGB", "3BYTE_BGR" })
+    public String imageType;
+
+    @Param({ "1024", "4096" })
+    public int size;
+
+    @Param({ "BICUBIC", "BOX" })
+    public String resample;
+
+    @Param({ "1", "4" })
+    public int threads;
+
+    private File outputDir;
+    private DeepZoomConverter converter;
+    private File inputFile;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        outputDir = Files.createTempDirectory("dzbench").toFile();
+        converter = new DeepZoomConverter(ConverterConfig.builder()
+                                          .outputDir(outputDir)
+                                          .threadCount(threads)
+                                          .resampleMode(ConverterConfig.ResampleMode.valueOf(resample))
+                                          .build());
+        inputFile = new File(outputDir, "bench.png");
+        BufferedImage image = BenchImages.create(size, size, BenchImages.type(imageType));
+        if (!ImageIO.write(image, "png", inputFile))
+            throw new IOException("Cannot write benchmark input: " + inputFile);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        converter.close();
+        deleteTree(outputDir);
+    }
+
+    @Benchmark
+    public void processImageFile() throws IOException {
+        // Replaces the previous iteration's output, as a repeated run would
+        converter.processImageFile(inputFile);
+    }
+
+    private static void deleteTree(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children)
+                deleteTree(child);
+        }
+        file.delete();
+    }
+}
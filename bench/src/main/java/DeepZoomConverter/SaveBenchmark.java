@@ -0,0 +1,108 @@
+package DeepZoomConverter;
+
+/**
+ *  Deep Zoom Converter
+ *
+ *  Version: MPL 1.1/GPL 3/LGPL 3
+ *
+ *  The contents of this file are subject to the Mozilla Public License Version
+ *  1.1 (the "License"); you may not use this file except in compliance with
+ *  the License. You may obtain a copy of the License at
+ *  http: *www.mozilla.org/MPL/
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ *  for the specific language governing rights and limitations under the
+ *  License.
+ *
+ *  The Original Code is this Java package called DeepZoomConverter
+ *
+ *  The Initial Developer of the Original Code is Glenn Lawrence.
+ *  Portions created by the Initial Developer are Copyright (c) 2007-2009
+ *  the Initial Developer. All Rights Reserved.
+ *
+ *  Contributor(s):
+ *    Glenn Lawrence  <glenn.c.lawrence@gmail.com>
+ *
+ *  Alternatively, the contents of this file may be used under the terms of
+ *  either the GNU General Public License Version 3 or later (the "GPL"), or
+ *  the GNU Lesser General Public License Version 3 or later (the "LGPL"),
+ *  in which case the provisions of the GPL or the LGPL are applicable instead
+ *  of those above. If you wish to allow use of your version of this file only
+ *  under the terms of either the GPL or the LGPL, and not to allow others to
+ *  use your version of this file under the terms of the MPL, indicate your
+ *  decision by deleting the provisions above and replace them with the notice
+ *  and other provisions required by the GPL or the LGPL. If you do not delete
+ *  the provisions above, a recipient may use your version of this file under
+ *  the terms of any one of the MPL, the GPL or the LGPL.
+ */
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Encoding and writing one tile with saveImage, per tile format
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SaveBenchmark {
+
+    @Param({ "jpg", "png" })
+    public String format;
+
+    @Param({ "INT_RGB", "3BYTE_BGR", "BYTE_GRAY" })
+    public String imageType;
+
+    private File outputDir;
+    private DeepZoomConverter converter;
+    private BufferedImage tile;
+    private LevelStats stats;
+    private TileStore store;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        outputDir = Files.createTempDirectory("dzbench").toFile();
+        converter = new DeepZoomConverter(ConverterConfig.builder()
+                                          .outputDir(outputDir)
+                                          .tileFormat(format)
+                                          .build());
+        tile = BenchImages.create(258, 258, BenchImages.type(imageType));
+        stats = new LevelStats(0);
+        store = new DirectoryTileStore(outputDir, format);
+        store.beginLevel(0);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        converter.close();
+        File levelDir = new File(outputDir, "0");
+        new File(levelDir, "0_0." + format).delete();
+        levelDir.delete();
+        outputDir.delete();
+    }
+
+    @Benchmark
+    public void saveImage() throws IOException {
+        converter.saveImage(tile, 0, 0, 0, store, stats);
+    }
+}
@@ -0,0 +1,99 @@
+package DeepZoomConverter;
+
+/**
+ *  Deep Zoom Converter
+ *
+ *  Version: MPL 1.1/GPL 3/LGPL 3
+ *
+ *  The contents of this file are subject to the Mozilla Public License Version
+ *  1.1 (the "License"); you may not use this file except in compliance with
+ *  the License. You may obtain a copy of the License at
+ *  http: *www.mozilla.org/MPL/
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ *  for the specific language governing rights and limitations under the
+ *  License.
+ *
+ *  The Original Code is this Java package called DeepZoomConverter
+ *
+ *  The Initial Developer of the Original Code is Glenn Lawrence.
+ *  Portions created by the Initial Developer are Copyright (c) 2007-2009
+ *  the Initial Developer. All Rights Reserved.
+ *
+ *  Contributor(s):
+ *    Glenn Lawrence  <glenn.c.lawrence@gmail.com>
+ *
+ *  Alternatively, the contents of this file may be used under the terms of
+ *  either the GNU General Public License Version 3 or later (the "GPL"), or
+ *  the GNU Lesser General Public License Version 3 or later (the "LGPL"),
+ *  in which case the provisions of the GPL or the LGPL are applicable instead
+ *  of those above. If you wish to allow use of your version of this file only
+ *  under the terms of either the GPL or the LGPL, and not to allow others to
+ *  use your version of this file under the terms of the MPL, indicate your
+ *  decision by deleting the provisions above and replace them with the notice
+ *  and other provisions required by the GPL or the LGPL. If you do not delete
+ *  the provisions above, a recipient may use your version of this file under
+ *  the terms of any one of the MPL, the GPL or the LGPL.
+ */
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static DeepZoomConverter.TestTiles.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Writes tiles to an archive and reads them back as the format is
+ * documented
+ */
+class ArchiveTileStoreTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void archivedTilesRoundTrip() throws IOException {
+        File file = tempDir.resolve("img." + ArchiveTileStore.EXTENSION).toFile();
+        byte[][][] tiles = writeTiles(new ArchiveTileStore(file, WIDTH, HEIGHT, TILE_SIZE, 1));
+        assertEquals(Arrays.asList(file), Arrays.asList(tempDir.toFile().listFiles()));
+
+        ByteBuffer archive = ByteBuffer.wrap(Files.readAllBytes(file.toPath()));
+        assertEquals(ArchiveTileStore.MAGIC, archive.getInt());
+        assertEquals(ArchiveTileStore.VERSION, archive.getInt());
+        assertEquals(WIDTH, archive.getInt());
+        assertEquals(HEIGHT, archive.getInt());
+        assertEquals(TILE_SIZE, archive.getInt());
+        assertEquals(1, archive.getInt());
+        long dataOffset = archive.getLong();
+        long[][] offsets = checkIndex(archive, ArchiveTileStore.HEADER_SIZE, tiles);
+        assertEquals(dataOffset, archive.position());
+
+        // Each level's tiles follow the previous level's, in curve order,
+        // and the shared tile is stored once, where it is first met
+        IdentityHashMap<byte[], Long> placed = new IdentityHashMap<byte[], Long>();
+        long expected = dataOffset;
+        for (int level = 0; level < LEVELS; level++) {
+            for (int i : ArchiveTileStore.curveOrder(nCols(level), nRows(level))) {
+                if (tiles[level][i] == null)
+                    continue;
+                Long shared = placed.get(tiles[level][i]);
+                if (shared != null) {
+                    assertEquals(shared.longValue(), offsets[level][i]);
+                    continue;
+                }
+                assertEquals(expected, offsets[level][i], "level " + level + " tile " + i);
+                placed.put(tiles[level][i], expected);
+                expected += tiles[level][i].length;
+            }
+        }
+        assertEquals(expected, archive.limit());
+    }
+}
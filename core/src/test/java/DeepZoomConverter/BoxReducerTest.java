@@ -0,0 +1,120 @@
+package DeepZoomConverter;
+
+/**
+ *  Deep Zoom Converter
+ *
+ *  Version: MPL 1.1/GPL 3/LGPL 3
+ *
+ *  The contents of this file are subject to the Mozilla Public License Version
+ *  1.1 (the "License"); you may not use this file except in compliance with
+ *  the License. You may obtain a copy of the License at
+ *  http: *www.mozilla.org/MPL/
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ *  for the specific language governing rights and limitations under the
+ *  License.
+ *
+ *  The Original Code is this Java package called DeepZoomConverter
+ *
+ *  The Initial Developer of the Original Code is Glenn Lawrence.
+ *  Portions created by the Initial Developer are Copyright (c) 2007-2009
+ *  the Initial Developer. All Rights Reserved.
+ *
+ *  Contributor(s):
+ *    Glenn Lawrence  <glenn.c.lawrence@gmail.com>
+ *
+ *  Alternatively, the contents of this file may be used under the terms of
+ *  either the GNU General Public License Version 3 or later (the "GPL"), or
+ *  the GNU Lesser General Public License Version 3 or later (the "LGPL"),
+ *  in which case the provisions of the GPL or the LGPL are applicable instead
+ *  of those above. If you wish to allow use of your version of this file only
+ *  under the terms of either the GPL or the LGPL, and not to allow others to
+ *  use your version of this file under the terms of the MPL, indicate your
+ *  decision by deleting the provisions above and replace them with the notice
+ *  and other provisions required by the GPL or the LGPL. If you do not delete
+ *  the provisions above, a recipient may use your version of this file under
+ *  the terms of any one of the MPL, the GPL or the LGPL.
+ */
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Checks that the Vector API kernels reduce images to exactly the same
+ * pixels as the scalar ones, for each layout the reducer handles and for
+ * sizes that leave odd rows and columns and partial vectors.
+ */
+class BoxReducerTest {
+
+    private static final int[] TYPES = {
+        BufferedImage.TYPE_INT_RGB, BufferedImage.TYPE_INT_ARGB, BufferedImage.TYPE_INT_BGR,
+        BufferedImage.TYPE_3BYTE_BGR, BufferedImage.TYPE_4BYTE_ABGR, BufferedImage.TYPE_BYTE_GRAY
+    };
+
+    private static final int[][] SIZES = {
+        { 1, 1 }, { 2, 2 }, { 3, 1 }, { 1, 5 }, { 17, 9 }, { 64, 64 }, { 255, 3 }, { 301, 203 }
+    };
+
+    private static BufferedImage randomImage(int width, int height, int type, long seed) {
+        BufferedImage img = new BufferedImage(width, height, type);
+        Random random = new Random(seed);
+        if (img.getRaster().getDataBuffer() instanceof DataBufferInt) {
+            int[] data = ((DataBufferInt)img.getRaster().getDataBuffer()).getData();
+            for (int i = 0; i < data.length; i++)
+                data[i] = random.nextInt();
+        } else
+            random.nextBytes(((DataBufferByte)img.getRaster().getDataBuffer()).getData());
+        return img;
+    }
+
+    private static Object pixels(BufferedImage img) {
+        if (img.getRaster().getDataBuffer() instanceof DataBufferInt)
+            return ((DataBufferInt)img.getRaster().getDataBuffer()).getData();
+        return ((DataBufferByte)img.getRaster().getDataBuffer()).getData();
+    }
+
+    @Test
+    void vectorKernelsAreAvailable() {
+        assertTrue(BoxReducer.hasVectorKernels(), "tests must run with jdk.incubator.vector");
+    }
+
+    @Test
+    void vectorMatchesScalar() {
+        for (int type : TYPES) {
+            for (int[] size : SIZES) {
+                BufferedImage img = randomImage(size[0], size[1], type, type * 1000 + size[0]);
+                assertTrue(BoxReducer.canReduce(img));
+                BufferedImage scalar = BoxReducer.reduce(img, false);
+                BufferedImage vector = BoxReducer.reduce(img, true);
+                String what = "type " + type + " size " + size[0] + "x" + size[1];
+                assertEquals((size[0] + 1) / 2, scalar.getWidth(), what);
+                assertEquals((size[1] + 1) / 2, scalar.getHeight(), what);
+                if (pixels(scalar) instanceof int[])
+                    assertArrayEquals((int[])pixels(scalar), (int[])pixels(vector), what);
+                else
+                    assertArrayEquals((byte[])pixels(scalar), (byte[])pixels(vector), what);
+            }
+        }
+    }
+
+    @Test
+    void scalarAveragesEachBlock() {
+        BufferedImage img = new BufferedImage(3, 1, BufferedImage.TYPE_BYTE_GRAY);
+        byte[] data = (byte[])pixels(img);
+        data[0] = 10;
+        data[1] = 21;
+        data[2] = (byte)200;
+        byte[] reduced = (byte[])pixels(BoxReducer.reduce(img, false));
+        assertEquals(2, reduced.length);
+        assertEquals((10 + 21 + 10 + 21 + 2) / 4, reduced[0] & 0xff);
+        assertEquals(200, reduced[1] & 0xff);
+    }
+}
@@ -0,0 +1,140 @@
+package DeepZoomConverter;
+
+/**
+ *  Deep Zoom Converter
+ *
+ *  Version: MPL 1.1/GPL 3/LGPL 3
+ *
+ *  The contents of this file are subject to the Mozilla Public License Version
+ *  1.1 (the "License"); you may not use this file except in compliance with
+ *  the License. You may obtain a copy of the License at
+ *  http: *www.mozilla.org/MPL/
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ *  for the specific language governing rights and limitations under the
+ *  License.
+ *
+ *  The Original Code is this Java package called DeepZoomConverter
+ *
+ *  The Initial Developer of the Original Code is Glenn Lawrence.
+ *  Portions created by the Initial Developer are Copyright (c) 2007-2009
+ *  the Initial Developer. All Rights Reserved.
+ *
+ *  Contributor(s):
+ *    Glenn Lawrence  <glenn.c.lawrence@gmail.com>
+ *
+ *  Alternatively, the contents of this file may be used under the terms of
+ *  either the GNU General Public License Version 3 or later (the "GPL"), or
+ *  the GNU Lesser General Public License Version 3 or later (the "LGPL"),
+ *  in which case the provisions of the GPL or the LGPL are applicable instead
+ *  of those above. If you wish to allow use of your version of this file only
+ *  under the terms of either the GPL or the LGPL, and not to allow others to
+ *  use your version of this file under the terms of the MPL, indicate your
+ *  decision by deleting the provisions above and replace them with the notice
+ *  and other provisions required by the GPL or the LGPL. If you do not delete
+ *  the provisions above, a recipient may use your version of this file under
+ *  the terms of any one of the MPL, the GPL or the LGPL.
+ */
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Vector;
+import javax.imageio.ImageIO;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Runs jobs through a daemon and compares their output with the same
+ * images converted directly
+ */
+class ConversionDaemonTest {
+
+    @TempDir
+    Path tempDir;
+
+    /**
+     * Sends a job and returns the last line the daemon answers with
+     */
+    private String submit(File socketFile, String... args) throws IOException {
+        try (SocketChannel channel = SocketChannel.open(
+                 UnixDomainSocketAddress.of(socketFile.toPath()))) {
+            PrintStream out = new PrintStream(Channels.newOutputStream(channel), false, "UTF-8");
+            out.print(tempDir.toString() + "\n");
+            for (String arg : args)
+                out.print(arg + "\n");
+            out.print("\n");
+            out.flush();
+
+            BufferedReader in = new BufferedReader(new InputStreamReader(
+                Channels.newInputStream(channel), StandardCharsets.UTF_8));
+            String last = null;
+            for (String line = in.readLine(); line != null; line = in.readLine())
+                last = line;
+            return last;
+        }
+    }
+
+    @Test
+    void jobsMatchDirectConversions() throws Exception {
+        Vector<File> images = new Vector<File>();
+        for (int i = 1; i <= 2; i++) {
+            File imageFile = tempDir.resolve("img" + i + ".png").toFile();
+            ImageIO.write(ConversionPathsTest.createImage(300 + 100 * i, 200, i), "png", imageFile);
+            images.add(imageFile);
+        }
+        File direct = Files.createDirectory(tempDir.resolve("direct")).toFile();
+        Files.createDirectory(tempDir.resolve("daemon"));
+        DeepZoomConverter converter = new DeepZoomConverter(ConverterConfig.builder()
+            .outputDir(direct).tileSize(128).tileOverlap(1).tileFormat("png")
+            .resampleMode(ConverterConfig.ResampleMode.BOX).build());
+        try {
+            converter.processImageFiles(images);
+        } finally {
+            converter.close();
+        }
+
+        File socketFile = tempDir.resolve("daemon.sock").toFile();
+        final ConversionDaemon daemon = new ConversionDaemon(socketFile);
+        final Exception[] failure = new Exception[1];
+        Thread thread = new Thread() {
+            public void run() {
+                try {
+                    daemon.run();
+                } catch (Exception e) {
+                    failure[0] = e;
+                }
+            }
+        };
+        thread.start();
+        try {
+            // The same settings twice, so the second job reuses the converter
+            for (int i = 1; i <= 2; i++) {
+                String status = submit(socketFile, "-o", "daemon", "-tilesize", "128", "-overlap", "1",
+                                       "-format", "png", "-resample", "box", "img" + i + ".png");
+                assertTrue(status.startsWith(ConversionDaemon.OK + " 1 images"), status);
+            }
+            String status = submit(socketFile, "-o", "missing", "img1.png");
+            assertTrue(status.startsWith(ConversionDaemon.ERROR + " "), status);
+        } finally {
+            assertEquals(ConversionDaemon.OK, submit(socketFile, ConversionDaemon.STOP));
+            thread.join();
+        }
+        if (failure[0] != null)
+            throw failure[0];
+        ConversionPathsTest.assertSameTree(direct, tempDir.resolve("daemon").toFile());
+        assertTrue(!socketFile.exists());
+    }
+}
@@ -0,0 +1,221 @@
+package DeepZoomConverter;
+
+/**
+ *  Deep Zoom Converter
+ *
+ *  Version: MPL 1.1/GPL 3/LGPL 3
+ *
+ *  The contents of this file are subject to the Mozilla Public License Version
+ *  1.1 (the "License"); you may not use this file except in compliance with
+ *  the License. You may obtain a copy of the License at
+ *  http: *www.mozilla.org/MPL/
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ *  for the specific language governing rights and limitations under the
+ *  License.
+ *
+ *  The Original Code is this Java package called DeepZoomConverter
+ *
+ *  The Initial Developer of the Original Code is Glenn Lawrence.
+ *  Portions created by the Initial Developer are Copyright (c) 2007-2009
+ *  the Initial Developer. All Rights Reserved.
+ *
+ *  Contributor(s):
+ *    Glenn Lawrence  <glenn.c.lawrence@gmail.com>
+ *
+ *  Alternatively, the contents of this file may be used under the terms of
+ *  either the GNU General Public License Version 3 or later (the "GPL"), or
+ *  the GNU Lesser General Public License Version 3 or later (the "LGPL"),
+ *  in which case the provisions of the GPL or the LGPL are applicable instead
+ *  of those above. If you wish to allow use of your version of this file only
+ *  under the terms of either the GPL or the LGPL, and not to allow others to
+ *  use your version of this file under the terms of the MPL, indicate your
+ *  decision by deleting the provisions above and replace them with the notice
+ *  and other provisions required by the GPL or the LGPL. If you do not delete
+ *  the provisions above, a recipient may use your version of this file under
+ *  the terms of any one of the MPL, the GPL or the LGPL.
+ */
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.Vector;
+import java.util.stream.Stream;
+import javax.imageio.ImageIO;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Checks that each way of producing a pyramid writes the same tiles, byte
+ * for byte, as a single thread converting the whole decoded image. All use
+ * the box filter, which every path computes exactly.
+ */
+class ConversionPathsTest {
+
+    private static final int WIDTH = 701;
+    private static final int HEIGHT = 457;
+
+    @TempDir
+    Path tempDir;
+
+    private BufferedImage image;
+    private File imageFile;
+
+    @BeforeEach
+    void createImage() throws IOException {
+        image = createImage(WIDTH, HEIGHT, 7);
+        imageFile = tempDir.resolve("img.png").toFile();
+        ImageIO.write(image, "png", imageFile);
+    }
+
+    /**
+     * Returns an image with smooth gradients and noise, so that every level
+     * has detail and no two tiles are alike
+     */
+    static BufferedImage createImage(int width, int height, long seed) {
+        BufferedImage img = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Random random = new Random(seed);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int r = (x * 255 / width + random.nextInt(32)) & 0xff;
+                int g = (y * 255 / height + random.nextInt(32)) & 0xff;
+                int b = ((x + y) * 127 / (width + height) + random.nextInt(64)) & 0xff;
+                img.setRGB(x, y, (r << 16) | (g << 8) | b);
+            }
+        }
+        return img;
+    }
+
+    private ConverterConfig.Builder config(String dirName) throws IOException {
+        File dir = Files.createDirectory(tempDir.resolve(dirName)).toFile();
+        return ConverterConfig.builder().outputDir(dir).tileSize(128).tileOverlap(1)
+                              .tileFormat("png").resampleMode(ConverterConfig.ResampleMode.BOX);
+    }
+
+    private File convert(ConverterConfig config) throws IOException {
+        DeepZoomConverter converter = new DeepZoomConverter(config);
+        try {
+            converter.processImageFile(imageFile);
+        } finally {
+            converter.close();
+        }
+        return config.getOutputDir();
+    }
+
+    private File baseline() throws IOException {
+        return convert(config("baseline").build());
+    }
+
+    /**
+     * Returns the contents of every file below a directory by relative path
+     */
+    static TreeMap<String, byte[]> readTree(File dir) throws IOException {
+        TreeMap<String, byte[]> files = new TreeMap<String, byte[]>();
+        Path root = dir.toPath();
+        try (Stream<Path> paths = Files.walk(root)) {
+            for (Path path : (Iterable<Path>)paths::iterator) {
+                if (Files.isRegularFile(path))
+                    files.put(root.relativize(path).toString(), Files.readAllBytes(path));
+            }
+        }
+        return files;
+    }
+
+    static void assertSameTree(File expected, File actual) throws IOException {
+        TreeMap<String, byte[]> expectedFiles = readTree(expected);
+        TreeMap<String, byte[]> actualFiles = readTree(actual);
+        assertEquals(expectedFiles.keySet(), actualFiles.keySet());
+        for (String name : expectedFiles.keySet())
+            assertArrayEquals(expectedFiles.get(name), actualFiles.get(name), name);
+    }
+
+    @Test
+    void threadedMatchesBaseline() throws IOException {
+        assertSameTree(baseline(), convert(config("threaded").threadCount(4).build()));
+    }
+
+    @Test
+    void vectorResampleMatchesBaseline() throws IOException {
+        assertSameTree(baseline(), convert(config("vector").threadCount(4)
+                .resampleMode(ConverterConfig.ResampleMode.VECTOR).build()));
+    }
+
+    @Test
+    void streamMatchesBaseline() throws IOException {
+        assertSameTree(baseline(), convert(config("stream").streamMode(true).threadCount(2)
+                .build()));
+    }
+
+    @Test
+    void offHeapMatchesBaseline() throws IOException {
+        assertSameTree(baseline(), convert(config("offheap").offHeapMode(true).threadCount(2)
+                .build()));
+    }
+
+    @Test
+    void quadtreeMatchesBaseline() throws IOException {
+        assertSameTree(baseline(), convert(config("quadtree").quadtreeMode(true).threadCount(4)
+                .build()));
+    }
+
+    @Test
+    void quadtreeRegionReadsMatchBaseline() throws IOException {
+        // Unlike PNG, BMP is read region by region rather than decoded in full
+        File baselineDir = baseline();
+        imageFile = tempDir.resolve("img.bmp").toFile();
+        ImageIO.write(image, "bmp", imageFile);
+        assertSameTree(baselineDir, convert(config("quadtree").quadtreeMode(true).threadCount(4)
+                .build()));
+    }
+
+    @Test
+    void decodeAheadMatchesOneByOne() throws IOException {
+        Vector<File> files = new Vector<File>();
+        for (int i = 0; i < 4; i++) {
+            File file = tempDir.resolve("batch" + i + ".png").toFile();
+            ImageIO.write(createImage(WIDTH - 50 * i, HEIGHT + 30 * i, i), "png", file);
+            files.add(file);
+        }
+        ConverterConfig plain = config("plain").build();
+        ConverterConfig ahead = config("ahead").decodeAhead(2).decodeBudgetMb(64).build();
+        for (ConverterConfig config : new ConverterConfig[] { plain, ahead }) {
+            DeepZoomConverter converter = new DeepZoomConverter(config);
+            try {
+                converter.processImageFiles(files);
+            } finally {
+                converter.close();
+            }
+        }
+        assertSameTree(plain.getOutputDir(), ahead.getOutputDir());
+    }
+
+    @Test
+    void pushedRowsMatchBaseline() throws IOException {
+        ConverterConfig config = config("push").threadCount(2).build();
+        DeepZoomConverter converter = new DeepZoomConverter(config);
+        try {
+            ScanlineSink sink = converter.beginImage("img", WIDTH, HEIGHT,
+                                                    BufferedImage.TYPE_INT_RGB);
+            Random random = new Random(3);
+            int y = 0;
+            while (y < HEIGHT) {
+                int n = Math.min(1 + random.nextInt(150), HEIGHT - y);
+                sink.pushRows(image, y, n);
+                y += n;
+            }
+            sink.finish();
+        } finally {
+            converter.close();
+        }
+        assertSameTree(baseline(), config.getOutputDir());
+    }
+}
@@ -0,0 +1,176 @@
+package DeepZoomConverter;
+
+/**
+ *  Deep Zoom Converter
+ *
+ *  Version: MPL 1.1/GPL 3/LGPL 3
+ *
+ *  The contents of this file are subject to the Mozilla Public License Version
+ *  1.1 (the "License"); you may not use this file except in compliance with
+ *  the License. You may obtain a copy of the License at
+ *  http: *www.mozilla.org/MPL/
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ *  for the specific language governing rights and limitations under the
+ *  License.
+ *
+ *  The Original Code is this Java package called DeepZoomConverter
+ *
+ *  The Initial Developer of the Original Code is Glenn Lawrence.
+ *  Portions created by the Initial Developer are Copyright (c) 2007-2009
+ *  the Initial Developer. All Rights Reserved.
+ *
+ *  Contributor(s):
+ *    Glenn Lawrence  <glenn.c.lawrence@gmail.com>
+ *
+ *  Alternatively, the contents of this file may be used under the terms of
+ *  either the GNU General Public License Version 3 or later (the "GPL"), or
+ *  the GNU Lesser General Public License Version 3 or later (the "LGPL"),
+ *  in which case the provisions of the GPL or the LGPL are applicable instead
+ *  of those above. If you wish to allow use of your version of this file only
+ *  under the terms of either the GPL or the LGPL, and not to allow others to
+ *  use your version of this file under the terms of the MPL, indicate your
+ *  decision by deleting the provisions above and replace them with the notice
+ *  and other provisions required by the GPL or the LGPL. If you do not delete
+ *  the provisions above, a recipient may use your version of this file under
+ *  the terms of any one of the MPL, the GPL or the LGPL.
+ */
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Vector;
+import java.util.zip.CRC32C;
+import javax.imageio.ImageIO;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Checks the tile hash manifest against the tiles written, for a complete
+ * conversion and for one resumed from a journal
+ */
+class HashingTileStoreTest {
+
+    private static final int WIDTH = 900;
+    private static final int HEIGHT = 600;
+
+    @TempDir
+    Path tempDir;
+
+    private File imageFile;
+
+    /**
+     * Creates an image with a white area covering several tiles, so that
+     * link mode stores some tiles as copies
+     */
+    @BeforeEach
+    void createImage() throws IOException {
+        BufferedImage image = ConversionPathsTest.createImage(WIDTH, HEIGHT, 11);
+        Graphics2D g = image.createGraphics();
+        g.setColor(Color.WHITE);
+        g.fillRect(0, 0, 600, 300);
+        g.dispose();
+        imageFile = tempDir.resolve("img.png").toFile();
+        ImageIO.write(image, "png", imageFile);
+    }
+
+    private ConverterConfig config(String dirName) throws IOException {
+        File dir = Files.createDirectory(tempDir.resolve(dirName)).toFile();
+        return ConverterConfig.builder().outputDir(dir).tileSize(128).tileFormat("png")
+                              .hashTiles(true).blankMode(ConverterConfig.BlankMode.LINK)
+                              .build();
+    }
+
+    private static void convert(ConverterConfig config, File imageFile) throws IOException {
+        DeepZoomConverter converter = new DeepZoomConverter(config);
+        try {
+            converter.processImageFile(imageFile);
+        } finally {
+            converter.close();
+        }
+    }
+
+    /**
+     * Checks that the manifest lists every tile file, in order of level,
+     * row and column, with its size and CRC-32C
+     * @return the manifest's lines
+     */
+    private static List<String> checkManifest(File outputDir) throws IOException {
+        List<String> lines = Files.readAllLines(new File(outputDir, "img."
+                                                + HashingTileStore.EXTENSION).toPath());
+        Vector<String> expected = new Vector<String>();
+        File imgDir = new File(outputDir, "img");
+        for (int level = 0; new File(imgDir, Integer.toString(level)).isDirectory(); level++) {
+            for (int row = 0; new File(imgDir, level + "/0_" + row + ".png").exists(); row++) {
+                for (int col = 0; ; col++) {
+                    File tile = new File(imgDir, level + "/" + col + "_" + row + ".png");
+                    if (!tile.exists())
+                        break;
+                    byte[] data = Files.readAllBytes(tile.toPath());
+                    CRC32C crc = new CRC32C();
+                    crc.update(data, 0, data.length);
+                    expected.add(String.format("%d %d %d %d %08x", level, col, row, data.length,
+                                               crc.getValue()));
+                }
+            }
+        }
+        assertEquals(expected, lines);
+        return lines;
+    }
+
+    @Test
+    void manifestListsEveryTile() throws IOException {
+        ConverterConfig config = config("out");
+        convert(config, imageFile);
+        File imgDir = new File(config.getOutputDir(), "img");
+        assertTrue(Files.isSameFile(new File(imgDir, "10/1_0.png").toPath(),
+                                    new File(imgDir, "10/2_0.png").toPath()));
+        checkManifest(config.getOutputDir());
+    }
+
+    @Test
+    void resumedTilesAreHashed() throws IOException {
+        ConverterConfig complete = config("complete");
+        convert(complete, imageFile);
+        List<String> expected = checkManifest(complete.getOutputDir());
+
+        // Leave the output of a run interrupted once the top level's first
+        // row of tiles, including the first white tile, had been written
+        ConverterConfig resumed = config("resumed").toBuilder().resumeMode(true).build();
+        File outputDir = resumed.getOutputDir();
+        convert(resumed, imageFile);
+        assertTrue(new File(outputDir, "img.xml").delete());
+        assertTrue(new File(outputDir, "img." + HashingTileStore.EXTENSION).delete());
+        assertTrue(new File(outputDir, "img." + ResumableTileStore.SETTINGS_EXTENSION).delete());
+        PrintStream journal = new PrintStream(new File(outputDir, "img."
+                                                       + ResumableTileStore.EXTENSION));
+        journal.println(ResumableTileStore.settingsLine(resumed, WIDTH, HEIGHT));
+        for (int col = 0; col < 8; col++) {
+            File tile = new File(outputDir, "img/10/" + col + "_0.png");
+            journal.println("t 10 " + col + " 0 " + tile.length());
+        }
+        journal.close();
+        for (int level = 0; level < 10; level++) {
+            File levelDir = new File(outputDir, "img/" + level);
+            for (File tile : levelDir.listFiles())
+                assertTrue(tile.delete());
+            assertTrue(levelDir.delete());
+        }
+
+        convert(resumed, imageFile);
+        assertFalse(new File(outputDir, "img." + ResumableTileStore.EXTENSION).exists());
+        assertEquals(expected, checkManifest(outputDir));
+    }
+}
@@ -0,0 +1,117 @@
+package DeepZoomConverter;
+
+/**
+ *  Deep Zoom Converter
+ *
+ *  Version: MPL 1.1/GPL 3/LGPL 3
+ *
+ *  The contents of this file are subject to the Mozilla Public License Version
+ *  1.1 (the "License"); you may not use this file except in compliance with
+ *  the License. You may obtain a copy of the License at
+ *  http: *www.mozilla.org/MPL/
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ *  for the specific language governing rights and limitations under the
+ *  License.
+ *
+ *  The Original Code is this Java package called DeepZoomConverter
+ *
+ *  The Initial Developer of the Original Code is Glenn Lawrence.
+ *  Portions created by the Initial Developer are Copyright (c) 2007-2009
+ *  the Initial Developer. All Rights Reserved.
+ *
+ *  Contributor(s):
+ *    Glenn Lawrence  <glenn.c.lawrence@gmail.com>
+ *
+ *  Alternatively, the contents of this file may be used under the terms of
+ *  either the GNU General Public License Version 3 or later (the "GPL"), or
+ *  the GNU Lesser General Public License Version 3 or later (the "LGPL"),
+ *  in which case the provisions of the GPL or the LGPL are applicable instead
+ *  of those above. If you wish to allow use of your version of this file only
+ *  under the terms of either the GPL or the LGPL, and not to allow others to
+ *  use your version of this file under the terms of the MPL, indicate your
+ *  decision by deleting the provisions above and replace them with the notice
+ *  and other provisions required by the GPL or the LGPL. If you do not delete
+ *  the provisions above, a recipient may use your version of this file under
+ *  the terms of any one of the MPL, the GPL or the LGPL.
+ */
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.util.Vector;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Checks which values a cache keeps and which it discards
+ */
+class LruCacheTest {
+
+    /**
+     * A cache of byte arrays sized by their length, recording the values it discards
+     */
+    private static class ArrayCache extends LruCache<String, byte[]> {
+        final Vector<byte[]> discarded = new Vector<byte[]>();
+
+        ArrayCache(long maxSize) {
+            super(maxSize);
+        }
+
+        protected long sizeOf(byte[] value) {
+            return value.length;
+        }
+
+        protected void discarded(byte[] value) {
+            discarded.add(value);
+        }
+    }
+
+    @Test
+    void leastRecentlyUsedValuesAreDiscarded() {
+        ArrayCache cache = new ArrayCache(10);
+        byte[] a = new byte[4];
+        byte[] b = new byte[4];
+        byte[] c = new byte[4];
+        cache.put("a", a);
+        cache.put("b", b);
+        assertSame(a, cache.get("a"));
+        cache.put("c", c);
+
+        assertNull(cache.get("b"));
+        assertSame(a, cache.get("a"));
+        assertSame(c, cache.get("c"));
+        assertEquals(8, cache.getSize());
+        assertEquals(1, cache.discarded.size());
+        assertSame(b, cache.discarded.elementAt(0));
+    }
+
+    @Test
+    void valuesLargerThanTheLimitAreNotKept() {
+        ArrayCache cache = new ArrayCache(10);
+        byte[] small = new byte[4];
+        byte[] large = new byte[11];
+        cache.put("small", small);
+        cache.put("large", large);
+
+        assertSame(small, cache.get("small"));
+        assertNull(cache.get("large"));
+        assertEquals(4, cache.getSize());
+        assertEquals(1, cache.discarded.size());
+        assertSame(large, cache.discarded.elementAt(0));
+    }
+
+    @Test
+    void replacedValuesAreDiscarded() {
+        ArrayCache cache = new ArrayCache(10);
+        byte[] first = new byte[6];
+        byte[] second = new byte[2];
+        cache.put("key", first);
+        cache.put("key", second);
+
+        assertSame(second, cache.get("key"));
+        assertEquals(2, cache.getSize());
+        assertSame(first, cache.discarded.elementAt(0));
+    }
+}
@@ -0,0 +1,126 @@
+package DeepZoomConverter;
+
+/**
+ *  Deep Zoom Converter
+ *
+ *  Version: MPL 1.1/GPL 3/LGPL 3
+ *
+ *  The contents of this file are subject to the Mozilla Public License Version
+ *  1.1 (the "License"); you may not use this file except in compliance with
+ *  the License. You may obtain a copy of the License at
+ *  http: *www.mozilla.org/MPL/
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ *  for the specific language governing rights and limitations under the
+ *  License.
+ *
+ *  The Original Code is this Java package called DeepZoomConverter
+ *
+ *  The Initial Developer of the Original Code is Glenn Lawrence.
+ *  Portions created by the Initial Developer are Copyright (c) 2007-2009
+ *  the Initial Developer. All Rights Reserved.
+ *
+ *  Contributor(s):
+ *    Glenn Lawrence  <glenn.c.lawrence@gmail.com>
+ *
+ *  Alternatively, the contents of this file may be used under the terms of
+ *  either the GNU General Public License Version 3 or later (the "GPL"), or
+ *  the GNU Lesser General Public License Version 3 or later (the "LGPL"),
+ *  in which case the provisions of the GPL or the LGPL are applicable instead
+ *  of those above. If you wish to allow use of your version of this file only
+ *  under the terms of either the GPL or the LGPL, and not to allow others to
+ *  use your version of this file under the terms of the MPL, indicate your
+ *  decision by deleting the provisions above and replace them with the notice
+ *  and other provisions required by the GPL or the LGPL. If you do not delete
+ *  the provisions above, a recipient may use your version of this file under
+ *  the terms of any one of the MPL, the GPL or the LGPL.
+ */
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Requests tiles from a pyramid server, checking the ETag and HEAD answers
+ */
+class PyramidServerTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void tilesAreServedWithETags() throws IOException {
+        byte[] tile = TestTiles.tileBytes(10, 1, 2);
+        File levelDir = new File(tempDir.toFile(), "image/10");
+        levelDir.mkdirs();
+        Files.write(new File(levelDir, "1_2.jpg").toPath(), tile);
+
+        try (PyramidServer server = new PyramidServer(tempDir.toFile(), 0, 2, 16)) {
+            server.start();
+            URL url = new URL("http://localhost:" + server.getPort() + "/image_files/10/1_2.jpg");
+
+            HttpURLConnection get = (HttpURLConnection) url.openConnection();
+            assertEquals(200, get.getResponseCode());
+            assertEquals("image/jpeg", get.getContentType());
+            String etag = get.getHeaderField("ETag");
+            assertNotNull(etag);
+            try (InputStream in = get.getInputStream()) {
+                assertArrayEquals(tile, in.readAllBytes());
+            }
+
+            HttpURLConnection cached = (HttpURLConnection) url.openConnection();
+            cached.setRequestProperty("If-None-Match", etag);
+            assertEquals(304, cached.getResponseCode());
+            assertEquals(etag, cached.getHeaderField("ETag"));
+
+            HttpURLConnection head = (HttpURLConnection) url.openConnection();
+            head.setRequestMethod("HEAD");
+            assertEquals(200, head.getResponseCode());
+            assertEquals(tile.length, head.getContentLengthLong());
+            assertEquals(etag, head.getHeaderField("ETag"));
+
+            HttpURLConnection missing = (HttpURLConnection) new URL(
+                "http://localhost:" + server.getPort() + "/image_files/10/9_9.jpg").openConnection();
+            assertEquals(404, missing.getResponseCode());
+        }
+    }
+
+    @Test
+    void replacedTilesAreServedAgain() throws IOException {
+        File levelDir = new File(tempDir.toFile(), "image/10");
+        levelDir.mkdirs();
+        File tileFile = new File(levelDir, "0_0.png");
+        Files.write(tileFile.toPath(), TestTiles.tileBytes(10, 0, 0));
+
+        try (PyramidServer server = new PyramidServer(tempDir.toFile(), 0, 2, 16)) {
+            server.start();
+            URL url = new URL("http://localhost:" + server.getPort() + "/image_files/10/0_0.png");
+            HttpURLConnection first = (HttpURLConnection) url.openConnection();
+            try (InputStream in = first.getInputStream()) {
+                in.readAllBytes();
+            }
+            String etag = first.getHeaderField("ETag");
+
+            byte[] replaced = new byte[3 * TestTiles.tileBytes(10, 0, 0).length];
+            Files.write(tileFile.toPath(), replaced);
+            tileFile.setLastModified(tileFile.lastModified() + 2000);
+            HttpURLConnection second = (HttpURLConnection) url.openConnection();
+            second.setRequestProperty("If-None-Match", etag);
+            assertEquals(200, second.getResponseCode());
+            try (InputStream in = second.getInputStream()) {
+                assertArrayEquals(replaced, in.readAllBytes());
+            }
+        }
+    }
+}
@@ -0,0 +1,159 @@
+package DeepZoomConverter;
+
+/**
+ *  Deep Zoom Converter
+ *
+ *  Version: MPL 1.1/GPL 3/LGPL 3
+ *
+ *  The contents of this file are subject to the Mozilla Public License Version
+ *  1.1 (the "License"); you may not use this file except in compliance with
+ *  the License. You may obtain a copy of the License at
+ *  http: *www.mozilla.org/MPL/
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ *  for the specific language governing rights and limitations under the
+ *  License.
+ *
+ *  The Original Code is this Java package called DeepZoomConverter
+ *
+ *  The Initial Developer of the Original Code is Glenn Lawrence.
+ *  Portions created by the Initial Developer are Copyright (c) 2007-2009
+ *  the Initial Developer. All Rights Reserved.
+ *
+ *  Contributor(s):
+ *    Glenn Lawrence  <glenn.c.lawrence@gmail.com>
+ *
+ *  Alternatively, the contents of this file may be used under the terms of
+ *  either the GNU General Public License Version 3 or later (the "GPL"), or
+ *  the GNU Lesser General Public License Version 3 or later (the "LGPL"),
+ *  in which case the provisions of the GPL or the LGPL are applicable instead
+ *  of those above. If you wish to allow use of your version of this file only
+ *  under the terms of either the GPL or the LGPL, and not to allow others to
+ *  use your version of this file under the terms of the MPL, indicate your
+ *  decision by deleting the provisions above and replace them with the notice
+ *  and other provisions required by the GPL or the LGPL. If you do not delete
+ *  the provisions above, a recipient may use your version of this file under
+ *  the terms of any one of the MPL, the GPL or the LGPL.
+ */
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static DeepZoomConverter.TestTiles.*;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import javax.imageio.ImageIO;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Interrupts a conversion into a resumable store and resumes it, checking
+ * which tiles are kept from the journal
+ */
+class ResumableTileStoreTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void resumedTilesAreKept() throws IOException {
+        File imgDir = Files.createDirectory(tempDir.resolve("img")).toFile();
+        File journal = tempDir.resolve("img." + ResumableTileStore.EXTENSION).toFile();
+        File settingsFile = tempDir.resolve("img." + ResumableTileStore.SETTINGS_EXTENSION)
+                                   .toFile();
+        ConverterConfig config = ConverterConfig.builder().build();
+        String settings = ResumableTileStore.settingsLine(config, WIDTH, HEIGHT);
+
+        // An interrupted run: the store is closed without being finished,
+        // and the journal's last line is cut short
+        ResumableTileStore store = new ResumableTileStore(imgDir, "png", journal, settingsFile,
+                                                          settings);
+        store.beginLevel(9);
+        byte[] data = tileBytes(9, 0, 0);
+        store.write(9, 0, 0, tileBuffer(data));
+        store.write(9, 1, 0, tileBuffer(tileBytes(9, 1, 0)));
+        store.writeCopy(9, 2, 0, 9, 0, 0);
+        store.close();
+        FileWriter out = new FileWriter(journal, true);
+        out.write("t 9 0 1 ");
+        out.close();
+
+        assertTrue(ResumableTileStore.canResume(journal, settings));
+        assertFalse(ResumableTileStore.canResume(journal, ResumableTileStore.settingsLine(
+            ConverterConfig.builder().tileQuality(0.5f).build(), WIDTH, HEIGHT)));
+        assertFalse(ResumableTileStore.canResume(journal, ResumableTileStore.settingsLine(
+            config, WIDTH + 1, HEIGHT)));
+
+        // A tile whose file was cut short is produced again
+        RandomAccessFile cut = new RandomAccessFile(new File(imgDir, "9/1_0.png"), "rw");
+        cut.setLength(cut.length() - 1);
+        cut.close();
+
+        store = new ResumableTileStore(imgDir, "png", journal, settingsFile, settings);
+        assertEquals(3, store.getResumedTileCount());
+        assertTrue(store.hasTile(9, 0, 0));
+        assertTrue(store.hasTile(9, 2, 0));
+        assertFalse(store.hasTile(9, 1, 0));
+        assertFalse(store.hasTile(9, 0, 1));
+        store.beginLevel(9);
+        store.write(9, 1, 0, tileBuffer(tileBytes(9, 1, 0)));
+        for (int col = 0; col < 3; col++)
+            store.write(9, col, 1, tileBuffer(tileBytes(9, col, 1)));
+        assertFalse(settingsFile.exists());
+        store.finish();
+        store.close();
+
+        assertFalse(journal.exists());
+        assertTrue(ResumableTileStore.isFinishedWith(settingsFile, settings));
+        assertArrayEquals(data, Files.readAllBytes(new File(imgDir, "9/2_0.png").toPath()));
+        List<String> names = Arrays.asList(new File(imgDir, "9").list());
+        assertEquals(6, names.size());
+    }
+
+    private static void convert(ConverterConfig config, File imageFile) throws IOException {
+        DeepZoomConverter converter = new DeepZoomConverter(config);
+        try {
+            converter.processImageFile(imageFile);
+        } finally {
+            converter.close();
+        }
+    }
+
+    @Test
+    void finishedOutputIsOnlyKeptWithTheSameSettings() throws IOException {
+        File imageFile = tempDir.resolve("img.png").toFile();
+        ImageIO.write(ConversionPathsTest.createImage(WIDTH, HEIGHT, 3), "png", imageFile);
+        File outputDir = Files.createDirectory(tempDir.resolve("out")).toFile();
+        ConverterConfig jpg = ConverterConfig.builder().outputDir(outputDir).tileSize(128)
+                                             .resumeMode(true).build();
+        File descriptor = new File(outputDir, "img.xml");
+        File tile = new File(outputDir, "img/9/0_0.jpg");
+
+        // Output from a run not in resume mode has no settings file
+        convert(jpg.toBuilder().resumeMode(false).build(), imageFile);
+        long written = descriptor.lastModified();
+        convert(jpg, imageFile);
+        assertTrue(new File(outputDir, "img." + ResumableTileStore.SETTINGS_EXTENSION).exists());
+        assertTrue(tile.exists());
+
+        // The same settings keep the output
+        assertTrue(tile.setLastModified(written - 10000));
+        convert(jpg, imageFile);
+        assertEquals(written - 10000, tile.lastModified());
+
+        // Other settings replace it
+        convert(jpg.toBuilder().tileSize(64).tileFormat("png").build(), imageFile);
+        assertFalse(tile.exists());
+        assertTrue(new File(outputDir, "img/9/0_0.png").exists());
+        assertTrue(Files.readString(descriptor.toPath()).contains("TileSize=\"64\""));
+    }
+}
@@ -0,0 +1,137 @@
+package DeepZoomConverter;
+
+/**
+ *  Deep Zoom Converter
+ *
+ *  Version: MPL 1.1/GPL 3/LGPL 3
+ *
+ *  The contents of this file are subject to the Mozilla Public License Version
+ *  1.1 (the "License"); you may not use this file except in compliance with
+ *  the License. You may obtain a copy of the License at
+ *  http: *www.mozilla.org/MPL/
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ *  for the specific language governing rights and limitations under the
+ *  License.
+ *
+ *  The Original Code is this Java package called DeepZoomConverter
+ *
+ *  The Initial Developer of the Original Code is Glenn Lawrence.
+ *  Portions created by the Initial Developer are Copyright (c) 2007-2009
+ *  the Initial Developer. All Rights Reserved.
+ *
+ *  Contributor(s):
+ *    Glenn Lawrence  <glenn.c.lawrence@gmail.com>
+ *
+ *  Alternatively, the contents of this file may be used under the terms of
+ *  either the GNU General Public License Version 3 or later (the "GPL"), or
+ *  the GNU Lesser General Public License Version 3 or later (the "LGPL"),
+ *  in which case the provisions of the GPL or the LGPL are applicable instead
+ *  of those above. If you wish to allow use of your version of this file only
+ *  under the terms of either the GPL or the LGPL, and not to allow others to
+ *  use your version of this file under the terms of the MPL, indicate your
+ *  decision by deleting the provisions above and replace them with the notice
+ *  and other provisions required by the GPL or the LGPL. If you do not delete
+ *  the provisions above, a recipient may use your version of this file under
+ *  the terms of any one of the MPL, the GPL or the LGPL.
+ */
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Checks that concurrent computations for a key are coalesced
+ */
+class SingleFlightTest {
+
+    private static final int THREADS = 8;
+
+    /**
+     * Asks for a key on several threads while its first computation is
+     * held, returning the results once it is let go
+     */
+    private static Object[] runConcurrently(final SingleFlight<String, Object> flights,
+                                            final Callable<Object> call,
+                                            CountDownLatch started, CountDownLatch release)
+            throws Exception {
+        final Object[] results = new Object[THREADS];
+        Thread[] threads = new Thread[THREADS];
+        for (int i = 0; i < THREADS; i++) {
+            final int n = i;
+            threads[i] = new Thread() {
+                public void run() {
+                    try {
+                        results[n] = flights.run("tile", call);
+                    } catch (Exception e) {
+                        results[n] = e;
+                    }
+                }
+            };
+            threads[i].start();
+            if (i == 0)
+                started.await();
+        }
+        // Every other thread is waiting once it is parked on the first's result
+        for (int i = 1; i < THREADS; i++) {
+            while (threads[i].getState() != Thread.State.WAITING)
+                Thread.sleep(1);
+        }
+        release.countDown();
+        for (Thread thread : threads)
+            thread.join();
+        return results;
+    }
+
+    @Test
+    void concurrentCallsShareOneComputation() throws Exception {
+        final AtomicInteger calls = new AtomicInteger();
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        SingleFlight<String, Object> flights = new SingleFlight<String, Object>();
+        Object[] results = runConcurrently(flights, new Callable<Object>() {
+            public Object call() throws InterruptedException {
+                calls.incrementAndGet();
+                started.countDown();
+                release.await();
+                return new Object();
+            }
+        }, started, release);
+
+        assertEquals(1, calls.get());
+        for (Object result : results)
+            assertSame(results[0], result);
+
+        // Results are not kept, so a later call computes again
+        flights.run("tile", new Callable<Object>() {
+            public Object call() {
+                calls.incrementAndGet();
+                return null;
+            }
+        });
+        assertEquals(2, calls.get());
+    }
+
+    @Test
+    void failuresReachEveryWaiter() throws Exception {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final IOException failure = new IOException("Cannot read region");
+        Object[] results = runConcurrently(new SingleFlight<String, Object>(), new Callable<Object>() {
+            public Object call() throws Exception {
+                started.countDown();
+                release.await();
+                throw failure;
+            }
+        }, started, release);
+
+        for (Object result : results)
+            assertSame(failure, result);
+    }
+}
@@ -0,0 +1,106 @@
+package DeepZoomConverter;
+
+/**
+ *  Deep Zoom Converter
+ *
+ *  Version: MPL 1.1/GPL 3/LGPL 3
+ *
+ *  The contents of this file are subject to the Mozilla Public License Version
+ *  1.1 (the "License"); you may not use this file except in compliance with
+ *  the License. You may obtain a copy of the License at
+ *  http: *www.mozilla.org/MPL/
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ *  for the specific language governing rights and limitations under the
+ *  License.
+ *
+ *  The Original Code is this Java package called DeepZoomConverter
+ *
+ *  The Initial Developer of the Original Code is Glenn Lawrence.
+ *  Portions created by the Initial Developer are Copyright (c) 2007-2009
+ *  the Initial Developer. All Rights Reserved.
+ *
+ *  Contributor(s):
+ *    Glenn Lawrence  <glenn.c.lawrence@gmail.com>
+ *
+ *  Alternatively, the contents of this file may be used under the terms of
+ *  either the GNU General Public License Version 3 or later (the "GPL"), or
+ *  the GNU Lesser General Public License Version 3 or later (the "LGPL"),
+ *  in which case the provisions of the GPL or the LGPL are applicable instead
+ *  of those above. If you wish to allow use of your version of this file only
+ *  under the terms of either the GPL or the LGPL, and not to allow others to
+ *  use your version of this file under the terms of the MPL, indicate your
+ *  decision by deleting the provisions above and replace them with the notice
+ *  and other provisions required by the GPL or the LGPL. If you do not delete
+ *  the provisions above, a recipient may use your version of this file under
+ *  the terms of any one of the MPL, the GPL or the LGPL.
+ */
+
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import javax.imageio.ImageIO;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Replaces the output of an image in swap mode and checks that what is
+ * left is exactly the new output
+ */
+class StagedTileStoreTest {
+
+    @TempDir
+    Path tempDir;
+
+    private File imageFile;
+
+    @BeforeEach
+    void createImage() throws IOException {
+        imageFile = tempDir.resolve("img.png").toFile();
+        ImageIO.write(ConversionPathsTest.createImage(500, 300, 5), "png", imageFile);
+    }
+
+    private static void convert(ConverterConfig config, File imageFile) throws IOException {
+        DeepZoomConverter converter = new DeepZoomConverter(config);
+        try {
+            converter.processImageFile(imageFile);
+        } finally {
+            converter.close();
+        }
+    }
+
+    @Test
+    void replacedOutputIsPublishedWhole() throws IOException {
+        File expected = Files.createDirectory(tempDir.resolve("expected")).toFile();
+        ConverterConfig packed = ConverterConfig.builder().outputDir(expected).tileSize(64)
+            .tileFormat("png").packMode(true).build();
+        convert(packed, imageFile);
+
+        File swapped = Files.createDirectory(tempDir.resolve("swapped")).toFile();
+        convert(ConverterConfig.builder().outputDir(swapped).tileSize(128).swapMode(true)
+                .deleteExisting(true).build(), imageFile);
+        // The tile directory of the first run is replaced by a packed file
+        convert(packed.toBuilder().outputDir(swapped).swapMode(true).deleteExisting(true).build(),
+                imageFile);
+        ConversionPathsTest.assertSameTree(expected, swapped);
+    }
+
+    @Test
+    void existingOutputIsKeptWithoutDelete() throws IOException {
+        File expected = Files.createDirectory(tempDir.resolve("expected")).toFile();
+        File outputDir = Files.createDirectory(tempDir.resolve("out")).toFile();
+        ConverterConfig config = ConverterConfig.builder().outputDir(expected).tileSize(128)
+            .swapMode(true).deleteExisting(false).build();
+        convert(config, imageFile);
+        convert(config.toBuilder().outputDir(outputDir).build(), imageFile);
+
+        ConverterConfig replacing = config.toBuilder().outputDir(outputDir).tileSize(64).build();
+        assertThrows(IOException.class, () -> convert(replacing, imageFile));
+        ConversionPathsTest.assertSameTree(expected, outputDir);
+    }
+}
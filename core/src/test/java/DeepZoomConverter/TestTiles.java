@@ -0,0 +1,147 @@
+package DeepZoomConverter;
+
+/**
+ *  Deep Zoom Converter
+ *
+ *  Version: MPL 1.1/GPL 3/LGPL 3
+ *
+ *  The contents of this file are subject to the Mozilla Public License Version
+ *  1.1 (the "License"); you may not use this file except in compliance with
+ *  the License. You may obtain a copy of the License at
+ *  http: *www.mozilla.org/MPL/
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ *  for the specific language governing rights and limitations under the
+ *  License.
+ *
+ *  The Original Code is this Java package called DeepZoomConverter
+ *
+ *  The Initial Developer of the Original Code is Glenn Lawrence.
+ *  Portions created by the Initial Developer are Copyright (c) 2007-2009
+ *  the Initial Developer. All Rights Reserved.
+ *
+ *  Contributor(s):
+ *    Glenn Lawrence  <glenn.c.lawrence@gmail.com>
+ *
+ *  Alternatively, the contents of this file may be used under the terms of
+ *  either the GNU General Public License Version 3 or later (the "GPL"), or
+ *  the GNU Lesser General Public License Version 3 or later (the "LGPL"),
+ *  in which case the provisions of the GPL or the LGPL are applicable instead
+ *  of those above. If you wish to allow use of your version of this file only
+ *  under the terms of either the GPL or the LGPL, and not to allow others to
+ *  use your version of this file under the terms of the MPL, indicate your
+ *  decision by deleting the provisions above and replace them with the notice
+ *  and other provisions required by the GPL or the LGPL. If you do not delete
+ *  the provisions above, a recipient may use your version of this file under
+ *  the terms of any one of the MPL, the GPL or the LGPL.
+ */
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+/**
+ * Tiles written to the stores under test, for an image whose size gives
+ * several tiles at the top levels
+ */
+class TestTiles {
+
+    // A 300x200 image in 128 pixel tiles has levels 0 to 9, with 3x2 tiles at the top
+    static final int WIDTH = 300;
+    static final int HEIGHT = 200;
+    static final int TILE_SIZE = 128;
+    static final int LEVELS = 10;
+
+    static int nCols(int level) {
+        return (((WIDTH - 1) >> (LEVELS - 1 - level)) + TILE_SIZE) / TILE_SIZE;
+    }
+
+    static int nRows(int level) {
+        return (((HEIGHT - 1) >> (LEVELS - 1 - level)) + TILE_SIZE) / TILE_SIZE;
+    }
+
+    /**
+     * Returns the bytes standing in for an encoded tile, distinct for each
+     * tile and mostly of different lengths
+     */
+    static byte[] tileBytes(int level, int col, int row) {
+        Random random = new Random(level * 10000 + col * 100 + row);
+        byte[] data = new byte[1 + random.nextInt(3000)];
+        random.nextBytes(data);
+        return data;
+    }
+
+    static TileBuffer tileBuffer(byte[] data) throws IOException {
+        TileBuffer tile = new TileBuffer();
+        tile.write(data);
+        return tile;
+    }
+
+    /**
+     * Writes every tile of the image to a store, except the last tile of
+     * the top level, with the first tile of level 8 stored as a copy of the
+     * first tile of the top level. One tile is larger than the packed
+     * store's write buffer.
+     * @return the tiles written, indexed by level and row order position
+     */
+    static byte[][][] writeTiles(TileStore store) throws IOException {
+        byte[][][] tiles = new byte[LEVELS][][];
+        for (int level = LEVELS - 1; level >= 0; level--) {
+            tiles[level] = new byte[nCols(level) * nRows(level)][];
+            store.beginLevel(level);
+            for (int row = 0; row < nRows(level); row++) {
+                for (int col = 0; col < nCols(level); col++) {
+                    int i = row * nCols(level) + col;
+                    if (level == LEVELS - 1 && i == tiles[level].length - 1)
+                        continue;
+                    if (level == LEVELS - 2 && i == 0) {
+                        store.writeCopy(level, col, row, LEVELS - 1, 0, 0);
+                        tiles[level][i] = tiles[LEVELS - 1][0];
+                        continue;
+                    }
+                    byte[] data = (level == 5) ? new byte[5 << 20] : tileBytes(level, col, row);
+                    if (level == 5)
+                        new Random(5).nextBytes(data);
+                    store.write(level, col, row, tileBuffer(data));
+                    tiles[level][i] = data;
+                }
+            }
+        }
+        store.finish();
+        store.close();
+        return tiles;
+    }
+
+    /**
+     * Checks an index or directory of "long offset, int length" entries
+     * for each level against the tiles written
+     * @return the offset of each tile, indexed by level and row order position
+     */
+    static long[][] checkIndex(ByteBuffer file, int indexOffset, byte[][][] tiles) {
+        file.position(indexOffset);
+        assertEquals(LEVELS, file.getInt());
+        long[][] offsets = new long[LEVELS][];
+        for (int level = 0; level < LEVELS; level++) {
+            assertEquals(nCols(level), file.getInt());
+            assertEquals(nRows(level), file.getInt());
+            offsets[level] = new long[tiles[level].length];
+            for (int i = 0; i < tiles[level].length; i++) {
+                offsets[level][i] = file.getLong();
+                int length = file.getInt();
+                if (tiles[level][i] == null) {
+                    assertEquals(0, length);
+                    continue;
+                }
+                byte[] data = new byte[length];
+                file.duplicate().position((int)offsets[level][i]).get(data);
+                assertArrayEquals(tiles[level][i], data, "level " + level + " tile " + i);
+            }
+        }
+        assertEquals(offsets[LEVELS - 1][0], offsets[LEVELS - 2][0]);
+        return offsets;
+    }
+}
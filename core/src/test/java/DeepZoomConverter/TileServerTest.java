@@ -0,0 +1,103 @@
+package DeepZoomConverter;
+
+/**
+ *  Deep Zoom Converter
+ *
+ *  Version: MPL 1.1/GPL 3/LGPL 3
+ *
+ *  The contents of this file are subject to the Mozilla Public License Version
+ *  1.1 (the "License"); you may not use this file except in compliance with
+ *  the License. You may obtain a copy of the License at
+ *  http: *www.mozilla.org/MPL/
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ *  for the specific language governing rights and limitations under the
+ *  License.
+ *
+ *  The Original Code is this Java package called DeepZoomConverter
+ *
+ *  The Initial Developer of the Original Code is Glenn Lawrence.
+ *  Portions created by the Initial Developer are Copyright (c) 2007-2009
+ *  the Initial Developer. All Rights Reserved.
+ *
+ *  Contributor(s):
+ *    Glenn Lawrence  <glenn.c.lawrence@gmail.com>
+ *
+ *  Alternatively, the contents of this file may be used under the terms of
+ *  either the GNU General Public License Version 3 or later (the "GPL"), or
+ *  the GNU Lesser General Public License Version 3 or later (the "LGPL"),
+ *  in which case the provisions of the GPL or the LGPL are applicable instead
+ *  of those above. If you wish to allow use of your version of this file only
+ *  under the terms of either the GPL or the LGPL, and not to allow others to
+ *  use your version of this file under the terms of the MPL, indicate your
+ *  decision by deleting the provisions above and replace them with the notice
+ *  and other provisions required by the GPL or the LGPL. If you do not delete
+ *  the provisions above, a recipient may use your version of this file under
+ *  the terms of any one of the MPL, the GPL or the LGPL.
+ */
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.TreeMap;
+import javax.imageio.ImageIO;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Requests every tile of an image from a tile server and compares it with
+ * the tile a conversion writes
+ */
+class TileServerTest {
+
+    @TempDir
+    Path tempDir;
+
+    private static byte[] fetch(URL url) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        assertEquals(200, connection.getResponseCode(), url.toString());
+        try (InputStream in = connection.getInputStream()) {
+            return in.readAllBytes();
+        }
+    }
+
+    @Test
+    void servedTilesMatchConvertedTiles() throws IOException {
+        File imageFile = tempDir.resolve("img.png").toFile();
+        ImageIO.write(ConversionPathsTest.createImage(701, 457, 7), "png", imageFile);
+        File outputDir = Files.createDirectory(tempDir.resolve("out")).toFile();
+        ConverterConfig config = ConverterConfig.builder().outputDir(outputDir).tileSize(128)
+            .tileOverlap(1).tileFormat("png").resampleMode(ConverterConfig.ResampleMode.BOX)
+            .threadCount(4).build();
+
+        DeepZoomConverter converter = new DeepZoomConverter(config);
+        try {
+            converter.processImageFile(imageFile);
+            try (TileServer server = new TileServer(converter, 0, 1, 1)) {
+                server.addImage(imageFile);
+                server.start();
+                String base = "http://localhost:" + server.getPort() + "/";
+
+                assertArrayEquals(Files.readAllBytes(new File(outputDir, "img.xml").toPath()),
+                                  fetch(new URL(base + "img.xml")));
+                TreeMap<String, byte[]> tiles = ConversionPathsTest.readTree(new File(outputDir, "img"));
+                for (String tile : tiles.keySet())
+                    assertArrayEquals(tiles.get(tile), fetch(new URL(base + "img_files/" + tile)), tile);
+
+                HttpURLConnection missing = (HttpURLConnection)
+                    new URL(base + "img_files/10/9_9.png").openConnection();
+                assertEquals(404, missing.getResponseCode());
+            }
+        } finally {
+            converter.close();
+        }
+    }
+}
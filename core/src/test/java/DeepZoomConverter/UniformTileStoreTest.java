@@ -0,0 +1,112 @@
+package DeepZoomConverter;
+
+/**
+ *  Deep Zoom Converter
+ *
+ *  Version: MPL 1.1/GPL 3/LGPL 3
+ *
+ *  The contents of this file are subject to the Mozilla Public License Version
+ *  1.1 (the "License"); you may not use this file except in compliance with
+ *  the License. You may obtain a copy of the License at
+ *  http: *www.mozilla.org/MPL/
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ *  for the specific language governing rights and limitations under the
+ *  License.
+ *
+ *  The Original Code is this Java package called DeepZoomConverter
+ *
+ *  The Initial Developer of the Original Code is Glenn Lawrence.
+ *  Portions created by the Initial Developer are Copyright (c) 2007-2009
+ *  the Initial Developer. All Rights Reserved.
+ *
+ *  Contributor(s):
+ *    Glenn Lawrence  <glenn.c.lawrence@gmail.com>
+ *
+ *  Alternatively, the contents of this file may be used under the terms of
+ *  either the GNU General Public License Version 3 or later (the "GPL"), or
+ *  the GNU Lesser General Public License Version 3 or later (the "LGPL"),
+ *  in which case the provisions of the GPL or the LGPL are applicable instead
+ *  of those above. If you wish to allow use of your version of this file only
+ *  under the terms of either the GPL or the LGPL, and not to allow others to
+ *  use your version of this file under the terms of the MPL, indicate your
+ *  decision by deleting the provisions above and replace them with the notice
+ *  and other provisions required by the GPL or the LGPL. If you do not delete
+ *  the provisions above, a recipient may use your version of this file under
+ *  the terms of any one of the MPL, the GPL or the LGPL.
+ */
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static DeepZoomConverter.TestTiles.*;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Checks that uniform tiles are listed in the sparse tile manifest in skip
+ * mode and stored as links to the first of their kind in link mode
+ */
+class UniformTileStoreTest {
+
+    @TempDir
+    Path tempDir;
+
+    private static BufferedImage uniformTile(int width, int height, int rgb) {
+        BufferedImage tile = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++)
+                tile.setRGB(x, y, rgb);
+        }
+        return tile;
+    }
+
+    @Test
+    void uniformTilesAreListedInSkipMode() throws IOException {
+        File imgDir = Files.createDirectory(tempDir.resolve("img")).toFile();
+        File manifest = tempDir.resolve("img." + UniformTileStore.EXTENSION).toFile();
+        TileStore store = new UniformTileStore(new DirectoryTileStore(imgDir, "png"), manifest);
+        store.beginLevel(9);
+        assertTrue(store.writeUniform(9, 0, 0, uniformTile(130, 129, 0xffffff)));
+        byte[] data = tileBytes(9, 1, 0);
+        store.write(9, 1, 0, tileBuffer(data));
+        assertTrue(store.writeUniform(9, 2, 1, uniformTile(46, 73, 0x102030)));
+        store.finish();
+        store.close();
+
+        assertEquals(Arrays.asList("9 0 0 130 129 ffffffff", "9 2 1 46 73 ff102030"),
+                     Files.readAllLines(manifest.toPath()));
+        assertFalse(new File(imgDir, "9/0_0.png").exists());
+        assertArrayEquals(data, Files.readAllBytes(new File(imgDir, "9/1_0.png").toPath()));
+    }
+
+    @Test
+    void uniformTilesAreLinkedInLinkMode() throws IOException {
+        File imgDir = Files.createDirectory(tempDir.resolve("img")).toFile();
+        TileStore store = new UniformTileStore(new DirectoryTileStore(imgDir, "png"), null);
+        store.beginLevel(9);
+        BufferedImage white = uniformTile(130, 130, 0xffffff);
+        assertFalse(store.writeUniform(9, 0, 0, white));
+        byte[] data = tileBytes(9, 0, 0);
+        store.write(9, 0, 0, tileBuffer(data));
+        assertTrue(store.writeUniform(9, 1, 0, white));
+        assertFalse(store.writeUniform(9, 0, 1, uniformTile(130, 73, 0xffffff)));
+        store.finish();
+        store.close();
+
+        Path first = new File(imgDir, "9/0_0.png").toPath();
+        Path copy = new File(imgDir, "9/1_0.png").toPath();
+        assertArrayEquals(data, Files.readAllBytes(copy));
+        assertTrue(Files.isSameFile(first, copy));
+        assertFalse(new File(imgDir, "9/0_1.png").exists());
+    }
+}
@@ -0,0 +1,277 @@
+package DeepZoomConverter;
+
+/**
+ *  Deep Zoom Converter
+ *
+ *  Version: MPL 1.1/GPL 3/LGPL 3
+ *
+ *  The contents of this file are subject to the Mozilla Public License Version
+ *  1.1 (the "License"); you may not use this file except in compliance with
+ *  the License. You may obtain a copy of the License at
+ *  http: *www.mozilla.org/MPL/
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ *  for the specific language governing rights and limitations under the
+ *  License.
+ *
+ *  The Original Code is this Java package called DeepZoomConverter
+ *
+ *  The Initial Developer of the Original Code is Glenn Lawrence.
+ *  Portions created by the Initial Developer are Copyright (c) 2007-2009
+ *  the Initial Developer. All Rights Reserved.
+ *
+ *  Contributor(s):
+ *    Glenn Lawrence  <glenn.c.lawrence@gmail.com>
+ *
+ *  Alternatively, the contents of this file may be used under the terms of
+ *  either the GNU General Public License Version 3 or later (the "GPL"), or
+ *  the GNU Lesser General Public License Version 3 or later (the "LGPL"),
+ *  in which case the provisions of the GPL or the LGPL are applicable instead
+ *  of those above. If you wish to allow use of your version of this file only
+ *  under the terms of either the GPL or the LGPL, and not to allow others to
+ *  use your version of this file under the terms of the MPL, indicate your
+ *  decision by deleting the provisions above and replace them with the notice
+ *  and other provisions required by the GPL or the LGPL. If you do not delete
+ *  the provisions above, a recipient may use your version of this file under
+ *  the terms of any one of the MPL, the GPL or the LGPL.
+ */
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+
+/**
+ * Stores the tiles of an image in a single archive laid out for serving
+ * with HTTP range requests, e.g. from object storage or a CDN. A header
+ * and a directory of every tile come first, so a viewer can fetch both
+ * with one request. They are followed by the tiles, from level 0 up. Each
+ * level's tiles are in Hilbert curve order, so tiles that are close
+ * together on screen are close together in the file, and a viewer
+ * panning around reads contiguous byte ranges.
+ *
+ * Tiles arrive in any order, so they are first spilled to a packed file
+ * in the output directory. Once every tile is written they are copied
+ * into the archive in their final order. All numbers are big endian:
+ *
+ *   header:     int magic "DZAR", int version, int width, int height,
+ *               int tile size, int overlap, long data offset (the size of
+ *               the header and directory)
+ *   directory:  int level count, then for each level from 0 up:
+ *               int columns, int rows, then for each tile in row order:
+ *               long offset, int length (0 for a tile never written), where
+ *               tiles stored as copies of another share its offset
+ *   tiles:      the encoded tiles, back to back
+ */
+class ArchiveTileStore implements TileStore {
+
+    static final String EXTENSION = "dza";
+
+    static final int MAGIC = 0x445A4152;
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 32;
+
+    private final File file;
+    private final File spillFile;
+    private final PackedTileStore spill;
+    private final int width;
+    private final int height;
+    private final int tileSize;
+    private final int tileOverlap;
+
+    /**
+     * Creates the spill file for an image's tiles. The archive itself is
+     * written when the store is finished.
+     * @param file the archive file
+     * @param width the width of the image
+     * @param height the height of the image
+     * @param tileSize the tile size, without the overlap
+     * @param tileOverlap the tile overlap
+     */
+    ArchiveTileStore(File file, int width, int height, int tileSize, int tileOverlap)
+            throws IOException {
+        this.file = file;
+        this.width = width;
+        this.height = height;
+        this.tileSize = tileSize;
+        this.tileOverlap = tileOverlap;
+        spillFile = File.createTempFile("tiles", ".tmp", file.getParentFile());
+        try {
+            spill = new PackedTileStore(spillFile, width, height, tileSize);
+        } catch (IOException e) {
+            spillFile.delete();
+            throw e;
+        }
+    }
+
+    public boolean hasTile(int level, int col, int row) {
+        return false;
+    }
+
+    public void beginLevel(int level) {
+    }
+
+    public void write(int level, int col, int row, TileBuffer tile) throws IOException {
+        spill.write(level, col, row, tile);
+    }
+
+    public boolean writeUniform(int level, int col, int row, BufferedImage tile) {
+        return false;
+    }
+
+    /**
+     * Records the tile as sharing the bytes of the tile already written,
+     * which are only copied into the archive once
+     */
+    public void writeCopy(int level, int col, int row, int fromLevel, int fromCol, int fromRow) {
+        spill.writeCopy(level, col, row, fromLevel, fromCol, fromRow);
+    }
+
+    /**
+     * Writes the archive, copying the tiles from the spill file in their
+     * final order
+     */
+    public void finish() throws IOException {
+        spill.flushTiles();
+        int nLevels = spill.getLevelCount();
+        long dataOffset = HEADER_SIZE + 4;
+        for (int level = 0; level < nLevels; level++)
+            dataOffset += 8 + 12L * spill.getColCount(level) * spill.getRowCount(level);
+        if (dataOffset > Integer.MAX_VALUE)
+            throw new IOException("Too many tiles for an archive: " + file);
+
+        // Assign each tile its offset in the archive, in curve order, with
+        // tiles sharing their bytes given the offset of the first of them
+        ByteBuffer directory = ByteBuffer.allocate((int)dataOffset);
+        directory.putInt(MAGIC).putInt(VERSION).putInt(width).putInt(height)
+                 .putInt(tileSize).putInt(tileOverlap).putLong(dataOffset);
+        directory.putInt(nLevels);
+        int nTiles = 0;
+        for (int level = 0; level < nLevels; level++)
+            nTiles += spill.getColCount(level) * spill.getRowCount(level);
+        long[] copyFrom = new long[nTiles];
+        int[] copyLength = new int[nTiles];
+        int nCopies = 0;
+        HashMap<Long, Long> placed = new HashMap<Long, Long>();
+        long offset = dataOffset;
+        for (int level = 0; level < nLevels; level++) {
+            int nCols = spill.getColCount(level);
+            int nRows = spill.getRowCount(level);
+            long[] offsets = new long[nCols * nRows];
+            for (int i : curveOrder(nCols, nRows)) {
+                long from = spill.getOffset(level, i % nCols, i / nCols);
+                int length = spill.getLength(level, i % nCols, i / nCols);
+                Long shared = placed.get(from);
+                if (length == 0 || shared != null) {
+                    offsets[i] = (shared != null) ? shared : offset;
+                    continue;
+                }
+                placed.put(from, offset);
+                offsets[i] = offset;
+                copyFrom[nCopies] = from;
+                copyLength[nCopies++] = length;
+                offset += length;
+            }
+            directory.putInt(nCols).putInt(nRows);
+            for (int i = 0; i < offsets.length; i++)
+                directory.putLong(offsets[i]).putInt(spill.getLength(level, i % nCols, i / nCols));
+        }
+        directory.flip();
+
+        FileChannel in = null;
+        FileChannel out = null;
+        try {
+            in = FileChannel.open(spillFile.toPath(), StandardOpenOption.READ);
+            out = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                                   StandardOpenOption.TRUNCATE_EXISTING,
+                                   StandardOpenOption.WRITE);
+            while (directory.hasRemaining())
+                out.write(directory);
+            for (int i = 0; i < nCopies; i++) {
+                long from = copyFrom[i];
+                long length = copyLength[i];
+                while (length > 0) {
+                    long n = in.transferTo(from, length, out);
+                    from += n;
+                    length -= n;
+                }
+            }
+        } catch (IOException e) {
+            throw new IOException("Unable to write archive file: " + file);
+        } finally {
+            if (in != null)
+                in.close();
+            if (out != null)
+                out.close();
+        }
+    }
+
+    /**
+     * Closes and deletes the spill file
+     */
+    public void close() throws IOException {
+        try {
+            spill.close();
+        } finally {
+            if (!spillFile.delete())
+                throw new IOException("Failed to delete file: " + spillFile);
+        }
+    }
+
+    /**
+     * Returns the row order indexes of the tiles of a level sorted along
+     * a Hilbert curve covering the level
+     * @param nCols the number of tile columns
+     * @param nRows the number of tile rows
+     */
+    static Integer[] curveOrder(int nCols, int nRows) {
+        int n = 1;
+        while (n < Math.max(nCols, nRows))
+            n *= 2;
+        final long[] keys = new long[nCols * nRows];
+        Integer[] order = new Integer[keys.length];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = hilbertIndex(n, i % nCols, i / nCols);
+            order[i] = i;
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            public int compare(Integer a, Integer b) {
+                return Long.compare(keys[a], keys[b]);
+            }
+        });
+        return order;
+    }
+
+    /**
+     * Returns the distance along the Hilbert curve filling an n by n grid
+     * of the given cell
+     * @param n the size of the grid, a power of two
+     * @param x the column of the cell
+     * @param y the row of the cell
+     */
+    static long hilbertIndex(int n, int x, int y) {
+        long d = 0;
+        for (int s = n / 2; s > 0; s /= 2) {
+            int rx = (x & s) > 0 ? 1 : 0;
+            int ry = (y & s) > 0 ? 1 : 0;
+            d += (long)s * s * ((3 * rx) ^ ry);
+            // rotate the quadrant so the curve continues from the last one
+            if (ry == 0) {
+                if (rx == 1) {
+                    x = n - 1 - x;
+                    y = n - 1 - y;
+                }
+                int t = x;
+                x = y;
+                y = t;
+            }
+        }
+        return d;
+    }
+}
@@ -0,0 +1,145 @@
+package DeepZoomConverter;
+
+/**
+ *  Deep Zoom Converter
+ *
+ *  Version: MPL 1.1/GPL 3/LGPL 3
+ *
+ *  The contents of this file are subject to the Mozilla Public License Version
+ *  1.1 (the "License"); you may not use this file except in compliance with
+ *  the License. You may obtain a copy of the License at
+ *  http: *www.mozilla.org/MPL/
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ *  for the specific language governing rights and limitations under the
+ *  License.
+ *
+ *  The Original Code is this Java package called DeepZoomConverter
+ *
+ *  The Initial Developer of the Original Code is Glenn Lawrence.
+ *  Portions created by the Initial Developer are Copyright (c) 2007-2009
+ *  the Initial Developer. All Rights Reserved.
+ *
+ *  Contributor(s):
+ *    Glenn Lawrence  <glenn.c.lawrence@gmail.com>
+ *
+ *  Alternatively, the contents of this file may be used under the terms of
+ *  either the GNU General Public License Version 3 or later (the "GPL"), or
+ *  the GNU Lesser General Public License Version 3 or later (the "LGPL"),
+ *  in which case the provisions of the GPL or the LGPL are applicable instead
+ *  of those above. If you wish to allow use of your version of this file only
+ *  under the terms of either the GPL or the LGPL, and not to allow others to
+ *  use your version of this file under the terms of the MPL, indicate your
+ *  decision by deleting the provisions above and replace them with the notice
+ *  and other provisions required by the GPL or the LGPL. If you do not delete
+ *  the provisions above, a recipient may use your version of this file under
+ *  the terms of any one of the MPL, the GPL or the LGPL.
+ */
+
+import java.awt.image.BufferedImage;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Reduces a level to the next with the box filter in horizontal bands
+ * computed in parallel on a ForkJoinPool.
+ *
+ * Each output row is computed from the two source rows behind it whichever
+ * band it falls in, so the result is identical to a single threaded run.
+ * The bicubic resize has no such guarantee: Java2D steps through the
+ * source incrementally from the top of the area drawn, and a band drawn
+ * through a clip can differ slightly in its first row, so it is left whole.
+ */
+class BandResampler {
+
+    // Bands are not split below this many output pixels
+    private static final int MIN_BAND_PIXELS = 1 << 16;
+
+    private final ForkJoinPool pool;
+
+    /**
+     * Reduces a range of output rows, splitting it in half until the bands
+     * are small enough
+     */
+    private static class Band extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final BufferedImage src;
+        private final int srcY;
+        private final int srcHeight;
+        private final BufferedImage dst;
+        private final int fromRow;
+        private final int toRow;
+        private final int minRows;
+        private final boolean vector;
+
+        Band(BufferedImage src, int srcY, int srcHeight, BufferedImage dst,
+             int fromRow, int toRow, int minRows, boolean vector) {
+            this.src = src;
+            this.srcY = srcY;
+            this.srcHeight = srcHeight;
+            this.dst = dst;
+            this.fromRow = fromRow;
+            this.toRow = toRow;
+            this.minRows = minRows;
+            this.vector = vector;
+        }
+
+        protected void compute() {
+            if (toRow - fromRow < 2 * minRows) {
+                BoxReducer.reduceRows(src, srcY, srcHeight, dst, fromRow, toRow, vector);
+                return;
+            }
+            int middle = (fromRow + toRow) >>> 1;
+            invokeAll(new Band(src, srcY, srcHeight, dst, fromRow, middle, minRows, vector),
+                      new Band(src, srcY, srcHeight, dst, middle, toRow, minRows, vector));
+        }
+    }
+
+    /**
+     * @param pool the pool on which the bands are computed
+     */
+    BandResampler(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * Shuts down the pool once any bands in progress have been computed
+     */
+    void close() {
+        pool.shutdown();
+    }
+
+    /**
+     * Returns an image of half the width and height of the given image, as
+     * BoxReducer.reduce
+     * @param img the image to be reduced, which must satisfy BoxReducer.canReduce
+     * @param vector whether to use the Vector API kernels if available
+     */
+    BufferedImage reduce(BufferedImage img, boolean vector) {
+        BufferedImage result = BoxReducer.createReduced(img);
+        reduceRows(img, 0, img.getHeight(), result, 0, result.getHeight(), vector);
+        return result;
+    }
+
+    /**
+     * Fills the given rows of the reduced image from a band of rows of the
+     * source image, as BoxReducer.reduceRows
+     * @param src the band of source rows
+     * @param srcY the source row at which the band starts
+     * @param srcHeight the height of the whole source image
+     * @param dst the reduced image
+     * @param fromRow the first row of dst to fill
+     * @param toRow the row of dst after the last one to fill
+     * @param vector whether to use the Vector API kernels if available
+     */
+    void reduceRows(BufferedImage src, int srcY, int srcHeight,
+                    BufferedImage dst, int fromRow, int toRow, boolean vector) {
+        int minRows = Math.max(MIN_BAND_PIXELS / Math.max(dst.getWidth(), 1), 1);
+        if (toRow - fromRow < 2 * minRows)
+            BoxReducer.reduceRows(src, srcY, srcHeight, dst, fromRow, toRow, vector);
+        else
+            pool.invoke(new Band(src, srcY, srcHeight, dst, fromRow, toRow, minRows, vector));
+    }
+}
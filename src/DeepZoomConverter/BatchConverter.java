@@ -0,0 +1,190 @@
+package DeepZoomConverter;
+
+/**
+ *  Deep Zoom Converter
+ *
+ *  Version: MPL 1.1/GPL 3/LGPL 3
+ *
+ *  The contents of this file are subject to the Mozilla Public License Version
+ *  1.1 (the "License"); you may not use this file except in compliance with
+ *  the License. You may obtain a copy of the License at
+ *  http: *www.mozilla.org/MPL/
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ *  for the specific language governing rights and limitations under the
+ *  License.
+ *
+ *  The Original Code is this Java package called DeepZoomConverter
+ *
+ *  The Initial Developer of the Original Code is Glenn Lawrence.
+ *  Portions created by the Initial Developer are Copyright (c) 2007-2009
+ *  the Initial Developer. All Rights Reserved.
+ *
+ *  Contributor(s):
+ *    Glenn Lawrence  <glenn.c.lawrence@gmail.com>
+ *
+ *  Alternatively, the contents of this file may be used under the terms of
+ *  either the GNU General Public License Version 3 or later (the "GPL"), or
+ *  the GNU Lesser General Public License Version 3 or later (the "LGPL"),
+ *  in which case the provisions of the GPL or the LGPL are applicable instead
+ *  of those above. If you wish to allow use of your version of this file only
+ *  under the terms of either the GPL or the LGPL, and not to allow others to
+ *  use your version of this file under the terms of the MPL, indicate your
+ *  decision by deleting the provisions above and replace them with the notice
+ *  and other provisions required by the GPL or the LGPL. If you do not delete
+ *  the provisions above, a recipient may use your version of this file under
+ *  the terms of any one of the MPL, the GPL or the LGPL.
+ */
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Converts a batch of image files, decoding upcoming images on separate
+ * threads while earlier ones are being tiled.
+ *
+ * Images are admitted for decoding strictly in input order, each taking a
+ * share of the memory budget estimated from its header, and give it back
+ * once tiled. Admitting in order means the image being tiled never waits
+ * for memory held by a later one. An image larger than the whole budget
+ * is admitted on its own.
+ */
+class BatchConverter {
+
+    private static final long MB = 1024 * 1024;
+
+    private final DeepZoomConverter converter;
+    private final int decodeThreads;
+    private final int budgetMb;
+
+    /**
+     * A decoded image waiting to be tiled
+     */
+    private static class Decoded {
+        final File file;
+        final Future<BufferedImage> image;
+        final int permits;
+
+        Decoded(File file, Future<BufferedImage> image, int permits) {
+            this.file = file;
+            this.image = image;
+            this.permits = permits;
+        }
+    }
+
+    /**
+     * @param converter the converter tiling the images
+     * @param decodeThreads the number of threads decoding ahead
+     * @param budgetMb the memory allowed for decoded images not yet tiled, in MB
+     */
+    BatchConverter(DeepZoomConverter converter, int decodeThreads, int budgetMb) {
+        this.converter = converter;
+        this.decodeThreads = decodeThreads;
+        this.budgetMb = budgetMb;
+    }
+
+    /**
+     * Converts the given files in order and reports the batch throughput
+     * @param files the image files
+     */
+    void run(final List<File> files) throws IOException {
+        final Semaphore budget = new Semaphore(budgetMb);
+        final BlockingQueue<Object> queue = new ArrayBlockingQueue<Object>(Math.max(files.size(), 1));
+        final ExecutorService decodePool = Executors.newFixedThreadPool(decodeThreads);
+        long start = System.nanoTime();
+        long pixels = 0;
+
+        // Admits images for decoding in input order as the budget allows
+        Thread admitter = new Thread("decode-ahead admitter") {
+            public void run() {
+                try {
+                    for (final File file : files) {
+                        int permits;
+                        try {
+                            permits = estimateMb(file);
+                        } catch (IOException e) {
+                            queue.put(e);
+                            return;
+                        }
+                        budget.acquire(permits);
+                        Future<BufferedImage> image = decodePool.submit(new Callable<BufferedImage>() {
+                            public BufferedImage call() throws IOException {
+                                return DeepZoomConverter.loadImage(file);
+                            }
+                        });
+                        queue.put(new Decoded(file, image, permits));
+                    }
+                } catch (InterruptedException e) {
+                    // batch abandoned
+                }
+            }
+        };
+        admitter.setDaemon(true);
+        admitter.start();
+
+        try {
+            for (int i = 0; i < files.size(); i++) {
+                Object next = queue.take();
+                if (next instanceof IOException)
+                    throw (IOException)next;
+                Decoded decoded = (Decoded)next;
+                BufferedImage image;
+                try {
+                    image = decoded.image.get();
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof IOException)
+                        throw (IOException)e.getCause();
+                    throw new IOException("Cannot read image file: " + decoded.file);
+                }
+                if (image == null)
+                    throw new IOException("Cannot read image file: " + decoded.file);
+                pixels += (long)image.getWidth() * image.getHeight();
+                if (converter.getConfig().getVerboseMode())
+                    System.out.printf("Processing image file: %s\n", decoded.file);
+                converter.processImage(image, DeepZoomConverter.nameWithoutExtension(decoded.file));
+                image = null;
+                budget.release(decoded.permits);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while converting batch");
+        } finally {
+            admitter.interrupt();
+            decodePool.shutdownNow();
+        }
+
+        if (converter.getConfig().getVerboseMode()) {
+            double seconds = (System.nanoTime() - start) / 1e9;
+            System.out.printf("Batch: %d images, %.1f megapixels in %.2f s (%.2f images/s, %.2f MP/s)\n",
+                              files.size(), pixels / 1e6, seconds,
+                              files.size() / seconds, pixels / 1e6 / seconds);
+        }
+    }
+
+    /**
+     * Estimates the memory needed for the decoded image from the size
+     * and pixel layout in the file's header, capped at the whole budget
+     * @param file the image file
+     * @return the estimate in MB
+     */
+    private int estimateMb(File file) throws IOException {
+        ImageReaderSource header = ImageReaderSource.openReader(file);
+        try {
+            long bytes = (long)header.getWidth() * header.getHeight() * header.getBytesPerPixel();
+            return (int)Math.max(1, Math.min((bytes + MB - 1) / MB, budgetMb));
+        } finally {
+            header.close();
+        }
+    }
+}
@@ -0,0 +1,317 @@
+package DeepZoomConverter;
+
+/**
+ *  Deep Zoom Converter
+ *
+ *  Version: MPL 1.1/GPL 3/LGPL 3
+ *
+ *  The contents of this file are subject to the Mozilla Public License Version
+ *  1.1 (the "License"); you may not use this file except in compliance with
+ *  the License. You may obtain a copy of the License at
+ *  http: *www.mozilla.org/MPL/
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ *  for the specific language governing rights and limitations under the
+ *  License.
+ *
+ *  The Original Code is this Java package called DeepZoomConverter
+ *
+ *  The Initial Developer of the Original Code is Glenn Lawrence.
+ *  Portions created by the Initial Developer are Copyright (c) 2007-2009
+ *  the Initial Developer. All Rights Reserved.
+ *
+ *  Contributor(s):
+ *    Glenn Lawrence  <glenn.c.lawrence@gmail.com>
+ *
+ *  Alternatively, the contents of this file may be used under the terms of
+ *  either the GNU General Public License Version 3 or later (the "GPL"), or
+ *  the GNU Lesser General Public License Version 3 or later (the "LGPL"),
+ *  in which case the provisions of the GPL or the LGPL are applicable instead
+ *  of those above. If you wish to allow use of your version of this file only
+ *  under the terms of either the GPL or the LGPL, and not to allow others to
+ *  use your version of this file under the terms of the MPL, indicate your
+ *  decision by deleting the provisions above and replace them with the notice
+ *  and other provisions required by the GPL or the LGPL. If you do not delete
+ *  the provisions above, a recipient may use your version of this file under
+ *  the terms of any one of the MPL, the GPL or the LGPL.
+ */
+
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.ComponentColorModel;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.DirectColorModel;
+import java.awt.image.SampleModel;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+
+/**
+ * Halves an image by averaging each 2x2 block of pixels, working directly
+ * on the int[] or byte[] arrays behind the image rasters.
+ *
+ * The reduced image is ceil(width/2) by ceil(height/2), matching the level
+ * sizes used by the Deep Zoom pyramid. Where the width or height is odd the
+ * last column or row is averaged with itself.
+ *
+ * The kernels in VectorReducer compute the same averages with the Vector
+ * API and can be asked for where the jdk.incubator.vector module is present.
+ */
+class BoxReducer {
+
+    private static final boolean vectorKernels = loadVectorKernels();
+
+    /**
+     * Returns true if VectorReducer can be linked, i.e. the JVM was started
+     * with --add-modules jdk.incubator.vector
+     */
+    private static boolean loadVectorKernels() {
+        try {
+            Class.forName("DeepZoomConverter.VectorReducer");
+            return true;
+        } catch (ClassNotFoundException e) {
+            return false;
+        } catch (LinkageError e) {
+            return false;
+        }
+    }
+
+    /**
+     * Returns true if the Vector API kernels are available
+     */
+    static boolean hasVectorKernels() {
+        return vectorKernels;
+    }
+
+    /**
+     * Returns true if the given image has a layout the reducer can handle:
+     * packed ints with 8 bit components, or interleaved bytes with one
+     * byte per component.
+     * @param img the image to be reduced
+     */
+    static boolean canReduce(BufferedImage img) {
+        WritableRaster raster = img.getRaster();
+        if (raster.getSampleModelTranslateX() != 0 || raster.getSampleModelTranslateY() != 0)
+            return false;
+        SampleModel sm = raster.getSampleModel();
+        ColorModel cm = img.getColorModel();
+        DataBuffer db = raster.getDataBuffer();
+        if (db instanceof DataBufferInt) {
+            if (!(sm instanceof SinglePixelPackedSampleModel) || !(cm instanceof DirectColorModel))
+                return false;
+            for (int mask : ((SinglePixelPackedSampleModel)sm).getBitMasks()) {
+                if (mask != 0xff && mask != 0xff00 && mask != 0xff0000 && mask != 0xff000000)
+                    return false;
+            }
+            return true;
+        }
+        if (db instanceof DataBufferByte) {
+            if (!(sm instanceof ComponentSampleModel) || !(cm instanceof ComponentColorModel))
+                return false;
+            ComponentSampleModel csm = (ComponentSampleModel)sm;
+            int nBands = csm.getNumBands();
+            if (db.getNumBanks() != 1 || csm.getPixelStride() != nBands)
+                return false;
+            boolean[] seen = new boolean[nBands];
+            for (int offset : csm.getBandOffsets()) {
+                if (offset < 0 || offset >= nBands || seen[offset])
+                    return false;
+                seen[offset] = true;
+            }
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Returns an image of half the width and height of the given image
+     * @param img the image to be reduced, which must satisfy canReduce
+     */
+    static BufferedImage reduce(BufferedImage img) {
+        return reduce(img, false);
+    }
+
+    /**
+     * Returns an image of half the width and height of the given image
+     * @param img the image to be reduced, which must satisfy canReduce
+     * @param vector whether to use the Vector API kernels if available
+     */
+    static BufferedImage reduce(BufferedImage img, boolean vector) {
+        BufferedImage result = createReduced(img);
+        reduceRows(img, 0, img.getHeight(), result, 0, result.getHeight(), vector);
+        return result;
+    }
+
+    /**
+     * Returns the given image if it can be reduced, or else a copy of it
+     * converted to packed ints
+     * @param img the image to be reduced
+     */
+    static BufferedImage toReducible(BufferedImage img) {
+        if (canReduce(img))
+            return img;
+        int type = img.getColorModel().hasAlpha() ? BufferedImage.TYPE_INT_ARGB
+                                                  : BufferedImage.TYPE_INT_RGB;
+        BufferedImage result = new BufferedImage(img.getWidth(), img.getHeight(), type);
+        Graphics2D g = result.createGraphics();
+        g.drawImage(img, 0, 0, null);
+        g.dispose();
+        return result;
+    }
+
+    /**
+     * Creates an empty image of the same type with half the size of the given image
+     * @param img the image to be reduced
+     */
+    static BufferedImage createReduced(BufferedImage img) {
+        return createReduced(img.getWidth(), img.getHeight(), img);
+    }
+
+    /**
+     * Creates an empty image for the reduction of an image of the given size
+     * @param width the width of the image to be reduced
+     * @param height the height of the image to be reduced
+     * @param img an image whose type is to be matched
+     */
+    static BufferedImage createReduced(int width, int height, BufferedImage img) {
+        return ImageUtil.createCompatible(img, (width + 1) / 2, (height + 1) / 2);
+    }
+
+    /**
+     * Fills the given rows of the reduced image from the source image
+     * @param src the source image
+     * @param dst the reduced image, as returned by createReduced
+     * @param fromRow the first row of dst to fill
+     * @param toRow the row of dst after the last one to fill
+     */
+    static void reduceRows(BufferedImage src, BufferedImage dst, int fromRow, int toRow) {
+        reduceRows(src, 0, src.getHeight(), dst, fromRow, toRow);
+    }
+
+    /**
+     * Fills the given rows of the reduced image from a band of rows of the
+     * source image. The band must hold every source row needed for them.
+     * @param src the band of source rows
+     * @param srcY the source row at which the band starts
+     * @param srcHeight the height of the whole source image
+     * @param dst the reduced image
+     * @param fromRow the first row of dst to fill
+     * @param toRow the row of dst after the last one to fill
+     */
+    static void reduceRows(BufferedImage src, int srcY, int srcHeight,
+                           BufferedImage dst, int fromRow, int toRow) {
+        reduceRows(src, srcY, srcHeight, dst, fromRow, toRow, false);
+    }
+
+    /**
+     * Fills the given rows of the reduced image from a band of rows of the
+     * source image, optionally with the Vector API kernels
+     * @param src the band of source rows
+     * @param srcY the source row at which the band starts
+     * @param srcHeight the height of the whole source image
+     * @param dst the reduced image
+     * @param fromRow the first row of dst to fill
+     * @param toRow the row of dst after the last one to fill
+     * @param vector whether to use the Vector API kernels if available
+     */
+    static void reduceRows(BufferedImage src, int srcY, int srcHeight,
+                           BufferedImage dst, int fromRow, int toRow, boolean vector) {
+        vector = vector && vectorKernels;
+        WritableRaster in = src.getRaster();
+        WritableRaster out = dst.getRaster();
+        DataBuffer db = in.getDataBuffer();
+        if (db instanceof DataBufferInt) {
+            SinglePixelPackedSampleModel inSm = (SinglePixelPackedSampleModel)in.getSampleModel();
+            SinglePixelPackedSampleModel outSm = (SinglePixelPackedSampleModel)out.getSampleModel();
+            int[] srcData = ((DataBufferInt)db).getData();
+            int srcOffset = db.getOffset() - srcY * inSm.getScanlineStride();
+            int[] dstData = ((DataBufferInt)out.getDataBuffer()).getData();
+            int dstOffset = out.getDataBuffer().getOffset();
+            if (vector)
+                VectorReducer.reduceInts(srcData, srcOffset, inSm.getScanlineStride(),
+                                         src.getWidth(), srcHeight,
+                                         dstData, dstOffset, outSm.getScanlineStride(),
+                                         dst.getWidth(), fromRow, toRow);
+            else
+                reduceInts(srcData, srcOffset, inSm.getScanlineStride(),
+                           src.getWidth(), srcHeight,
+                           dstData, dstOffset, outSm.getScanlineStride(),
+                           dst.getWidth(), fromRow, toRow);
+        } else {
+            ComponentSampleModel inSm = (ComponentSampleModel)in.getSampleModel();
+            ComponentSampleModel outSm = (ComponentSampleModel)out.getSampleModel();
+            byte[] srcData = ((DataBufferByte)db).getData();
+            int srcOffset = db.getOffset() - srcY * inSm.getScanlineStride();
+            byte[] dstData = ((DataBufferByte)out.getDataBuffer()).getData();
+            int dstOffset = out.getDataBuffer().getOffset();
+            if (vector)
+                VectorReducer.reduceBytes(srcData, srcOffset, inSm.getScanlineStride(),
+                                          src.getWidth(), srcHeight,
+                                          dstData, dstOffset, outSm.getScanlineStride(),
+                                          dst.getWidth(), inSm.getPixelStride(), fromRow, toRow);
+            else
+                reduceBytes(srcData, srcOffset, inSm.getScanlineStride(),
+                            src.getWidth(), srcHeight,
+                            dstData, dstOffset, outSm.getScanlineStride(),
+                            dst.getWidth(), inSm.getPixelStride(), fromRow, toRow);
+        }
+    }
+
+    /**
+     * Averages 2x2 blocks of packed pixels, treating each of the four
+     * bytes of a pixel as a separate 8 bit component.
+     */
+    static void reduceInts(int[] src, int srcOffset, int srcStride, int srcWidth, int srcHeight,
+                           int[] dst, int dstOffset, int dstStride, int dstWidth,
+                           int fromRow, int toRow) {
+        for (int y = fromRow; y < toRow; y++) {
+            int row0 = srcOffset + 2 * y * srcStride;
+            int row1 = (2 * y + 1 < srcHeight) ? row0 + srcStride : row0;
+            int out = dstOffset + y * dstStride;
+            for (int x = 0; x < dstWidth; x++) {
+                int x0 = 2 * x;
+                int x1 = (x0 + 1 < srcWidth) ? x0 + 1 : x0;
+                dst[out + x] = average(src[row0 + x0], src[row0 + x1],
+                                       src[row1 + x0], src[row1 + x1]);
+            }
+        }
+    }
+
+    /**
+     * Averages four packed pixels byte by byte, rounding to nearest. Two
+     * components are summed at a time in the 16 bit halves of an int.
+     */
+    static int average(int p00, int p01, int p10, int p11) {
+        int rb = (p00 & 0x00ff00ff) + (p01 & 0x00ff00ff)
+               + (p10 & 0x00ff00ff) + (p11 & 0x00ff00ff) + 0x00020002;
+        int ag = ((p00 >>> 8) & 0x00ff00ff) + ((p01 >>> 8) & 0x00ff00ff)
+               + ((p10 >>> 8) & 0x00ff00ff) + ((p11 >>> 8) & 0x00ff00ff) + 0x00020002;
+        return ((rb >>> 2) & 0x00ff00ff) | (((ag >>> 2) & 0x00ff00ff) << 8);
+    }
+
+    /**
+     * Averages 2x2 blocks of interleaved byte pixels, component by component.
+     */
+    static void reduceBytes(byte[] src, int srcOffset, int srcStride, int srcWidth, int srcHeight,
+                            byte[] dst, int dstOffset, int dstStride, int dstWidth,
+                            int pixelStride, int fromRow, int toRow) {
+        for (int y = fromRow; y < toRow; y++) {
+            int row0 = srcOffset + 2 * y * srcStride;
+            int row1 = (2 * y + 1 < srcHeight) ? row0 + srcStride : row0;
+            int out = dstOffset + y * dstStride;
+            for (int x = 0; x < dstWidth; x++) {
+                int x0 = 2 * x * pixelStride;
+                int x1 = (2 * x + 1 < srcWidth) ? x0 + pixelStride : x0;
+                for (int b = 0; b < pixelStride; b++) {
+                    int sum = (src[row0 + x0 + b] & 0xff) + (src[row0 + x1 + b] & 0xff)
+                            + (src[row1 + x0 + b] & 0xff) + (src[row1 + x1 + b] & 0xff);
+                    dst[out++] = (byte)((sum + 2) >> 2);
+                }
+            }
+        }
+    }
+}
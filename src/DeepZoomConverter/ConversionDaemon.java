@@ -0,0 +1,319 @@
+package DeepZoomConverter;
+
+/**
+ *  Deep Zoom Converter
+ *
+ *  Version: MPL 1.1/GPL 3/LGPL 3
+ *
+ *  The contents of this file are subject to the Mozilla Public License Version
+ *  1.1 (the "License"); you may not use this file except in compliance with
+ *  the License. You may obtain a copy of the License at
+ *  http: *www.mozilla.org/MPL/
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ *  for the specific language governing rights and limitations under the
+ *  License.
+ *
+ *  The Original Code is this Java package called DeepZoomConverter
+ *
+ *  The Initial Developer of the Original Code is Glenn Lawrence.
+ *  Portions created by the Initial Developer are Copyright (c) 2007-2009
+ *  the Initial Developer. All Rights Reserved.
+ *
+ *  Contributor(s):
+ *    Glenn Lawrence  <glenn.c.lawrence@gmail.com>
+ *
+ *  Alternatively, the contents of this file may be used under the terms of
+ *  either the GNU General Public License Version 3 or later (the "GPL"), or
+ *  the GNU Lesser General Public License Version 3 or later (the "LGPL"),
+ *  in which case the provisions of the GPL or the LGPL are applicable instead
+ *  of those above. If you wish to allow use of your version of this file only
+ *  under the terms of either the GPL or the LGPL, and not to allow others to
+ *  use your version of this file under the terms of the MPL, indicate your
+ *  decision by deleting the provisions above and replace them with the notice
+ *  and other provisions required by the GPL or the LGPL. If you do not delete
+ *  the provisions above, a recipient may use your version of this file under
+ *  the terms of any one of the MPL, the GPL or the LGPL.
+ */
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Vector;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Converts images for clients connecting to a Unix domain socket, so that
+ * each conversion runs in an already started JVM with its image readers
+ * and writers loaded and its code compiled. Converters are kept for reuse,
+ * one for each set of settings recently asked for, along with their thread
+ * pools and tile encoders.
+ *
+ * A client sends its working directory on the first line, then the
+ * command line arguments one per line, ending with an empty line. The
+ * daemon converts the images on a thread of its own, sending back the
+ * messages printed while doing so, and ends with a line of "OK" and the
+ * time taken, or "ERROR" and the reason. The single argument "-stop" stops
+ * the daemon once the conversions in progress have finished.
+ *
+ * Only messages printed by the job's own thread reach the client. The
+ * converters' pools are shared by the jobs using the same settings, so
+ * messages printed on their threads, such as some debug output, cannot be
+ * told apart and go to the daemon's standard output instead.
+ */
+class ConversionDaemon {
+
+    static final String OK = "OK";
+    static final String ERROR = "ERROR";
+    static final String STOP = "-stop";
+
+    // The number of converters with different settings kept when idle
+    private static final int MAX_CONVERTERS = 4;
+
+    private final File socketFile;
+    private final ServerSocketChannel server;
+    private final ExecutorService jobPool = Executors.newCachedThreadPool();
+    private final LinkedHashMap<ConverterConfig, PooledConverter> converters =
+        new LinkedHashMap<ConverterConfig, PooledConverter>(16, 0.75f, true);
+    private volatile boolean stopping = false;
+
+    // Where each job thread's printed messages are sent
+    private static final ThreadLocal<OutputStream> jobOutput = new ThreadLocal<OutputStream>();
+
+    /**
+     * A converter and the number of jobs using it
+     */
+    private static class PooledConverter {
+        final DeepZoomConverter converter;
+        int users = 0;
+
+        PooledConverter(DeepZoomConverter converter) {
+            this.converter = converter;
+        }
+    }
+
+    /**
+     * Creates the daemon's socket, replacing any left by a daemon that is
+     * no longer running
+     * @param socketFile the path of the socket
+     */
+    ConversionDaemon(File socketFile) throws IOException {
+        this.socketFile = socketFile;
+        UnixDomainSocketAddress address = UnixDomainSocketAddress.of(socketFile.toPath());
+        if (socketFile.exists()) {
+            if (isListening(address))
+                throw new IOException("Daemon already listening on socket: " + socketFile);
+            Files.delete(socketFile.toPath());
+        }
+        server = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+        server.bind(address);
+    }
+
+    /**
+     * Returns true if a daemon is accepting clients at the address
+     */
+    private static boolean isListening(UnixDomainSocketAddress address) {
+        try {
+            SocketChannel.open(address).close();
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Accepts clients until one stops the daemon, then waits for the jobs
+     * in progress and releases the converters and socket
+     */
+    void run() throws IOException {
+        PrintStream stdout = System.out;
+        System.setOut(new PrintStream(new JobOutputStream(stdout), true));
+        try {
+            while (!stopping) {
+                final SocketChannel client;
+                try {
+                    client = server.accept();
+                } catch (ClosedChannelException e) {
+                    break;
+                }
+                jobPool.execute(new Runnable() {
+                    public void run() {
+                        serve(client);
+                    }
+                });
+            }
+        } finally {
+            server.close();
+            jobPool.shutdown();
+            try {
+                jobPool.awaitTermination(Long.MAX_VALUE, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            synchronized (this) {
+                for (PooledConverter pooled : converters.values())
+                    pooled.converter.close();
+                converters.clear();
+            }
+            System.setOut(stdout);
+            Files.deleteIfExists(socketFile.toPath());
+        }
+    }
+
+    /**
+     * Reads one job from a client, runs it and reports the outcome
+     * @param client the client's connection
+     */
+    private void serve(SocketChannel client) {
+        try {
+            OutputStream out = Channels.newOutputStream(client);
+            PrintStream status = new PrintStream(out, true, "UTF-8");
+            try {
+                BufferedReader in = new BufferedReader(new InputStreamReader(
+                    Channels.newInputStream(client), StandardCharsets.UTF_8));
+                String dir = in.readLine();
+                Vector<String> args = new Vector<String>();
+                for (String line = in.readLine(); line != null && line.length() > 0;
+                     line = in.readLine())
+                    args.add(line);
+                if (dir == null) {
+                    status.printf("%s Incomplete request\n", ERROR);
+                    return;
+                }
+                if (args.size() == 1 && args.get(0).equals(STOP)) {
+                    stop();
+                    status.printf("%s\n", OK);
+                    return;
+                }
+                jobOutput.set(out);
+                try {
+                    long start = System.nanoTime();
+                    int nImages = convert(args.toArray(new String[args.size()]), new File(dir));
+                    status.printf("%s %d images in %d ms\n", OK, nImages,
+                                  (System.nanoTime() - start) / 1000000);
+                } catch (Exception e) {
+                    status.printf("%s %s\n", ERROR,
+                                  e.getMessage() != null ? e.getMessage() : e.toString());
+                } finally {
+                    jobOutput.remove();
+                }
+            } finally {
+                status.close();
+            }
+        } catch (IOException e) {
+            // the client has gone; nothing is left to report to
+        }
+    }
+
+    /**
+     * Converts the images given by a job's arguments
+     * @param args the command line arguments
+     * @param baseDir the client's working directory
+     * @return the number of images converted
+     */
+    private int convert(String[] args, File baseDir) throws Exception {
+        Vector<File> inputFiles = new Vector<File>();
+        ConverterConfig config;
+        try {
+            config = Main.parseCommandLine(args, inputFiles, baseDir);
+        } catch (Exception e) {
+            throw new Exception("Invalid command line: " + e.getMessage());
+        }
+        Main.checkOutputDir(config.getOutputDir());
+        PooledConverter pooled = acquire(config);
+        try {
+            pooled.converter.processImageFiles(inputFiles);
+        } finally {
+            release(pooled);
+        }
+        return inputFiles.size();
+    }
+
+    /**
+     * Returns a converter with the given settings, creating one if needed
+     * @param config the settings
+     */
+    private synchronized PooledConverter acquire(ConverterConfig config) throws IOException {
+        PooledConverter pooled = converters.get(config);
+        if (pooled == null) {
+            pooled = new PooledConverter(new DeepZoomConverter(config));
+            converters.put(config, pooled);
+        }
+        pooled.users++;
+        return pooled;
+    }
+
+    /**
+     * Returns a converter after use, closing the least recently used idle
+     * converters beyond those kept
+     * @param pooled the converter
+     */
+    private synchronized void release(PooledConverter pooled) {
+        pooled.users--;
+        Iterator<Map.Entry<ConverterConfig, PooledConverter>> entries =
+            converters.entrySet().iterator();
+        while (converters.size() > MAX_CONVERTERS && entries.hasNext()) {
+            PooledConverter eldest = entries.next().getValue();
+            if (eldest.users == 0) {
+                entries.remove();
+                eldest.converter.close();
+            }
+        }
+    }
+
+    /**
+     * Stops accepting clients
+     */
+    private void stop() throws IOException {
+        stopping = true;
+        server.close();
+    }
+
+    /**
+     * Sends output to the client of the job running on the writing thread,
+     * or else to the daemon's own standard output. Output from the threads
+     * of a converter's pools is not a job thread's, so it is not sent to
+     * any client.
+     */
+    private static class JobOutputStream extends OutputStream {
+        private final OutputStream stdout;
+
+        JobOutputStream(OutputStream stdout) {
+            this.stdout = stdout;
+        }
+
+        private OutputStream target() {
+            OutputStream out = jobOutput.get();
+            return (out != null) ? out : stdout;
+        }
+
+        public void write(int b) throws IOException {
+            target().write(b);
+        }
+
+        public void write(byte[] b, int off, int len) throws IOException {
+            target().write(b, off, len);
+        }
+
+        public void flush() throws IOException {
+            target().flush();
+        }
+    }
+}
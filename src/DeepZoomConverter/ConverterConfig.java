@@ -0,0 +1,339 @@
+package DeepZoomConverter;
+
+/**
+ *  Deep Zoom Converter
+ *
+ *  Version: MPL 1.1/GPL 3/LGPL 3
+ *
+ *  The contents of this file are subject to the Mozilla Public License Version
+ *  1.1 (the "License"); you may not use this file except in compliance with
+ *  the License. You may obtain a copy of the License at
+ *  http: *www.mozilla.org/MPL/
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ *  for the specific language governing rights and limitations under the
+ *  License.
+ *
+ *  The Original Code is this Java package called DeepZoomConverter
+ *
+ *  The Initial Developer of the Original Code is Glenn Lawrence.
+ *  Portions created by the Initial Developer are Copyright (c) 2007-2009
+ *  the Initial Developer. All Rights Reserved.
+ *
+ *  Contributor(s):
+ *    Glenn Lawrence  <glenn.c.lawrence@gmail.com>
+ *
+ *  Alternatively, the contents of this file may be used under the terms of
+ *  either the GNU General Public License Version 3 or later (the "GPL"), or
+ *  the GNU Lesser General Public License Version 3 or later (the "LGPL"),
+ *  in which case the provisions of the GPL or the LGPL are applicable instead
+ *  of those above. If you wish to allow use of your version of this file only
+ *  under the terms of either the GPL or the LGPL, and not to allow others to
+ *  use your version of this file under the terms of the MPL, indicate your
+ *  decision by deleting the provisions above and replace them with the notice
+ *  and other provisions required by the GPL or the LGPL. If you do not delete
+ *  the provisions above, a recipient may use your version of this file under
+ *  the terms of any one of the MPL, the GPL or the LGPL.
+ */
+
+import java.io.File;
+import java.util.Objects;
+
+/**
+ * The immutable settings for a DeepZoomConverter, created with a Builder.
+ * One configuration may be shared by any number of converters and threads.
+ */
+public final class ConverterConfig {
+
+    /**
+     * How each level is scaled down to produce the next. VECTOR is the box
+     * filter computed with the Vector API, falling back to the scalar box
+     * filter unless the JVM runs with --add-modules jdk.incubator.vector.
+     */
+    public enum ResampleMode { BICUBIC, BOX, VECTOR };
+
+    /**
+     * What is done with tiles of a single colour: WRITE encodes them like
+     * any other, SKIP leaves them out and lists them in a sparse tile
+     * manifest, and LINK writes one tile of each size and colour and
+     * stores the rest as hard links to it, or shared entries in packed files.
+     */
+    public enum BlankMode { WRITE, SKIP, LINK };
+
+    private final int tileSize;
+    private final int tileOverlap;
+    private final File outputDir;
+    private final String tileFormat;
+    private final float tileQuality;
+    private final boolean optimizeHuffman;
+    private final boolean progressive;
+    private final String chromaSubsampling;
+    private final ResampleMode resampleMode;
+    private final int threadCount;
+    private final boolean quadtreeMode;
+    private final boolean streamMode;
+    private final boolean offHeapMode;
+    private final boolean packMode;
+    private final boolean archiveMode;
+    private final boolean resumeMode;
+    private final boolean swapMode;
+    private final boolean hashTiles;
+    private final BlankMode blankMode;
+    private final boolean deleteExisting;
+    private final boolean verboseMode;
+    private final boolean debugMode;
+    private final boolean reportSavings;
+    private final int decodeAhead;
+    private final int decodeBudgetMb;
+
+    private ConverterConfig(Builder builder) {
+        tileSize = builder.tileSize;
+        tileOverlap = builder.tileOverlap;
+        outputDir = builder.outputDir;
+        tileFormat = builder.tileFormat;
+        tileQuality = builder.tileQuality;
+        optimizeHuffman = builder.optimizeHuffman;
+        progressive = builder.progressive;
+        chromaSubsampling = builder.chromaSubsampling;
+        resampleMode = builder.resampleMode;
+        threadCount = builder.threadCount;
+        quadtreeMode = builder.quadtreeMode;
+        streamMode = builder.streamMode;
+        offHeapMode = builder.offHeapMode;
+        packMode = builder.packMode;
+        archiveMode = builder.archiveMode;
+        resumeMode = builder.resumeMode;
+        swapMode = builder.swapMode;
+        hashTiles = builder.hashTiles;
+        blankMode = builder.blankMode;
+        deleteExisting = builder.deleteExisting;
+        verboseMode = builder.verboseMode;
+        debugMode = builder.debugMode;
+        reportSavings = builder.reportSavings;
+        decodeAhead = builder.decodeAhead;
+        decodeBudgetMb = builder.decodeBudgetMb;
+    }
+
+    /**
+     * Returns a builder holding the default settings
+     */
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Returns a builder initialised with these settings
+     */
+    public Builder toBuilder() {
+        return new Builder(this);
+    }
+
+    public int getTileSize() { return tileSize; }
+    public int getTileOverlap() { return tileOverlap; }
+    public File getOutputDir() { return outputDir; }
+    public String getTileFormat() { return tileFormat; }
+    public float getTileQuality() { return tileQuality; }
+    public boolean getOptimizeHuffman() { return optimizeHuffman; }
+    public boolean getProgressive() { return progressive; }
+    public String getChromaSubsampling() { return chromaSubsampling; }
+    public ResampleMode getResampleMode() { return resampleMode; }
+    public int getThreadCount() { return threadCount; }
+    public boolean getQuadtreeMode() { return quadtreeMode; }
+    public boolean getStreamMode() { return streamMode; }
+    public boolean getOffHeapMode() { return offHeapMode; }
+    public boolean getPackMode() { return packMode; }
+    public boolean getArchiveMode() { return archiveMode; }
+    public boolean getResumeMode() { return resumeMode; }
+    public boolean getSwapMode() { return swapMode; }
+    public boolean getHashTiles() { return hashTiles; }
+    public BlankMode getBlankMode() { return blankMode; }
+    public boolean getDeleteExisting() { return deleteExisting; }
+    public boolean getVerboseMode() { return verboseMode; }
+    public boolean getDebugMode() { return debugMode; }
+    public boolean getReportSavings() { return reportSavings; }
+    public int getDecodeAhead() { return decodeAhead; }
+    public int getDecodeBudgetMb() { return decodeBudgetMb; }
+
+    /**
+     * Returns true if the other object is a configuration with the same settings
+     */
+    public boolean equals(Object obj) {
+        if (!(obj instanceof ConverterConfig))
+            return false;
+        ConverterConfig other = (ConverterConfig)obj;
+        return tileSize == other.tileSize
+            && tileOverlap == other.tileOverlap
+            && outputDir.equals(other.outputDir)
+            && tileFormat.equals(other.tileFormat)
+            && tileQuality == other.tileQuality
+            && optimizeHuffman == other.optimizeHuffman
+            && progressive == other.progressive
+            && Objects.equals(chromaSubsampling, other.chromaSubsampling)
+            && resampleMode == other.resampleMode
+            && threadCount == other.threadCount
+            && quadtreeMode == other.quadtreeMode
+            && streamMode == other.streamMode
+            && offHeapMode == other.offHeapMode
+            && packMode == other.packMode
+            && archiveMode == other.archiveMode
+            && resumeMode == other.resumeMode
+            && swapMode == other.swapMode
+            && hashTiles == other.hashTiles
+            && blankMode == other.blankMode
+            && deleteExisting == other.deleteExisting
+            && verboseMode == other.verboseMode
+            && debugMode == other.debugMode
+            && reportSavings == other.reportSavings
+            && decodeAhead == other.decodeAhead
+            && decodeBudgetMb == other.decodeBudgetMb;
+    }
+
+    public int hashCode() {
+        return Objects.hash(tileSize, tileOverlap, outputDir, tileFormat, resampleMode,
+                            threadCount, blankMode);
+    }
+
+    public String toString() {
+        StringBuilder result = new StringBuilder();
+        result.append("tileSize=").append(tileSize);
+        result.append(" tileOverlap=").append(tileOverlap);
+        result.append(" threads=").append(threadCount);
+        result.append(" resample=").append(resampleMode);
+        result.append(" quadtree=").append(quadtreeMode);
+        result.append(" stream=").append(streamMode);
+        result.append(" offHeap=").append(offHeapMode);
+        result.append(" pack=").append(packMode);
+        result.append(" archive=").append(archiveMode);
+        result.append(" resume=").append(resumeMode);
+        result.append(" swap=").append(swapMode);
+        result.append(" hash=").append(hashTiles);
+        result.append(" blank=").append(blankMode);
+        result.append(" format=").append(tileFormat);
+        if (tileQuality != TileEncoder.DEFAULT_QUALITY)
+            result.append(" quality=").append(tileQuality);
+        result.append(" optimize=").append(optimizeHuffman);
+        result.append(" progressive=").append(progressive);
+        if (chromaSubsampling != null)
+            result.append(" subsampling=").append(chromaSubsampling);
+        if (decodeAhead > 0) {
+            result.append(" decodeAhead=").append(decodeAhead);
+            result.append(" decodeBudget=").append(decodeBudgetMb);
+        }
+        result.append(" outputDir=").append(outputDir.getPath());
+        return result.toString();
+    }
+
+    /**
+     * Collects settings for a ConverterConfig
+     */
+    public static final class Builder {
+        private int tileSize = 256;
+        private int tileOverlap = 1;
+        private File outputDir = new File(".");
+        private String tileFormat = "jpg";
+        private float tileQuality = TileEncoder.DEFAULT_QUALITY;
+        private boolean optimizeHuffman = false;
+        private boolean progressive = false;
+        private String chromaSubsampling = null;
+        private ResampleMode resampleMode = ResampleMode.BICUBIC;
+        private int threadCount = 1;
+        private boolean quadtreeMode = false;
+        private boolean streamMode = false;
+        private boolean offHeapMode = false;
+        private boolean packMode = false;
+        private boolean archiveMode = false;
+        private boolean resumeMode = false;
+        private boolean swapMode = false;
+        private boolean hashTiles = false;
+        private BlankMode blankMode = BlankMode.WRITE;
+        private boolean deleteExisting = true;
+        private boolean verboseMode = false;
+        private boolean debugMode = false;
+        private boolean reportSavings = false;
+        private int decodeAhead = 0;
+        private int decodeBudgetMb = 1024;
+
+        private Builder() {
+        }
+
+        private Builder(ConverterConfig config) {
+            tileSize = config.tileSize;
+            tileOverlap = config.tileOverlap;
+            outputDir = config.outputDir;
+            tileFormat = config.tileFormat;
+            tileQuality = config.tileQuality;
+            optimizeHuffman = config.optimizeHuffman;
+            progressive = config.progressive;
+            chromaSubsampling = config.chromaSubsampling;
+            resampleMode = config.resampleMode;
+            threadCount = config.threadCount;
+            quadtreeMode = config.quadtreeMode;
+            streamMode = config.streamMode;
+            offHeapMode = config.offHeapMode;
+            packMode = config.packMode;
+            archiveMode = config.archiveMode;
+            resumeMode = config.resumeMode;
+            swapMode = config.swapMode;
+            hashTiles = config.hashTiles;
+            blankMode = config.blankMode;
+            deleteExisting = config.deleteExisting;
+            verboseMode = config.verboseMode;
+            debugMode = config.debugMode;
+            reportSavings = config.reportSavings;
+            decodeAhead = config.decodeAhead;
+            decodeBudgetMb = config.decodeBudgetMb;
+        }
+
+        public Builder tileSize(int tileSize) { this.tileSize = tileSize; return this; }
+        public Builder tileOverlap(int tileOverlap) { this.tileOverlap = tileOverlap; return this; }
+        public Builder outputDir(File outputDir) { this.outputDir = outputDir; return this; }
+        public Builder tileFormat(String tileFormat) { this.tileFormat = tileFormat.toLowerCase(); return this; }
+        public Builder tileQuality(float tileQuality) { this.tileQuality = tileQuality; return this; }
+        public Builder optimizeHuffman(boolean optimize) { this.optimizeHuffman = optimize; return this; }
+        public Builder progressive(boolean progressive) { this.progressive = progressive; return this; }
+        public Builder chromaSubsampling(String subsampling) { this.chromaSubsampling = subsampling; return this; }
+        public Builder resampleMode(ResampleMode mode) { this.resampleMode = mode; return this; }
+        public Builder threadCount(int threadCount) { this.threadCount = threadCount; return this; }
+        public Builder quadtreeMode(boolean quadtree) { this.quadtreeMode = quadtree; return this; }
+        public Builder streamMode(boolean stream) { this.streamMode = stream; return this; }
+        public Builder offHeapMode(boolean offHeap) { this.offHeapMode = offHeap; return this; }
+        public Builder packMode(boolean pack) { this.packMode = pack; return this; }
+        public Builder archiveMode(boolean archive) { this.archiveMode = archive; return this; }
+        public Builder resumeMode(boolean resume) { this.resumeMode = resume; return this; }
+        public Builder swapMode(boolean swap) { this.swapMode = swap; return this; }
+        public Builder hashTiles(boolean hash) { this.hashTiles = hash; return this; }
+        public Builder blankMode(BlankMode mode) { this.blankMode = mode; return this; }
+        public Builder deleteExisting(boolean delete) { this.deleteExisting = delete; return this; }
+        public Builder verboseMode(boolean verbose) { this.verboseMode = verbose; return this; }
+        public Builder debugMode(boolean debug) { this.debugMode = debug; return this; }
+        public Builder reportSavings(boolean savings) { this.reportSavings = savings; return this; }
+        public Builder decodeAhead(int threads) { this.decodeAhead = threads; return this; }
+        public Builder decodeBudgetMb(int budget) { this.decodeBudgetMb = budget; return this; }
+
+        /**
+         * Checks the settings and returns them as a ConverterConfig
+         */
+        public ConverterConfig build() {
+            if (tileSize < 1)
+                throw new IllegalArgumentException("Tile size must be at least 1");
+            if (tileOverlap < 0)
+                throw new IllegalArgumentException("Overlap must not be negative");
+            if (threadCount < 1)
+                throw new IllegalArgumentException("Thread count must be at least 1");
+            if (decodeAhead < 0)
+                throw new IllegalArgumentException("Decode ahead thread count must not be negative");
+            if (decodeBudgetMb < 1)
+                throw new IllegalArgumentException("Decode budget must be at least 1 MB");
+            if (packMode && archiveMode)
+                throw new IllegalArgumentException("Pack and archive modes cannot be combined");
+            if (resumeMode && (packMode || archiveMode))
+                throw new IllegalArgumentException("Resume mode needs the tile directory layout");
+            if (resumeMode && swapMode)
+                throw new IllegalArgumentException("Resume and swap modes cannot be combined");
+            if (outputDir == null)
+                throw new IllegalArgumentException("No output directory given");
+            return new ConverterConfig(this);
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package DeepZoomConverter;
+
+/**
+ *  Deep Zoom Converter
+ *
+ *  Version: MPL 1.1/GPL 3/LGPL 3
+ *
+ *  The contents of this file are subject to the Mozilla Public License Version
+ *  1.1 (the "License"); you may not use this file except in compliance with
+ *  the License. You may obtain a copy of the License at
+ *  http: *www.mozilla.org/MPL/
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ *  for the specific language governing rights and limitations under the
+ *  License.
+ *
+ *  The Original Code is this Java package called DeepZoomConverter
+ *
+ *  The Initial Developer of the Original Code is Glenn Lawrence.
+ *  Portions created by the Initial Developer are Copyright (c) 2007-2009
+ *  the Initial Developer. All Rights Reserved.
+ *
+ *  Contributor(s):
+ *    Glenn Lawrence  <glenn.c.lawrence@gmail.com>
+ *
+ *  Alternatively, the contents of this file may be used under the terms of
+ *  either the GNU General Public License Version 3 or later (the "GPL"), or
+ *  the GNU Lesser General Public License Version 3 or later (the "LGPL"),
+ *  in which case the provisions of the GPL or the LGPL are applicable instead
+ *  of those above. If you wish to allow use of your version of this file only
+ *  under the terms of either the GPL or the LGPL, and not to allow others to
+ *  use your version of this file under the terms of the MPL, indicate your
+ *  decision by deleting the provisions above and replace them with the notice
+ *  and other provisions required by the GPL or the LGPL. If you do not delete
+ *  the provisions above, a recipient may use your version of this file under
+ *  the terms of any one of the MPL, the GPL or the LGPL.
+ */
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Submits a conversion to a ConversionDaemon and prints the daemon's
+ * messages as they arrive. Any other program can do the same by writing
+ * the request described in ConversionDaemon to the socket, e.g. with socat.
+ */
+class DaemonClient {
+
+    /**
+     * Submits a job and waits for it to finish
+     * @param socketFile the path of the daemon's socket
+     * @param args the command line arguments of the conversion
+     * @return true if the daemon reported success
+     */
+    static boolean submit(File socketFile, String[] args) {
+        try (SocketChannel channel = SocketChannel.open(
+                 UnixDomainSocketAddress.of(socketFile.toPath()))) {
+            PrintStream out = new PrintStream(Channels.newOutputStream(channel), false, "UTF-8");
+            out.print(new File("").getAbsolutePath() + "\n");
+            for (String arg : args)
+                out.print(arg + "\n");
+            out.print("\n");
+            out.flush();
+
+            BufferedReader in = new BufferedReader(new InputStreamReader(
+                Channels.newInputStream(channel), StandardCharsets.UTF_8));
+            String line;
+            String last = null;
+            while ((line = in.readLine()) != null) {
+                System.out.println(line);
+                last = line;
+            }
+            return last != null && (last.equals(ConversionDaemon.OK)
+                                    || last.startsWith(ConversionDaemon.OK + " "));
+        } catch (IOException e) {
+            System.out.println("Unable to reach daemon: " + socketFile + ": " + e.getMessage());
+            return false;
+        }
+    }
+}
@@ -0,0 +1,1119 @@
+package DeepZoomConverter;
+
+/**
+ *  Deep Zoom Converter
+ *
+ *  Version: MPL 1.1/GPL 3/LGPL 3
+ *
+ *  The contents of this file are subject to the Mozilla Public License Version
+ *  1.1 (the "License"); you may not use this file except in compliance with
+ *  the License. You may obtain a copy of the License at
+ *  http: *www.mozilla.org/MPL/
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ *  for the specific language governing rights and limitations under the
+ *  License.
+ *
+ *  The Original Code is this Java package called DeepZoomConverter
+ *
+ *  The Initial Developer of the Original Code is Glenn Lawrence.
+ *  Portions created by the Initial Developer are Copyright (c) 2007-2009
+ *  the Initial Developer. All Rights Reserved.
+ *
+ *  Contributor(s):
+ *    Glenn Lawrence  <glenn.c.lawrence@gmail.com>
+ *
+ *  Alternatively, the contents of this file may be used under the terms of
+ *  either the GNU General Public License Version 3 or later (the "GPL"), or
+ *  the GNU Lesser General Public License Version 3 or later (the "LGPL"),
+ *  in which case the provisions of the GPL or the LGPL are applicable instead
+ *  of those above. If you wish to allow use of your version of this file only
+ *  under the terms of either the GPL or the LGPL, and not to allow others to
+ *  use your version of this file under the terms of the MPL, indicate your
+ *  decision by deleting the provisions above and replace them with the notice
+ *  and other provisions required by the GPL or the LGPL. If you do not delete
+ *  the provisions above, a recipient may use your version of this file under
+ *  the terms of any one of the MPL, the GPL or the LGPL.
+ */
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.PrintStream;
+import java.io.IOException;
+import java.awt.image.BufferedImage;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import javax.imageio.ImageIO;
+import java.util.List;
+import java.util.Vector;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Converts image files into the tiled images and XML descriptor of the
+ * Deep Zoom format. A converter is built from an immutable ConverterConfig
+ * and holds no per-image state, so one converter may process several images
+ * concurrently, and converters with different settings may run side by side
+ * in the same JVM. Close the converter to release its worker threads.
+ */
+public class DeepZoomConverter implements Closeable {
+
+    static final String xmlHeader = "<?xml version=\"1.0\" encoding=\"utf-8\"?>";
+    static final String schemaName = "http://schemas.microsoft.com/deepzoom/2009";
+
+    // Pixels in a band of rows moved between the heap and an off-heap level
+    private static final int BAND_PIXELS = 1 << 22;
+
+    private final ConverterConfig config;
+
+    // Copied from the configuration for brevity
+    private final int tileSize;
+    private final int tileOverlap;
+    private final File outputDir;
+    private final String tileFormat;
+    private final ConverterConfig.ResampleMode resampleMode;
+    private final boolean quadtreeMode;
+    private final boolean streamMode;
+    private final boolean offHeapMode;
+    private final boolean packMode;
+    private final boolean archiveMode;
+    private final boolean resumeMode;
+    private final boolean swapMode;
+    private final boolean hashTiles;
+    private final ConverterConfig.BlankMode blankMode;
+    private final boolean deleteExisting;
+    private final boolean verboseMode;
+    private final boolean debugMode;
+    private final boolean reportSavings;
+
+    // Worker pool used to cut and encode tiles while the next level is
+    // resized, and to reduce levels in bands
+    private final ExecutorService tilePool;
+
+    // Pool on which the quadtree is processed in quadtree mode
+    private final ForkJoinPool quadtreePool;
+
+    // Reduces levels with the box filter in parallel bands on the tile
+    // pool, when there is more than one thread outside quadtree mode
+    private final BandResampler bandResampler;
+
+    // Encodes tiles with a reusable writer per thread
+    private final TileEncoder tileEncoder;
+
+    // Cuts tiles into a reusable tile image per thread
+    private final TileExtractor tileExtractor;
+
+    // Deletes replaced output in the background in swap mode
+    private final TreeDeleter treeDeleter;
+
+    /**
+     * Creates a converter with the given settings
+     * @param config the settings
+     */
+    public DeepZoomConverter(ConverterConfig config) throws IOException {
+        this.config = config;
+        tileSize = config.getTileSize();
+        tileOverlap = config.getTileOverlap();
+        outputDir = config.getOutputDir();
+        tileFormat = config.getTileFormat();
+        resampleMode = config.getResampleMode();
+        quadtreeMode = config.getQuadtreeMode();
+        streamMode = config.getStreamMode();
+        offHeapMode = config.getOffHeapMode();
+        packMode = config.getPackMode();
+        archiveMode = config.getArchiveMode();
+        resumeMode = config.getResumeMode();
+        swapMode = config.getSwapMode();
+        hashTiles = config.getHashTiles();
+        blankMode = config.getBlankMode();
+        deleteExisting = config.getDeleteExisting();
+        verboseMode = config.getVerboseMode();
+        debugMode = config.getDebugMode();
+        reportSavings = config.getReportSavings();
+
+        if (quadtreeMode && tileOverlap > tileSize)
+            throw new IllegalArgumentException("Quadtree mode needs an overlap no larger than the tile size");
+        tileEncoder = new TileEncoder(tileFormat, config.getTileQuality(),
+                                      config.getOptimizeHuffman(), config.getProgressive(),
+                                      config.getChromaSubsampling());
+        tileExtractor = new TileExtractor(tileSize + 2 * tileOverlap);
+        if (quadtreeMode) {
+            quadtreePool = new ForkJoinPool(config.getThreadCount());
+            tilePool = null;
+            bandResampler = null;
+        } else {
+            // Tiles and bands share one pool, so that resizing a level while
+            // the tiles of the last are saved uses no more than threadCount
+            ForkJoinPool pool = new ForkJoinPool(config.getThreadCount());
+            tilePool = pool;
+            quadtreePool = null;
+            bandResampler = (config.getThreadCount() > 1) ? new BandResampler(pool) : null;
+        }
+        treeDeleter = swapMode ? new TreeDeleter(Math.max(config.getThreadCount(), 4)) : null;
+        if (verboseMode && resampleMode == ConverterConfig.ResampleMode.VECTOR) {
+            if (BoxReducer.hasVectorKernels())
+                System.out.printf("Resampling with %d bit vector kernels\n",
+                                  VectorReducer.vectorBitSize());
+            else
+                System.out.printf("Vector API not available, resampling with scalar kernels\n");
+        }
+    }
+
+    /**
+     * Returns the converter's settings
+     */
+    public ConverterConfig getConfig() {
+        return config;
+    }
+
+    /**
+     * Returns the extractor cutting tiles for the converter's threads
+     */
+    TileExtractor getTileExtractor() {
+        return tileExtractor;
+    }
+
+    /**
+     * Returns the encoder for the converter's tiles
+     */
+    TileEncoder getTileEncoder() {
+        return tileEncoder;
+    }
+
+    /**
+     * Shuts down the converter's worker threads once any conversions in
+     * progress have finished, and in swap mode waits for replaced output
+     * to be deleted
+     */
+    public void close() {
+        if (tilePool != null)
+            tilePool.shutdown();
+        if (quadtreePool != null)
+            quadtreePool.shutdown();
+        if (treeDeleter != null) {
+            File failed = treeDeleter.close();
+            if (failed != null)
+                System.out.printf("Failed to delete replaced output: %s\n", failed);
+        }
+    }
+
+    /**
+     * Process the given image file, producing its Deep Zoom output files
+     * in a subdirectory of the configured output directory. May be called
+     * concurrently for different images.
+     * @param inFile the file containing the image
+     */
+    public void processImageFile(File inFile) throws IOException {
+        if (verboseMode)
+             System.out.printf("Processing image file: %s\n", inFile);
+
+        String nameWithoutExtension = nameWithoutExtension(inFile);
+        if (isConverted(inFile, nameWithoutExtension))
+            return;
+
+        // In quadtree, stream and off-heap modes only regions of the source
+        // are read as needed, if the format can decode regions on their own
+        BufferedImage image = null;
+        RegionSource source = null;
+        int originalWidth, originalHeight;
+        if (quadtreeMode || streamMode || offHeapMode) {
+            source = ImageReaderSource.open(inFile, verboseMode);
+            originalWidth = source.getWidth();
+            originalHeight = source.getHeight();
+        } else {
+            image = loadImage(inFile);
+            originalWidth = image.getWidth();
+            originalHeight = image.getHeight();
+        }
+        try {
+            processImage(image, source, originalWidth, originalHeight, nameWithoutExtension);
+        } finally {
+            if (source != null)
+                source.close();
+        }
+    }
+
+    /**
+     * Process the given image files in order. If decoding ahead is enabled
+     * and the whole image is to be decoded, upcoming images are decoded on
+     * separate threads while earlier ones are tiled, and the throughput of
+     * the batch is reported.
+     * @param inFiles the files containing the images
+     */
+    public void processImageFiles(List<File> inFiles) throws IOException {
+        if (config.getDecodeAhead() > 0 && !quadtreeMode && !streamMode && !offHeapMode) {
+            new BatchConverter(this, config.getDecodeAhead(), config.getDecodeBudgetMb()).run(inFiles);
+            return;
+        }
+        for (File inFile : inFiles)
+            processImageFile(inFile);
+    }
+
+    /**
+     * Produces the Deep Zoom output files for an image that has already
+     * been decoded, in a subdirectory of the configured output directory.
+     * @param image the image
+     * @param name the name of the output files, without extension
+     */
+    public void processImage(BufferedImage image, String name) throws IOException {
+        if (isConverted(name, image.getWidth(), image.getHeight()))
+            return;
+        processImage(image, null, image.getWidth(), image.getHeight(), name);
+    }
+
+    /**
+     * Starts producing the Deep Zoom output files for an image whose rows
+     * will be pushed to the returned sink in order, e.g. by a scanner, so
+     * that the image never needs to be held whole or written to a file.
+     * @param name the name of the output files, without extension
+     * @param width the width of the image
+     * @param height the height of the image
+     * @param imageType the BufferedImage type in which the levels are held,
+     *        which must be one the box filter can reduce, e.g. TYPE_INT_RGB,
+     *        TYPE_3BYTE_BGR or TYPE_BYTE_GRAY
+     * @return the sink accepting the rows
+     */
+    public ScanlineSink beginImage(String name, int width, int height, int imageType)
+            throws IOException {
+        if (quadtreeMode)
+            throw new IllegalStateException("Rows cannot be pushed in quadtree mode");
+        if (width < 1 || height < 1)
+            throw new IllegalArgumentException("Image must be at least 1x1: " + width + "x" + height);
+        BufferedImage template;
+        try {
+            template = new BufferedImage(1, 1, imageType);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Unknown image type: " + imageType);
+        }
+        if (!BoxReducer.canReduce(template))
+            throw new IllegalArgumentException("Image type cannot be reduced: " + imageType);
+        if (verboseMode)
+            System.out.printf("Processing pushed image: %s\n", name);
+        return new ScanlineSink(this, template, width, height, name);
+    }
+
+    /**
+     * Returns true if in resume mode an image file has already been
+     * converted with the current settings, reading only the file's header
+     * @param inFile the file containing the image
+     * @param nameWithoutExtension the name of the output files
+     */
+    private boolean isConverted(File inFile, String nameWithoutExtension) throws IOException {
+        if (!resumeMode || !new File(outputDir, nameWithoutExtension + ".xml").exists())
+            return false;
+        ImageReaderSource header = ImageReaderSource.openReader(inFile);
+        try {
+            return isConverted(nameWithoutExtension, header.getWidth(), header.getHeight());
+        } finally {
+            header.close();
+        }
+    }
+
+    /**
+     * Returns true if in resume mode an image has already been converted,
+     * i.e. its descriptor exists, no journal shows it was interrupted, and
+     * its settings file shows it was converted with the current settings.
+     * Output without a settings file, e.g. from a run not in resume mode,
+     * is converted again.
+     * @param nameWithoutExtension the name of the output files
+     * @param width the width of the image
+     * @param height the height of the image
+     */
+    private boolean isConverted(String nameWithoutExtension, int width, int height)
+            throws IOException {
+        if (!resumeMode)
+            return false;
+        String pathWithoutExtension = outputDir + File.separator + nameWithoutExtension;
+        if (!new File(pathWithoutExtension + ".xml").exists()
+                || new File(pathWithoutExtension + "." + ResumableTileStore.EXTENSION).exists())
+            return false;
+        File settingsFile = new File(pathWithoutExtension + "."
+                                     + ResumableTileStore.SETTINGS_EXTENSION);
+        if (!ResumableTileStore.isFinishedWith(settingsFile,
+                ResumableTileStore.settingsLine(config, width, height))) {
+            if (verboseMode)
+                System.out.printf("Converted with other settings, converting again: %s\n",
+                                  nameWithoutExtension);
+            return false;
+        }
+        if (verboseMode)
+            System.out.printf("Already converted: %s\n", nameWithoutExtension);
+        return true;
+    }
+
+    /**
+     * Returns the name of the given file without its extension
+     */
+    static String nameWithoutExtension(File file) {
+        String fileName = file.getName();
+        int dot = fileName.lastIndexOf('.');
+        return (dot < 0) ? fileName : fileName.substring(0, dot);
+    }
+
+    /**
+     * Produces the Deep Zoom output files for an image, either from the
+     * decoded image or, in quadtree, stream and off-heap modes, from the
+     * region source.
+     * @param image the decoded image, or null if a region source is given
+     * @param source the region source in quadtree, stream and off-heap modes,
+     *        otherwise null
+     * @param originalWidth the width of the image
+     * @param originalHeight the height of the image
+     * @param nameWithoutExtension the name of the output files
+     */
+    private void processImage(BufferedImage image, RegionSource source,
+                              int originalWidth, int originalHeight,
+                              String nameWithoutExtension) throws IOException {
+        double maxDim = Math.max(originalWidth, originalHeight);
+
+        int nLevels = (int)Math.ceil(Math.log(maxDim) / Math.log(2));
+
+        if (debugMode)
+            System.out.printf("nLevels=%d\n", nLevels);
+
+        LevelStats levelStats = new LevelStats(nLevels);
+
+        TileStore store = openTileStore(nameWithoutExtension, originalWidth, originalHeight);
+        try {
+            if (source != null && quadtreeMode) {
+                for (int level = nLevels; level >= 0; level--)
+                    store.beginLevel(level);
+                new QuadtreeTiler(this, levelStats, source, store, nLevels).run(quadtreePool);
+            } else if (source != null && offHeapMode) {
+                saveLevelsOffHeap(source, store, nLevels, levelStats);
+            } else {
+                int topLevel = nLevels;
+                if (source != null) {
+                    store.beginLevel(nLevels);
+                    image = streamTopLevel(source, store, nLevels, levelStats);
+                    topLevel--;
+                }
+                if (topLevel >= 0)
+                    saveLevels(image, store, topLevel, levelStats);
+            }
+            finishImage(store, nameWithoutExtension, originalWidth, originalHeight);
+        } finally {
+            store.close();
+        }
+
+        if (verboseMode || reportSavings)
+            levelStats.print(reportSavings);
+    }
+
+    /**
+     * Opens the store for the tiles of an image. In swap mode the output is
+     * built in a staging directory and any existing output is left in place
+     * until finishImage replaces it, otherwise the existing output is
+     * deleted first.
+     * @param nameWithoutExtension the name of the output files
+     * @param width the width of the image
+     * @param height the height of the image
+     * @return the tile store
+     */
+    TileStore openTileStore(String nameWithoutExtension, int width, int height)
+            throws IOException {
+        if (!swapMode)
+            return openTileStore(outputDir, nameWithoutExtension, width, height);
+
+        File existing = StagedTileStore.findOutput(outputDir, nameWithoutExtension);
+        if (existing != null && !deleteExisting)
+            throw new IOException("File already exists in output dir: " + existing);
+        StagedTileStore.deleteLeftovers(outputDir, nameWithoutExtension, treeDeleter);
+        File stagingDir = StagedTileStore.createStagingDir(outputDir, nameWithoutExtension);
+        TileStore store;
+        try {
+            store = openTileStore(stagingDir, nameWithoutExtension, width, height);
+        } catch (IOException e) {
+            treeDeleter.delete(stagingDir);
+            throw e;
+        }
+        return new StagedTileStore(store, outputDir, stagingDir, nameWithoutExtension,
+                                   treeDeleter);
+    }
+
+    /**
+     * Deletes any existing output files and folders for an image in a
+     * directory and opens the store for its tiles: the packed tile file in
+     * pack mode, the archive in archive mode, otherwise the empty image
+     * directory. In resume mode the image directory is kept if the image's
+     * journal was written with the same settings. The store is wrapped to
+     * hash the tiles if asked for, and unless uniform tiles are written as
+     * usual, to handle them.
+     * @param dir the directory receiving the output
+     * @param nameWithoutExtension the name of the output files
+     * @param width the width of the image
+     * @param height the height of the image
+     * @return the tile store
+     */
+    private TileStore openTileStore(File dir, String nameWithoutExtension, int width, int height)
+            throws IOException {
+        String pathWithoutExtension = dir + File.separator + nameWithoutExtension;
+        deleteExistingFile(new File(pathWithoutExtension + ".xml"));
+        File manifest = new File(pathWithoutExtension + "." + UniformTileStore.EXTENSION);
+        deleteExistingFile(manifest);
+        File hashManifest = new File(pathWithoutExtension + "." + HashingTileStore.EXTENSION);
+        deleteExistingFile(hashManifest);
+        deleteExistingFile(new File(pathWithoutExtension + "."
+                                    + ResumableTileStore.SETTINGS_EXTENSION));
+
+        TileStore store = openStore(pathWithoutExtension, width, height);
+        if (hashTiles)
+            store = new HashingTileStore(store, hashManifest, width, height, tileSize);
+        if (blankMode == ConverterConfig.BlankMode.WRITE)
+            return store;
+        try {
+            return new UniformTileStore(store, blankMode == ConverterConfig.BlankMode.SKIP
+                                               ? manifest : null);
+        } catch (IOException e) {
+            store.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Completes the tiles of an image and writes its descriptor. In swap
+     * mode the descriptor is written to the staging directory and the new
+     * output then replaces the old. In resume mode the descriptor is written
+     * before the store deletes its journal, so a run interrupted in between
+     * still resumes from the journal rather than converting the image again.
+     * @param store the store holding the image's tiles
+     * @param nameWithoutExtension the name of the output files
+     * @param width the width of the image
+     * @param height the height of the image
+     */
+    void finishImage(TileStore store, String nameWithoutExtension, int width, int height)
+            throws IOException {
+        File descriptor = new File(outputDir, nameWithoutExtension + ".xml");
+        if (store instanceof StagedTileStore) {
+            StagedTileStore staged = (StagedTileStore)store;
+            store.finish();
+            saveImageDescriptor(width, height, new File(staged.getStagingDir(),
+                                                        nameWithoutExtension + ".xml"));
+            staged.publish();
+        } else if (resumeMode) {
+            saveImageDescriptor(width, height, descriptor);
+            store.finish();
+        } else {
+            store.finish();
+            saveImageDescriptor(width, height, descriptor);
+        }
+    }
+
+    /**
+     * Deletes a file left by an earlier conversion, if allowed
+     * @param file the file, which need not exist
+     */
+    private void deleteExistingFile(File file) throws IOException {
+        if (file.exists()) {
+            if (deleteExisting)
+                deleteFile(file);
+            else
+                throw new IOException("File already exists in output dir: " + file);
+        }
+    }
+
+    /**
+     * Opens the store for the tiles of an image in the configured layout
+     * @param pathWithoutExtension the path of the output files
+     * @param width the width of the image
+     * @param height the height of the image
+     * @return the tile store
+     */
+    private TileStore openStore(String pathWithoutExtension, int width, int height)
+            throws IOException {
+        if (packMode || archiveMode) {
+            String extension = packMode ? PackedTileStore.EXTENSION : ArchiveTileStore.EXTENSION;
+            File tileFile = new File(pathWithoutExtension + "." + extension);
+            deleteExistingFile(tileFile);
+            if (packMode)
+                return new PackedTileStore(tileFile, width, height, tileSize);
+            return new ArchiveTileStore(tileFile, width, height, tileSize, tileOverlap);
+        }
+
+        File imgDir = new File(pathWithoutExtension);
+        File journal = new File(pathWithoutExtension + "." + ResumableTileStore.EXTENSION);
+        File settingsFile = new File(pathWithoutExtension + "."
+                                     + ResumableTileStore.SETTINGS_EXTENSION);
+        String settings = ResumableTileStore.settingsLine(config, width, height);
+        if (resumeMode && imgDir.isDirectory() && ResumableTileStore.canResume(journal, settings)) {
+            ResumableTileStore store = new ResumableTileStore(imgDir, tileFormat, journal,
+                                                              settingsFile, settings);
+            if (verboseMode)
+                System.out.printf("Resuming with %d tiles from journal: %s\n",
+                                  store.getResumedTileCount(), journal);
+            return store;
+        }
+        deleteExistingFile(journal);
+
+        if (imgDir.exists()) {
+            if (deleteExisting) {
+                if (debugMode)
+                    System.out.printf("Deleting directory: %s\n", imgDir);
+                deleteDir(imgDir);
+            } else
+                throw new IOException("Image directory already exists in output dir: " + imgDir);
+        }
+
+        imgDir = createDir(imgDir.getParentFile(), imgDir.getName());
+        if (resumeMode)
+            return new ResumableTileStore(imgDir, tileFormat, journal, settingsFile, settings);
+        return new DirectoryTileStore(imgDir, tileFormat);
+    }
+
+    /**
+     * Saves the tiles of the given level and every level below it
+     * @param image the image for the first level to be saved
+     * @param store the store receiving the tiles
+     * @param topLevel the level of the given image
+     * @param levelStats the statistics for the image
+     */
+    private void saveLevels(BufferedImage image, TileStore store, int topLevel,
+                            LevelStats levelStats) throws IOException {
+        double width = image.getWidth();
+        double height = image.getHeight();
+
+        // Each level's tiles are encoded on the tile pool while this thread
+        // computes the next level, so at most two levels are held at once.
+        for (int level = topLevel; level >= 0; level--) {
+            int nCols = (int)Math.ceil(width / tileSize);
+            int nRows = (int)Math.ceil(height / tileSize);
+            if (debugMode)
+                System.out.printf("level=%d w/h=%f/%f cols/rows=%d/%d\n",
+                                   level, width, height, nCols, nRows);
+            
+            store.beginLevel(level);
+            Vector<Future<Void>> pending = submitTiles(image, 0, (int)height, level, store,
+                                                       nCols, 0, nRows, levelStats);
+            if (level == 0) {
+                awaitAll(pending);
+                break;
+            }
+
+            // Scale down image for next level
+            width = Math.ceil(width / 2);
+            height = Math.ceil(height / 2);
+            try {
+                image = scaleDown(image, width, height);
+            } finally {
+                awaitAll(pending);
+            }
+        }
+    }
+
+    /**
+     * Saves the tiles of every level with the levels held off the heap in
+     * memory-mapped files in the output directory. The source is copied into
+     * the top level a band of rows at a time, and each level is reduced into
+     * the next in bands while its tiles are encoded, so the heap only holds
+     * bands and tiles however large the image is.
+     * @param source the source image
+     * @param store the store receiving the tiles
+     * @param nLevels the index of the top level
+     * @param levelStats the statistics for the image
+     */
+    private void saveLevelsOffHeap(RegionSource source, TileStore store, int nLevels,
+                                   LevelStats levelStats) throws IOException {
+        int width = source.getWidth();
+        int height = source.getHeight();
+        int bandRows = bandRows(width);
+        MappedRaster raster = null;
+        try {
+            for (int y = 0; y < height; y += bandRows) {
+                int rows = Math.min(bandRows, height - y);
+                BufferedImage band =
+                    BoxReducer.toReducible(source.read(new Rectangle(0, y, width, rows)));
+                if (raster == null)
+                    raster = new MappedRaster(outputDir, band, width, height);
+                raster.write(band, y, rows);
+            }
+
+            for (int level = nLevels; level >= 0; level--) {
+                if (debugMode)
+                    System.out.printf("level=%d w/h=%d/%d (off heap)\n",
+                                      level, raster.getWidth(), raster.getHeight());
+                store.beginLevel(level);
+                Vector<Future<Void>> pending = submitTiles(raster, level, store, levelStats);
+                MappedRaster next = null;
+                try {
+                    if (level > 0)
+                        next = reduceOffHeap(raster, outputDir);
+                } finally {
+                    try {
+                        awaitAll(pending);
+                    } finally {
+                        raster.close();
+                        raster = next;
+                    }
+                }
+            }
+        } finally {
+            if (raster != null)
+                raster.close();
+        }
+    }
+
+    /**
+     * Returns the number of rows of the given width in a band moved
+     * between the heap and an off-heap level
+     */
+    private static int bandRows(int width) {
+        return Math.max(BAND_PIXELS / width, 1);
+    }
+
+    /**
+     * Reduces an off-heap level into a new off-heap level with the box
+     * filter, a band of rows at a time
+     * @param raster the level to be reduced
+     * @param dir the directory for the new level's file
+     * @return the next level down
+     */
+    private MappedRaster reduceOffHeap(MappedRaster raster, File dir) throws IOException {
+        int width = raster.getWidth();
+        int height = raster.getHeight();
+        MappedRaster next = new MappedRaster(dir, raster.getTemplate(),
+                                             (width + 1) / 2, (height + 1) / 2);
+        try {
+            int bandRows = bandRows(next.getWidth());
+            BufferedImage src = raster.createImage(width, Math.min(2 * bandRows, height));
+            BufferedImage dst = next.createImage(next.getWidth(),
+                                                 Math.min(bandRows, next.getHeight()));
+            for (int y = 0; y < next.getHeight(); y += bandRows) {
+                int rows = Math.min(bandRows, next.getHeight() - y);
+                int srcRows = Math.min(2 * rows, height - 2 * y);
+                raster.readRows(2 * y, srcRows, src);
+                // The band is reduced as an image of its own, whose last row
+                // is the last of the level whenever that falls in the band
+                reduceRows(src, 0, srcRows, dst, 0, rows);
+                next.write(dst, y, rows);
+            }
+        } catch (IOException e) {
+            next.close();
+            throw e;
+        }
+        return next;
+    }
+
+    /**
+     * Saves the tiles of the top level by decoding the source one band of
+     * tile rows at a time, and returns the next level down, built from the
+     * bands with the box reducer. Only the current and previous bands are
+     * held in memory, along with the half size image for the next level.
+     * @param source the source image
+     * @param store the store receiving the tiles
+     * @param nLevels the index of the top level
+     * @param levelStats the statistics for the image
+     * @return the image for the next level, or null if there is none
+     */
+    private BufferedImage streamTopLevel(RegionSource source, TileStore store, int nLevels,
+                                         LevelStats levelStats) throws IOException {
+        int width = source.getWidth();
+        int height = source.getHeight();
+        int nCols = (width + tileSize - 1) / tileSize;
+        int nRows = (height + tileSize - 1) / tileSize;
+        BufferedImage next = null;
+        int nextRow = 0;      // first row of the next level still to be reduced
+        Vector<Future<Void>> pending = new Vector<Future<Void>>();
+
+        for (int row = 0; row < nRows; row++) {
+            int y0 = Math.max(row * tileSize - tileOverlap, 0);
+            int y1 = Math.min((row + 1) * tileSize + tileOverlap, height);
+            y0 = Math.min(y0, 2 * nextRow);
+            if (debugMode)
+                System.out.printf("stream band: row=%d, y=%d, h=%d\n", row, y0, y1 - y0);
+            BufferedImage band;
+            try {
+                band = BoxReducer.toReducible(source.read(new Rectangle(0, y0, width, y1 - y0)));
+            } catch (IOException e) {
+                awaitAll(pending);
+                throw e;
+            }
+
+            // Hold at most two bands: wait for the previous band's tiles
+            // before submitting this one's
+            awaitAll(pending);
+            pending = submitTiles(band, y0, height, nLevels, store, nCols, row, row + 1,
+                                  levelStats);
+
+            if (nLevels > 0) {
+                if (next == null)
+                    next = BoxReducer.createReduced(width, height, band);
+                int toRow = nextRow;
+                while (toRow < next.getHeight() && Math.min(2 * toRow + 1, height - 1) < y1)
+                    toRow++;
+                reduceRows(band, y0, height, next, nextRow, toRow);
+                nextRow = toRow;
+            }
+        }
+        awaitAll(pending);
+        return next;
+    }
+
+
+    /**
+     * Submits the tiles in the given rows to the tile pool, which cuts and
+     * saves them in the given store. Each tile is cut and encoded
+     * independently so the output is the same as for a serial run. Tiles
+     * the store already has from an interrupted run are skipped.
+     * @param image the image holding the rows of the current level that the tiles cover
+     * @param imageY the row of the level at which the image starts
+     * @param levelHeight the height of the current level
+     * @param level the current level
+     * @param store the store receiving the tiles
+     * @param nCols the number of tile columns
+     * @param fromRow the first tile row
+     * @param toRow the tile row after the last one
+     * @param levelStats the statistics for the image
+     * @return the pending tile tasks
+     */
+    Vector<Future<Void>> submitTiles(final BufferedImage image, final int imageY,
+                                     final int levelHeight, final int level,
+                                     final TileStore store, int nCols, int fromRow, int toRow,
+                                     final LevelStats levelStats) {
+        Vector<Future<Void>> futures = new Vector<Future<Void>>();
+        for (int col = 0; col < nCols; col++) {
+            for (int row = fromRow; row < toRow; row++) {
+                if (store.hasTile(level, col, row))
+                    continue;
+                final int c = col;
+                final int r = row;
+                futures.add(tilePool.submit(new Callable<Void>() {
+                    public Void call() throws IOException {
+                        BufferedImage tile = getTile(image, imageY, levelHeight, r, c);
+                        saveImage(tile, level, c, r, store, levelStats);
+                        return null;
+                    }
+                }));
+            }
+        }
+        return futures;
+    }
+
+    /**
+     * Submits the tiles of an off-heap level to the tile pool, which cuts
+     * them straight from the level and saves them in the given store
+     * @param raster the level
+     * @param level the index of the level
+     * @param store the store receiving the tiles
+     * @param levelStats the statistics for the image
+     * @return the pending tile tasks
+     */
+    private Vector<Future<Void>> submitTiles(final MappedRaster raster, final int level,
+                                             final TileStore store,
+                                             final LevelStats levelStats) {
+        int nCols = (raster.getWidth() + tileSize - 1) / tileSize;
+        int nRows = (raster.getHeight() + tileSize - 1) / tileSize;
+        Vector<Future<Void>> futures = new Vector<Future<Void>>();
+        for (int col = 0; col < nCols; col++) {
+            for (int row = 0; row < nRows; row++) {
+                if (store.hasTile(level, col, row))
+                    continue;
+                final int c = col;
+                final int r = row;
+                futures.add(tilePool.submit(new Callable<Void>() {
+                    public Void call() throws IOException {
+                        BufferedImage tile = getTile(raster, r, c);
+                        saveImage(tile, level, c, r, store, levelStats);
+                        return null;
+                    }
+                }));
+            }
+        }
+        return futures;
+    }
+
+    /**
+     * Waits for all of the given tasks to complete, rethrowing the first
+     * failure as an IOException once every task has finished.
+     * @param futures the tasks to wait for
+     */
+    static void awaitAll(Vector<Future<Void>> futures) throws IOException {
+        IOException failure = null;
+        for (Future<Void> future : futures) {
+            try {
+                future.get();
+            } catch (ExecutionException e) {
+                if (failure == null) {
+                    Throwable cause = e.getCause();
+                    if (cause instanceof IOException)
+                        failure = (IOException)cause;
+                    else
+                        failure = new IOException("Tile task failed: " + cause, cause);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while waiting for tiles");
+            }
+        }
+        if (failure != null)
+            throw failure;
+    }
+
+    /**
+     * Delete a file
+     * @param path the path of the directory to be deleted
+     */
+    private static void deleteFile(File file) throws IOException {
+         if (!file.delete())
+             throw new IOException("Failed to delete file: " + file);
+    }
+
+    /**
+     * Recursively deletes a directory
+     * @param path the path of the directory to be deleted
+     */
+    private static void deleteDir(File dir) throws IOException {
+        if (!dir.isDirectory())
+            deleteFile(dir);
+        else {
+            for (File file : dir.listFiles()) {
+               if (file.isDirectory())
+                   deleteDir(file);
+               else
+                   deleteFile(file);
+            }
+            if (!dir.delete())
+                throw new IOException("Failed to delete directory: " + dir);
+        }
+    }
+
+    /**
+     * Creates a directory
+     * @param parent the parent directory for the new directory
+     * @param name the new directory name
+     */
+    static File createDir(File parent, String name) throws IOException {
+        assert(parent.isDirectory());
+        File result = new File(parent + File.separator + name);
+        if (!result.mkdir())
+           throw new IOException("Unable to create directory: " + result);
+        return result;
+    }
+
+    /**
+     * Loads image from file
+     * @param file the file containing the image
+     */
+    public static BufferedImage loadImage(File file) throws IOException {
+        BufferedImage result = null;
+        try {
+            result = ImageIO.read(file);
+        } catch (Exception e) {
+            throw new IOException("Cannot read image file: " + file);
+        }
+        return result;
+    }
+
+    /**
+     * Gets an image containing the tile at the given row and column
+     * for the given image. The image belongs to the calling thread and is
+     * only valid until the thread cuts its next tile.
+     * @param img - the input image from whihc the tile is taken
+     * @param row - the tile's row (i.e. y) index
+     * @param col - the tile's column (i.e. x) index
+     */
+    BufferedImage getTile(BufferedImage img, int row, int col) {
+        return getTile(img, 0, img.getHeight(), row, col);
+    }
+
+    /**
+     * Gets an image containing the tile at the given row and column
+     * from an image holding a band of rows of the level. The image belongs
+     * to the calling thread and is only valid until the thread cuts its
+     * next tile.
+     * @param img - the band of rows from which the tile is taken
+     * @param imgY - the row of the level at which the band starts
+     * @param levelHeight - the height of the whole level
+     * @param row - the tile's row (i.e. y) index
+     * @param col - the tile's column (i.e. x) index
+     */
+    private BufferedImage getTile(BufferedImage img, int imgY, int levelHeight,
+                                  int row, int col) {
+        int x = col * tileSize - (col == 0 ? 0 : tileOverlap);
+        int y = row * tileSize - (row == 0 ? 0 : tileOverlap);
+        int w = tileSize + (col == 0 ? 1 : 2) * tileOverlap;
+        int h = tileSize + (row == 0 ? 1 : 2) * tileOverlap;
+
+        if (x + w > img.getWidth())
+            w = img.getWidth() - x;
+        if (y + h > levelHeight)
+            h = levelHeight - y;
+
+        if (debugMode)
+            System.out.printf("getTile: row=%d, col=%d, x=%d, y=%d, w=%d, h=%d\n",
+                              row, col, x, y, w, h);
+        
+        assert(w > 0);
+        assert(h > 0);
+
+        return tileExtractor.extract(img, imgY, x, y, w, h);
+    }
+
+    /**
+     * Gets an image containing the tile at the given row and column of an
+     * off-heap level, read directly from the level's file. The image
+     * belongs to the calling thread and is only valid until the thread cuts
+     * its next tile.
+     * @param raster - the level from which the tile is taken
+     * @param row - the tile's row (i.e. y) index
+     * @param col - the tile's column (i.e. x) index
+     */
+    private BufferedImage getTile(MappedRaster raster, int row, int col) throws IOException {
+        // Same geometry as getTile for an image
+        int x = col * tileSize - (col == 0 ? 0 : tileOverlap);
+        int y = row * tileSize - (row == 0 ? 0 : tileOverlap);
+        int w = Math.min(tileSize + (col == 0 ? 1 : 2) * tileOverlap, raster.getWidth() - x);
+        int h = Math.min(tileSize + (row == 0 ? 1 : 2) * tileOverlap, raster.getHeight() - y);
+
+        if (debugMode)
+            System.out.printf("getTile: row=%d, col=%d, x=%d, y=%d, w=%d, h=%d\n",
+                              row, col, x, y, w, h);
+
+        BufferedImage tile = tileExtractor.tileImage(raster.getTemplate(), w, h);
+        raster.read(x, y, tile);
+        return tile;
+    }
+
+    /**
+     * Fills rows of the next level down from a band of rows of the current
+     * level with the box filter, as BoxReducer.reduceRows, using the Vector
+     * API kernels and parallel bands when enabled
+     * @param src the band of rows of the current level
+     * @param srcY the row of the current level at which the band starts
+     * @param srcHeight the height of the current level
+     * @param dst the image for the next level
+     * @param fromRow the first row of dst to fill
+     * @param toRow the row of dst after the last one to fill
+     */
+    void reduceRows(BufferedImage src, int srcY, int srcHeight,
+                    BufferedImage dst, int fromRow, int toRow) {
+        boolean vector = resampleMode == ConverterConfig.ResampleMode.VECTOR;
+        if (bandResampler != null)
+            bandResampler.reduceRows(src, srcY, srcHeight, dst, fromRow, toRow, vector);
+        else
+            BoxReducer.reduceRows(src, srcY, srcHeight, dst, fromRow, toRow, vector);
+    }
+
+    /**
+     * Returns the image for the next level down, using the selected
+     * resampling mode
+     * @param img the image for the current level
+     * @param width the width of the next level
+     * @param height the height of the next level
+     */
+    BufferedImage scaleDown(BufferedImage img, double width, double height) {
+        if (resampleMode != ConverterConfig.ResampleMode.BICUBIC && BoxReducer.canReduce(img)) {
+            boolean vector = resampleMode == ConverterConfig.ResampleMode.VECTOR;
+            if (bandResampler != null)
+                return bandResampler.reduce(img, vector);
+            return BoxReducer.reduce(img, vector);
+        }
+        if (width > 10 && height > 10) {
+            // resize in stages to improve quality
+            img = resizeImage(img, width * 1.66, height * 1.66);
+            img = resizeImage(img, width * 1.33, height * 1.33);
+        }
+        return resizeImage(img, width, height);
+    }
+
+    /**
+     * Returns resized image
+     * NB - useful reference on high quality image resizing can be found here:
+     *   http://today.java.net/pub/a/today/2007/04/03/perils-of-image-getscaledinstance.html
+     * @param width the required width
+     * @param height the frequired height
+     * @param img the image to be resized
+     */
+    static BufferedImage resizeImage(BufferedImage img, double width, double height) {
+        int w = (int)width;
+        int h = (int)height;
+        BufferedImage result = ImageUtil.createCompatible(img, w, h);
+        Graphics2D g = result.createGraphics();
+        g.setRenderingHint(RenderingHints.KEY_INTERPOLATION,
+                           RenderingHints.VALUE_INTERPOLATION_BICUBIC);
+        g.drawImage(img, 0, 0, w, h, 0, 0, img.getWidth(), img.getHeight(), null);
+        g.dispose();
+        return result;
+    }
+
+    /**
+     * Encodes a tile and saves it in the given store, unless it is of a
+     * single colour and the store can take it without it being encoded
+     * @param img the image to be saved
+     * @param level the level of the tile
+     * @param col the column of the tile
+     * @param row the row of the tile
+     * @param store the store receiving the tile
+     * @param levelStats the statistics for the image
+     */
+    void saveImage(BufferedImage img, int level, int col, int row, TileStore store,
+                   LevelStats levelStats) throws IOException {
+        if (blankMode != ConverterConfig.BlankMode.WRITE && TileExtractor.isUniform(img)
+                && store.writeUniform(level, col, row, img)) {
+            levelStats.addUniform(level);
+            return;
+        }
+        TileBuffer encoded;
+        int defaultLength;
+        try {
+            encoded = tileEncoder.encode(img);
+            defaultLength = reportSavings ? tileEncoder.defaultEncodedLength(img) : -1;
+        } catch (IOException e) {
+            throw new IOException("Unable to encode tile: " + level + File.separator
+                                  + col + '_' + row + "." + tileFormat);
+        }
+        store.write(level, col, row, encoded);
+        levelStats.add(level, encoded.getLength(), defaultLength);
+    }
+
+    /**
+     * Write image descriptor XML file
+     * @param width image width
+     * @param height image height
+     * @param file the file to which it is saved
+     */
+    void saveImageDescriptor(int width, int height, File file) throws IOException {
+        saveText(imageDescriptorLines(width, height), file);
+    }
+
+    /**
+     * Returns the lines of the image descriptor XML
+     * @param width image width
+     * @param height image height
+     */
+    Vector<String> imageDescriptorLines(int width, int height) {
+        Vector<String> lines = new Vector<String>();
+        lines.add(xmlHeader);
+        lines.add("<Image TileSize=\"" + tileSize + "\" Overlap=\"" + tileOverlap +
+                  "\" Format=\"" + tileFormat + "\" ServerFormat=\"Default\" xmnls=\"" +
+                  schemaName + "\">");
+        lines.add("<Size Width=\"" + width + "\" Height=\"" + height + "\" />");
+        lines.add("</Image>");
+        return lines;
+    }
+
+    /**
+     * Saves strings as text to the given file
+     * @param lines the image to be saved
+     * @param file the file to which it is saved
+     */
+    private static void saveText(Vector<String> lines, File file) throws IOException {
+        try {
+            FileOutputStream fos = new FileOutputStream(file);
+            PrintStream ps = new PrintStream(fos);
+            for (int i = 0; i < lines.size(); i++)
+                ps.println(lines.elementAt(i));
+            ps.close();
+            if (ps.checkError())
+                throw new IOException();
+        } catch (IOException e) {
+            throw new IOException("Unable to write to text file: " + file);
+        }
+    }
+
+}
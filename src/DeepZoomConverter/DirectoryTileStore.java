@@ -0,0 +1,126 @@
+package DeepZoomConverter;
+
+/**
+ *  Deep Zoom Converter
+ *
+ *  Version: MPL 1.1/GPL 3/LGPL 3
+ *
+ *  The contents of this file are subject to the Mozilla Public License Version
+ *  1.1 (the "License"); you may not use this file except in compliance with
+ *  the License. You may obtain a copy of the License at
+ *  http: *www.mozilla.org/MPL/
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ *  for the specific language governing rights and limitations under the
+ *  License.
+ *
+ *  The Original Code is this Java package called DeepZoomConverter
+ *
+ *  The Initial Developer of the Original Code is Glenn Lawrence.
+ *  Portions created by the Initial Developer are Copyright (c) 2007-2009
+ *  the Initial Developer. All Rights Reserved.
+ *
+ *  Contributor(s):
+ *    Glenn Lawrence  <glenn.c.lawrence@gmail.com>
+ *
+ *  Alternatively, the contents of this file may be used under the terms of
+ *  either the GNU General Public License Version 3 or later (the "GPL"), or
+ *  the GNU Lesser General Public License Version 3 or later (the "LGPL"),
+ *  in which case the provisions of the GPL or the LGPL are applicable instead
+ *  of those above. If you wish to allow use of your version of this file only
+ *  under the terms of either the GPL or the LGPL, and not to allow others to
+ *  use your version of this file under the terms of the MPL, indicate your
+ *  decision by deleting the provisions above and replace them with the notice
+ *  and other provisions required by the GPL or the LGPL. If you do not delete
+ *  the provisions above, a recipient may use your version of this file under
+ *  the terms of any one of the MPL, the GPL or the LGPL.
+ */
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Stores each tile in a file of its own, in a directory for each level
+ * within the image directory, as the Deep Zoom viewers expect
+ */
+class DirectoryTileStore implements TileStore {
+
+    private final File imgDir;
+    private final String tileFormat;
+
+    /**
+     * @param imgDir the empty directory that will hold the level directories
+     * @param tileFormat the informal name of the tile format, used as the
+     *        tile files' extension
+     */
+    DirectoryTileStore(File imgDir, String tileFormat) {
+        this.imgDir = imgDir;
+        this.tileFormat = tileFormat;
+    }
+
+    /**
+     * Returns the file holding the given tile
+     */
+    File tileFile(int level, int col, int row) {
+        return new File(imgDir + File.separator + level + File.separator
+                        + col + '_' + row + "." + tileFormat);
+    }
+
+    public boolean hasTile(int level, int col, int row) {
+        return false;
+    }
+
+    public void beginLevel(int level) throws IOException {
+        DeepZoomConverter.createDir(imgDir, Integer.toString(level));
+    }
+
+    public void write(int level, int col, int row, TileBuffer tile) throws IOException {
+        File file = tileFile(level, col, row);
+        try {
+            tile.writeTo(file);
+        } catch (IOException e) {
+            throw new IOException("Unable to save image file: " + file);
+        }
+    }
+
+    public boolean writeUniform(int level, int col, int row, BufferedImage tile) {
+        return false;
+    }
+
+    /**
+     * Hard links the tile's file to the file already written, or copies it
+     * if the file system has no hard links. The link is made under a
+     * temporary name and moved over the tile's file, which may be left from
+     * an interrupted conversion that is being resumed.
+     */
+    public void writeCopy(int level, int col, int row, int fromLevel, int fromCol, int fromRow)
+            throws IOException {
+        File file = tileFile(level, col, row);
+        File from = tileFile(fromLevel, fromCol, fromRow);
+        Path temp = new File(file.getPath() + ".link").toPath();
+        try {
+            Files.deleteIfExists(temp);
+            try {
+                Files.createLink(temp, from.toPath());
+            } catch (UnsupportedOperationException e) {
+                Files.copy(from.toPath(), temp);
+            }
+            Files.move(temp, file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            // Renaming over a link to the same file does nothing
+            Files.deleteIfExists(temp);
+        } catch (IOException e) {
+            throw new IOException("Unable to link image file: " + file);
+        }
+    }
+
+    public void finish() {
+    }
+
+    public void close() {
+    }
+}
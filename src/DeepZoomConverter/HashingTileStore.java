@@ -0,0 +1,197 @@
+package DeepZoomConverter;
+
+/**
+ *  Deep Zoom Converter
+ *
+ *  Version: MPL 1.1/GPL 3/LGPL 3
+ *
+ *  The contents of this file are subject to the Mozilla Public License Version
+ *  1.1 (the "License"); you may not use this file except in compliance with
+ *  the License. You may obtain a copy of the License at
+ *  http: *www.mozilla.org/MPL/
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ *  for the specific language governing rights and limitations under the
+ *  License.
+ *
+ *  The Original Code is this Java package called DeepZoomConverter
+ *
+ *  The Initial Developer of the Original Code is Glenn Lawrence.
+ *  Portions created by the Initial Developer are Copyright (c) 2007-2009
+ *  the Initial Developer. All Rights Reserved.
+ *
+ *  Contributor(s):
+ *    Glenn Lawrence  <glenn.c.lawrence@gmail.com>
+ *
+ *  Alternatively, the contents of this file may be used under the terms of
+ *  either the GNU General Public License Version 3 or later (the "GPL"), or
+ *  the GNU Lesser General Public License Version 3 or later (the "LGPL"),
+ *  in which case the provisions of the GPL or the LGPL are applicable instead
+ *  of those above. If you wish to allow use of your version of this file only
+ *  under the terms of either the GPL or the LGPL, and not to allow others to
+ *  use your version of this file under the terms of the MPL, indicate your
+ *  decision by deleting the provisions above and replace them with the notice
+ *  and other provisions required by the GPL or the LGPL. If you do not delete
+ *  the provisions above, a recipient may use your version of this file under
+ *  the terms of any one of the MPL, the GPL or the LGPL.
+ */
+
+import java.awt.image.BufferedImage;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.zip.CRC32C;
+
+/**
+ * Computes a CRC-32C of each encoded tile as it is written to another
+ * store, while the tile is still in memory, and writes a tile hash
+ * manifest beside the descriptor once the image is finished, so that
+ * integrity checks and cache busting need not read the tiles back.
+ *
+ * The manifest has a line "level col row size crc" for each stored tile,
+ * the CRC being 8 hex digits, in order of level, row and column. Tiles
+ * stored as copies of another have its size and CRC; tiles of a single
+ * colour left out in skip mode are listed in the sparse tile manifest
+ * instead. When a conversion is resumed, the tiles kept from the earlier
+ * run are read back and hashed as the image is finished.
+ */
+class HashingTileStore implements TileStore {
+
+    static final String EXTENSION = "hashes";
+
+    private final TileStore store;
+    private final File manifest;
+    private final int[] nCols;
+    private final int[] nRows;
+    private final int[][] lengths;   // -1 for a tile not stored
+    private final int[][] crcs;
+
+    /**
+     * @param store the store receiving the tiles
+     * @param manifest the tile hash manifest to be written
+     * @param width the width of the image
+     * @param height the height of the image
+     * @param tileSize the tile size, without the overlap
+     */
+    HashingTileStore(TileStore store, File manifest, int width, int height, int tileSize) {
+        this.store = store;
+        this.manifest = manifest;
+        int nLevels = (int)Math.ceil(Math.log(Math.max(width, height)) / Math.log(2));
+        nCols = new int[nLevels + 1];
+        nRows = new int[nLevels + 1];
+        lengths = new int[nLevels + 1][];
+        crcs = new int[nLevels + 1][];
+        for (int level = nLevels; level >= 0; level--) {
+            nCols[level] = (width + tileSize - 1) / tileSize;
+            nRows[level] = (height + tileSize - 1) / tileSize;
+            lengths[level] = new int[nCols[level] * nRows[level]];
+            crcs[level] = new int[nCols[level] * nRows[level]];
+            Arrays.fill(lengths[level], -1);
+            width = (width + 1) / 2;
+            height = (height + 1) / 2;
+        }
+    }
+
+    public boolean hasTile(int level, int col, int row) {
+        return store.hasTile(level, col, row);
+    }
+
+    public void beginLevel(int level) throws IOException {
+        store.beginLevel(level);
+    }
+
+    public void write(int level, int col, int row, TileBuffer tile) throws IOException {
+        CRC32C crc = new CRC32C();
+        crc.update(tile.getData(), 0, tile.getLength());
+        int i = row * nCols[level] + col;
+        crcs[level][i] = (int)crc.getValue();
+        lengths[level][i] = tile.getLength();
+        store.write(level, col, row, tile);
+    }
+
+    public boolean writeUniform(int level, int col, int row, BufferedImage tile)
+            throws IOException {
+        return store.writeUniform(level, col, row, tile);
+    }
+
+    public void writeCopy(int level, int col, int row, int fromLevel, int fromCol, int fromRow)
+            throws IOException {
+        int from = fromRow * nCols[fromLevel] + fromCol;
+        int i = row * nCols[level] + col;
+        crcs[level][i] = crcs[fromLevel][from];
+        lengths[level][i] = lengths[fromLevel][from];
+        store.writeCopy(level, col, row, fromLevel, fromCol, fromRow);
+    }
+
+    /**
+     * Writes the tile hash manifest once the tiles are complete, and then
+     * finishes the store. The manifest is written first because finishing
+     * a resumable store deletes its journal, after which the image counts
+     * as converted.
+     */
+    public void finish() throws IOException {
+        if (store instanceof ResumableTileStore)
+            hashResumedTiles((ResumableTileStore)store);
+        PrintStream out;
+        try {
+            out = new PrintStream(new BufferedOutputStream(new FileOutputStream(manifest)));
+        } catch (IOException e) {
+            throw new IOException("Unable to create tile hash manifest: " + manifest);
+        }
+        try {
+            for (int level = 0; level < nCols.length; level++) {
+                for (int row = 0; row < nRows[level]; row++) {
+                    for (int col = 0; col < nCols[level]; col++) {
+                        int i = row * nCols[level] + col;
+                        if (lengths[level][i] >= 0)
+                            out.printf("%d %d %d %d %08x\n", level, col, row,
+                                       lengths[level][i], crcs[level][i]);
+                    }
+                }
+            }
+        } finally {
+            out.close();
+        }
+        if (out.checkError())
+            throw new IOException("Unable to write to tile hash manifest: " + manifest);
+        store.finish();
+    }
+
+    /**
+     * Hashes the tiles that were kept from an interrupted run rather than
+     * written through this store, and the copies made of them, from their
+     * files
+     * @param resumed the store holding the tiles
+     */
+    private void hashResumedTiles(ResumableTileStore resumed) throws IOException {
+        for (int level = 0; level < nCols.length; level++) {
+            for (int row = 0; row < nRows[level]; row++) {
+                for (int col = 0; col < nCols[level]; col++) {
+                    int i = row * nCols[level] + col;
+                    if (lengths[level][i] >= 0 || !resumed.hasTile(level, col, row))
+                        continue;
+                    File file = resumed.tileFile(level, col, row);
+                    byte[] data;
+                    try {
+                        data = Files.readAllBytes(file.toPath());
+                    } catch (IOException e) {
+                        throw new IOException("Unable to read image file: " + file);
+                    }
+                    CRC32C crc = new CRC32C();
+                    crc.update(data, 0, data.length);
+                    crcs[level][i] = (int)crc.getValue();
+                    lengths[level][i] = data.length;
+                }
+            }
+        }
+    }
+
+    public void close() throws IOException {
+        store.close();
+    }
+}
@@ -0,0 +1,173 @@
+package DeepZoomConverter;
+
+/**
+ *  Deep Zoom Converter
+ *
+ *  Version: MPL 1.1/GPL 3/LGPL 3
+ *
+ *  The contents of this file are subject to the Mozilla Public License Version
+ *  1.1 (the "License"); you may not use this file except in compliance with
+ *  the License. You may obtain a copy of the License at
+ *  http: *www.mozilla.org/MPL/
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ *  for the specific language governing rights and limitations under the
+ *  License.
+ *
+ *  The Original Code is this Java package called DeepZoomConverter
+ *
+ *  The Initial Developer of the Original Code is Glenn Lawrence.
+ *  Portions created by the Initial Developer are Copyright (c) 2007-2009
+ *  the Initial Developer. All Rights Reserved.
+ *
+ *  Contributor(s):
+ *    Glenn Lawrence  <glenn.c.lawrence@gmail.com>
+ *
+ *  Alternatively, the contents of this file may be used under the terms of
+ *  either the GNU General Public License Version 3 or later (the "GPL"), or
+ *  the GNU Lesser General Public License Version 3 or later (the "LGPL"),
+ *  in which case the provisions of the GPL or the LGPL are applicable instead
+ *  of those above. If you wish to allow use of your version of this file only
+ *  under the terms of either the GPL or the LGPL, and not to allow others to
+ *  use your version of this file under the terms of the MPL, indicate your
+ *  decision by deleting the provisions above and replace them with the notice
+ *  and other provisions required by the GPL or the LGPL. If you do not delete
+ *  the provisions above, a recipient may use your version of this file under
+ *  the terms of any one of the MPL, the GPL or the LGPL.
+ */
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.awt.image.SampleModel;
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.stream.ImageInputStream;
+
+/**
+ * A region source that decodes only the requested region of an image file
+ * using ImageReadParam.setSourceRegion. Reads are serialised since an
+ * ImageReader may only be used by one thread at a time.
+ */
+class ImageReaderSource implements RegionSource {
+
+    private final File file;
+    private final ImageInputStream input;
+    private final ImageReader reader;
+    private final int width;
+    private final int height;
+
+    private ImageReaderSource(File file, ImageInputStream input, ImageReader reader)
+            throws IOException {
+        this.file = file;
+        this.input = input;
+        this.reader = reader;
+        this.width = reader.getWidth(0);
+        this.height = reader.getHeight(0);
+    }
+
+    /**
+     * Opens a region source for the given file. Formats whose regions can
+     * be decoded without reading the whole file (BMP, striped or tiled TIFF,
+     * raw) are read region by region; anything else is decoded up front.
+     * @param file the file containing the image
+     * @param verbose whether to report falling back to a full decode
+     */
+    static RegionSource open(File file, boolean verbose) throws IOException {
+        ImageReaderSource source = openReader(file);
+        if (source.isRegionAccessEasy())
+            return source;
+        source.close();
+        if (verbose)
+            System.out.printf("Format does not support region reads, decoding in full: %s\n", file);
+        return new BufferedImageSource(DeepZoomConverter.loadImage(file));
+    }
+
+    /**
+     * Opens an ImageReader based source for the given file regardless of
+     * how efficiently the format supports region reads
+     * @param file the file containing the image
+     */
+    static ImageReaderSource openReader(File file) throws IOException {
+        ImageInputStream input = ImageIO.createImageInputStream(file);
+        if (input == null)
+            throw new IOException("Cannot read image file: " + file);
+        Iterator<ImageReader> readers = ImageIO.getImageReaders(input);
+        if (!readers.hasNext()) {
+            input.close();
+            throw new IOException("Cannot read image file: " + file);
+        }
+        ImageReader reader = readers.next();
+        reader.setInput(input);
+        try {
+            return new ImageReaderSource(file, input, reader);
+        } catch (IOException e) {
+            reader.dispose();
+            input.close();
+            throw new IOException("Cannot read image file: " + file);
+        }
+    }
+
+    /**
+     * Returns true if the format lets a region be decoded without decoding
+     * everything before it
+     */
+    boolean isRegionAccessEasy() throws IOException {
+        return reader.isRandomAccessEasy(0) || reader.isImageTiled(0)
+            || reader.getTileHeight(0) < height;
+    }
+
+    /**
+     * Returns the bytes each pixel takes once decoded, from the sample
+     * sizes and storage of the reader's image type, or 4 if the reader
+     * cannot tell
+     */
+    int getBytesPerPixel() throws IOException {
+        ImageTypeSpecifier type = reader.getRawImageType(0);
+        if (type == null) {
+            Iterator<ImageTypeSpecifier> types = reader.getImageTypes(0);
+            if (!types.hasNext())
+                return 4;
+            type = types.next();
+        }
+        SampleModel sm = type.getSampleModel();
+        int bits = 0;
+        for (int band = 0; band < sm.getNumBands(); band++)
+            bits += sm.getSampleSize(band);
+        bits = Math.max(bits, DataBuffer.getDataTypeSize(sm.getDataType()));
+        return (bits + 7) / 8;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public synchronized BufferedImage read(Rectangle region) throws IOException {
+        ImageReadParam param = reader.getDefaultReadParam();
+        param.setSourceRegion(region);
+        try {
+            return reader.read(0, param);
+        } catch (IOException e) {
+            throw new IOException("Cannot read region " + region + " of image file: " + file);
+        }
+    }
+
+    public synchronized void close() {
+        reader.dispose();
+        try {
+            input.close();
+        } catch (IOException e) {
+            // nothing more to release
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package DeepZoomConverter;
+
+/**
+ *  Deep Zoom Converter
+ *
+ *  Version: MPL 1.1/GPL 3/LGPL 3
+ *
+ *  The contents of this file are subject to the Mozilla Public License Version
+ *  1.1 (the "License"); you may not use this file except in compliance with
+ *  the License. You may obtain a copy of the License at
+ *  http: *www.mozilla.org/MPL/
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ *  for the specific language governing rights and limitations under the
+ *  License.
+ *
+ *  The Original Code is this Java package called DeepZoomConverter
+ *
+ *  The Initial Developer of the Original Code is Glenn Lawrence.
+ *  Portions created by the Initial Developer are Copyright (c) 2007-2009
+ *  the Initial Developer. All Rights Reserved.
+ *
+ *  Contributor(s):
+ *    Glenn Lawrence  <glenn.c.lawrence@gmail.com>
+ *
+ *  Alternatively, the contents of this file may be used under the terms of
+ *  either the GNU General Public License Version 3 or later (the "GPL"), or
+ *  the GNU Lesser General Public License Version 3 or later (the "LGPL"),
+ *  in which case the provisions of the GPL or the LGPL are applicable instead
+ *  of those above. If you wish to allow use of your version of this file only
+ *  under the terms of either the GPL or the LGPL, and not to allow others to
+ *  use your version of this file under the terms of the MPL, indicate your
+ *  decision by deleting the provisions above and replace them with the notice
+ *  and other provisions required by the GPL or the LGPL. If you do not delete
+ *  the provisions above, a recipient may use your version of this file under
+ *  the terms of any one of the MPL, the GPL or the LGPL.
+ */
+
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
+
+/**
+ * Helpers for creating images and copying pixels between them without
+ * going through Java2D rendering
+ */
+class ImageUtil {
+
+    /**
+     * Creates an empty image with the same type and layout as the given image
+     * @param img the image whose type is to be matched
+     * @param w the width of the new image
+     * @param h the height of the new image
+     */
+    static BufferedImage createCompatible(BufferedImage img, int w, int h) {
+        if (img.getType() != BufferedImage.TYPE_CUSTOM)
+            return new BufferedImage(w, h, img.getType());
+        ColorModel cm = img.getColorModel();
+        return new BufferedImage(cm, cm.createCompatibleWritableRaster(w, h),
+                                 cm.isAlphaPremultiplied(), null);
+    }
+
+    /**
+     * Copies the source image into the destination image with its top left
+     * corner at the given position, clipped to the destination. The images
+     * must have the same layout.
+     * @param src the image to be copied
+     * @param x the position of the source within the destination
+     * @param y the position of the source within the destination
+     * @param dst the image copied into
+     */
+    static void copyInto(BufferedImage src, int x, int y, BufferedImage dst) {
+        int x0 = Math.max(x, 0);
+        int y0 = Math.max(y, 0);
+        int x1 = Math.min(x + src.getWidth(), dst.getWidth());
+        int y1 = Math.min(y + src.getHeight(), dst.getHeight());
+        if (x0 >= x1 || y0 >= y1)
+            return;
+        Raster in = src.getRaster();
+        WritableRaster out = dst.getRaster();
+        Object row = null;
+        for (int j = y0; j < y1; j++) {
+            row = in.getDataElements(x0 - x, j - y, x1 - x0, 1, row);
+            out.setDataElements(x0, j, x1 - x0, 1, row);
+        }
+    }
+}
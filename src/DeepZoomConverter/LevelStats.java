@@ -0,0 +1,112 @@
+package DeepZoomConverter;
+
+/**
+ *  Deep Zoom Converter
+ *
+ *  Version: MPL 1.1/GPL 3/LGPL 3
+ *
+ *  The contents of this file are subject to the Mozilla Public License Version
+ *  1.1 (the "License"); you may not use this file except in compliance with
+ *  the License. You may obtain a copy of the License at
+ *  http: *www.mozilla.org/MPL/
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ *  for the specific language governing rights and limitations under the
+ *  License.
+ *
+ *  The Original Code is this Java package called DeepZoomConverter
+ *
+ *  The Initial Developer of the Original Code is Glenn Lawrence.
+ *  Portions created by the Initial Developer are Copyright (c) 2007-2009
+ *  the Initial Developer. All Rights Reserved.
+ *
+ *  Contributor(s):
+ *    Glenn Lawrence  <glenn.c.lawrence@gmail.com>
+ *
+ *  Alternatively, the contents of this file may be used under the terms of
+ *  either the GNU General Public License Version 3 or later (the "GPL"), or
+ *  the GNU Lesser General Public License Version 3 or later (the "LGPL"),
+ *  in which case the provisions of the GPL or the LGPL are applicable instead
+ *  of those above. If you wish to allow use of your version of this file only
+ *  under the terms of either the GPL or the LGPL, and not to allow others to
+ *  use your version of this file under the terms of the MPL, indicate your
+ *  decision by deleting the provisions above and replace them with the notice
+ *  and other provisions required by the GPL or the LGPL. If you do not delete
+ *  the provisions above, a recipient may use your version of this file under
+ *  the terms of any one of the MPL, the GPL or the LGPL.
+ */
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts the tiles and encoded bytes written for each level of one image,
+ * the uniform tiles stored without being encoded, and optionally the bytes
+ * the writer's default settings would have used
+ */
+class LevelStats {
+
+    private final AtomicLongArray tiles;
+    private final AtomicLongArray bytes;
+    private final AtomicLongArray defaultBytes;
+    private final AtomicLongArray uniformTiles;
+
+    /**
+     * @param nLevels the index of the top level
+     */
+    LevelStats(int nLevels) {
+        tiles = new AtomicLongArray(nLevels + 1);
+        bytes = new AtomicLongArray(nLevels + 1);
+        defaultBytes = new AtomicLongArray(nLevels + 1);
+        uniformTiles = new AtomicLongArray(nLevels + 1);
+    }
+
+    /**
+     * Records a tile written at the given level
+     * @param level the tile's level
+     * @param length the encoded size of the tile
+     * @param defaultLength the size with default settings, or -1 if not measured
+     */
+    void add(int level, long length, long defaultLength) {
+        tiles.incrementAndGet(level);
+        bytes.addAndGet(level, length);
+        if (defaultLength >= 0)
+            defaultBytes.addAndGet(level, defaultLength);
+    }
+
+    /**
+     * Records a uniform tile that was skipped or stored as a copy
+     * @param level the tile's level
+     */
+    void addUniform(int level) {
+        uniformTiles.incrementAndGet(level);
+    }
+
+    /**
+     * Prints the counts for each level, from the top level down
+     * @param withSavings whether to report the bytes saved against the default settings
+     */
+    void print(boolean withSavings) {
+        long total = 0;
+        long totalDefault = 0;
+        for (int level = bytes.length() - 1; level >= 0; level--) {
+            total += bytes.get(level);
+            totalDefault += defaultBytes.get(level);
+            System.out.printf("level=%d tiles=%d bytes=%d", level, tiles.get(level), bytes.get(level));
+            if (uniformTiles.get(level) > 0)
+                System.out.printf(" uniform=%d", uniformTiles.get(level));
+            if (withSavings)
+                printSaving(bytes.get(level), defaultBytes.get(level));
+            System.out.printf("\n");
+        }
+        System.out.printf("total bytes=%d", total);
+        if (withSavings)
+            printSaving(total, totalDefault);
+        System.out.printf("\n");
+    }
+
+    private static void printSaving(long actual, long defaults) {
+        long saved = defaults - actual;
+        System.out.printf(" saved=%d (%.1f%%)", saved, defaults == 0 ? 0.0 : 100.0 * saved / defaults);
+    }
+}
@@ -0,0 +1,151 @@
+package DeepZoomConverter;
+
+/**
+ *  Deep Zoom Converter
+ *
+ *  Version: MPL 1.1/GPL 3/LGPL 3
+ *
+ *  The contents of this file are subject to the Mozilla Public License Version
+ *  1.1 (the "License"); you may not use this file except in compliance with
+ *  the License. You may obtain a copy of the License at
+ *  http: *www.mozilla.org/MPL/
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ *  for the specific language governing rights and limitations under the
+ *  License.
+ *
+ *  The Original Code is this Java package called DeepZoomConverter
+ *
+ *  The Initial Developer of the Original Code is Glenn Lawrence.
+ *  Portions created by the Initial Developer are Copyright (c) 2007-2009
+ *  the Initial Developer. All Rights Reserved.
+ *
+ *  Contributor(s):
+ *    Glenn Lawrence  <glenn.c.lawrence@gmail.com>
+ *
+ *  Alternatively, the contents of this file may be used under the terms of
+ *  either the GNU General Public License Version 3 or later (the "GPL"), or
+ *  the GNU Lesser General Public License Version 3 or later (the "LGPL"),
+ *  in which case the provisions of the GPL or the LGPL are applicable instead
+ *  of those above. If you wish to allow use of your version of this file only
+ *  under the terms of either the GPL or the LGPL, and not to allow others to
+ *  use your version of this file under the terms of the MPL, indicate your
+ *  decision by deleting the provisions above and replace them with the notice
+ *  and other provisions required by the GPL or the LGPL. If you do not delete
+ *  the provisions above, a recipient may use your version of this file under
+ *  the terms of any one of the MPL, the GPL or the LGPL.
+ */
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A map that discards its least recently used entries once the total size
+ * of its values exceeds a limit. Sizes are computed by the subclass, e.g.
+ * as the length of an encoded tile or the memory held by an image.
+ * Access is synchronized, so a cache may be shared by several threads.
+ */
+abstract class LruCache<K, V> {
+
+    private final long maxSize;
+    private final LinkedHashMap<K, V> map = new LinkedHashMap<K, V>(64, 0.75f, true);
+    private long size = 0;
+    private long hits = 0;
+    private long misses = 0;
+
+    /**
+     * @param maxSize the total size of the values kept, in the units of sizeOf
+     */
+    LruCache(long maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Returns the size of a value
+     * @param value the value
+     */
+    protected abstract long sizeOf(V value);
+
+    /**
+     * Called when a value is discarded or replaced, e.g. to release it
+     * @param value the value
+     */
+    protected void discarded(V value) {
+    }
+
+    /**
+     * Returns the value for a key, or null if it is not cached
+     * @param key the key
+     */
+    synchronized V get(K key) {
+        V value = map.get(key);
+        if (value != null)
+            hits++;
+        else
+            misses++;
+        return value;
+    }
+
+    /**
+     * Caches a value, discarding the least recently used values while the
+     * total size is over the limit. A value larger than the limit is not kept.
+     * @param key the key
+     * @param value the value
+     */
+    synchronized void put(K key, V value) {
+        if (sizeOf(value) > maxSize) {
+            discarded(value);
+            return;
+        }
+        V old = map.put(key, value);
+        if (old != null) {
+            size -= sizeOf(old);
+            if (old != value)
+                discarded(old);
+        }
+        size += sizeOf(value);
+        Iterator<Map.Entry<K, V>> entries = map.entrySet().iterator();
+        while (size > maxSize && entries.hasNext()) {
+            V eldest = entries.next().getValue();
+            size -= sizeOf(eldest);
+            entries.remove();
+            discarded(eldest);
+        }
+    }
+
+    /**
+     * Discards the value for a key, if it is still the given value
+     * @param key the key
+     * @param value the value
+     */
+    synchronized void remove(K key, V value) {
+        if (map.get(key) != value)
+            return;
+        map.remove(key);
+        size -= sizeOf(value);
+        discarded(value);
+    }
+
+    /**
+     * Discards every value
+     */
+    synchronized void clear() {
+        for (V value : map.values())
+            discarded(value);
+        map.clear();
+        size = 0;
+    }
+
+    /**
+     * Returns the total size of the cached values
+     */
+    synchronized long getSize() {
+        return size;
+    }
+
+    public synchronized String toString() {
+        return "entries=" + map.size() + " size=" + size + " hits=" + hits + " misses=" + misses;
+    }
+}
@@ -48,16 +48,9 @@ package DeepZoomConverter;
  */
 
 import java.io.File;
-import java.io.FileOutputStream;
-import java.io.PrintStream;
 import java.io.IOException;
 import java.io.FileNotFoundException;
-import java.awt.image.BufferedImage;
-import java.awt.Graphics2D;
-import java.awt.RenderingHints;
-import javax.imageio.ImageIO;
 import java.util.Vector;
-import java.util.Iterator;
 
 /**
  *
@@ -65,72 +58,212 @@ import java.util.Iterator;
  */
 public class Main {
 
-    static final String xmlHeader = "<?xml version=\"1.0\" encoding=\"utf-8\"?>";
-    static final String schemaName = "http://schemas.microsoft.com/deepzoom/2009";
-
-    private enum CmdParseState { DEFAULT, OUTPUTDIR, TILESIZE, OVERLAP, INPUTFILE };
-    static Boolean deleteExisting = true;
-    static String tileFormat = "jpg";
-
-    // The following can be overriden/set by the indicated command line arguments
-    static int tileSize = 256;            // -tilesize
-    static int tileOverlap = 1;           // -overlap
-    static File outputDir = null;         // -outputdir or -o
-    static Boolean verboseMode = false;   // -verbose or -v
-    static Boolean debugMode = false;     // -debug
-    static Vector<File> inputFiles = new Vector();  // must follow all other args
+    private enum CmdParseState { DEFAULT, OUTPUTDIR, TILESIZE, OVERLAP, THREADS, RESAMPLE,
+                                  FORMAT, QUALITY, SUBSAMPLING, DECODEAHEAD, DECODEBUDGET,
+                                  BLANK, INPUTFILE };
 
     /**
      * @param args the command line arguments
      */
     public static void main(String[] args) {
+        if (args.length >= 2 && args[0].equals("-daemon")) {
+            runDaemon(new File(args[1]));
+            return;
+        }
+        if (args.length >= 2 && args[0].equals("-client")) {
+            String[] jobArgs = new String[args.length - 2];
+            System.arraycopy(args, 2, jobArgs, 0, jobArgs.length);
+            System.exit(DaemonClient.submit(new File(args[1]), jobArgs) ? 0 : 1);
+        }
+        if (args.length >= 2 && args[0].equals("-serve")) {
+            runServer(args);
+            return;
+        }
+        if (args.length >= 3 && args[0].equals("-servedir")) {
+            runDirServer(args);
+            return;
+        }
       
         try {
+            ConverterConfig config;
+            Vector<File> inputFiles = new Vector<File>();  // must follow all other args
             try {
-                parseCommandLine(args);
-                if (outputDir == null)
-                    outputDir = new File(".");
-                if (debugMode) {
-                    System.out.printf("tileSize=%d ", tileSize);
-                    System.out.printf("tileOverlap=%d ", tileOverlap);
-                    System.out.printf("outputDir=%s\n", outputDir.getPath());
-                }
-
+                config = parseCommandLine(args, inputFiles);
+                if (config.getDebugMode())
+                    System.out.println(config);
             } catch (Exception e) {
                 System.out.println("Invalid command line: " + e.getMessage());
                 return;
             }
 
-            if (!outputDir.exists())
-                throw new FileNotFoundException("Output directory does not exist: "
-                                                + outputDir.getPath());
-            if (!outputDir.isDirectory())
-                throw new FileNotFoundException("Output directory is not a directory: "
-                                                + outputDir.getPath());
+            checkOutputDir(config.getOutputDir());
+
+            DeepZoomConverter converter;
+            try {
+                converter = new DeepZoomConverter(config);
+            } catch (IllegalArgumentException e) {
+                System.out.println("Invalid command line: " + e.getMessage());
+                return;
+            }
+            try {
+                converter.processImageFiles(inputFiles);
+            } finally {
+                converter.close();
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Runs a conversion daemon until a client stops it
+     * @param socketFile the path of the daemon's socket
+     */
+    private static void runDaemon(File socketFile) {
+        try {
+            ConversionDaemon daemon = new ConversionDaemon(socketFile);
+            System.out.printf("Listening on socket: %s\n", socketFile);
+            daemon.run();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Serves the tiles of images over HTTP, producing them on demand. The
+     * arguments are "-serve", the port, optionally "-tilecache" and
+     * "-regioncache" each with a size in MB, then the usual arguments.
+     * @param args the command line arguments
+     */
+    private static void runServer(String[] args) {
+        int tileCacheMb = TileServer.DEFAULT_TILE_CACHE_MB;
+        int regionCacheMb = TileServer.DEFAULT_REGION_CACHE_MB;
+        int port;
+        ConverterConfig config;
+        Vector<File> inputFiles = new Vector<File>();
+        try {
+            port = Integer.parseInt(args[1]);
+            int first = 2;
+            for (; first + 1 < args.length; first += 2) {
+                if (args[first].equals("-tilecache"))
+                    tileCacheMb = Integer.parseInt(args[first + 1]);
+                else if (args[first].equals("-regioncache"))
+                    regionCacheMb = Integer.parseInt(args[first + 1]);
+                else
+                    break;
+            }
+            String[] rest = new String[args.length - first];
+            System.arraycopy(args, first, rest, 0, rest.length);
+            config = parseCommandLine(rest, inputFiles);
+        } catch (Exception e) {
+            System.out.println("Invalid command line: " + e.getMessage());
+            return;
+        }
+
+        try {
+            TileServer server;
+            try {
+                server = new TileServer(new DeepZoomConverter(config), port,
+                                        tileCacheMb, regionCacheMb);
+            } catch (IllegalArgumentException e) {
+                System.out.println("Invalid command line: " + e.getMessage());
+                return;
+            }
+            for (File inputFile : inputFiles)
+                server.addImage(inputFile);
+            server.start();
+            System.out.printf("Serving %d images on port %d\n", inputFiles.size(), port);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Serves the pyramids in an output directory over HTTP. The arguments
+     * are "-servedir", the port and the directory, optionally followed by
+     * "-threads" and "-openfiles" each with a number.
+     * @param args the command line arguments
+     */
+    private static void runDirServer(String[] args) {
+        int threadCount = 8;
+        int maxOpenFiles = PyramidServer.DEFAULT_OPEN_FILES;
+        int port;
+        File rootDir = new File(args[2]);
+        try {
+            port = Integer.parseInt(args[1]);
+            for (int count = 3; count < args.length; count += 2) {
+                if (count + 1 >= args.length)
+                    throw new Exception("Missing value for " + args[count]);
+                if (args[count].equals("-threads"))
+                    threadCount = Integer.parseInt(args[count + 1]);
+                else if (args[count].equals("-openfiles"))
+                    maxOpenFiles = Integer.parseInt(args[count + 1]);
+                else
+                    throw new Exception("Unknown option: " + args[count]);
+            }
+            if (threadCount < 1 || maxOpenFiles < 1)
+                throw new Exception("Thread and open file counts must be at least 1");
+        } catch (Exception e) {
+            System.out.println("Invalid command line: " + e.getMessage());
+            return;
+        }
 
-            Iterator<File> itr = inputFiles.iterator();
-            while (itr.hasNext())
-                 processImageFile(itr.next(), outputDir);
+        try {
+            checkOutputDir(rootDir);
+            new PyramidServer(rootDir, port, threadCount, maxOpenFiles).start();
+            System.out.printf("Serving %s on port %d\n", rootDir, port);
         } catch (IOException e) {
             e.printStackTrace();
         }
     }
 
+    /**
+     * Checks that the output directory exists
+     * @param outputDir the output directory
+     */
+    static void checkOutputDir(File outputDir) throws IOException {
+        if (!outputDir.exists())
+            throw new FileNotFoundException("Output directory does not exist: "
+                                            + outputDir.getPath());
+        if (!outputDir.isDirectory())
+            throw new FileNotFoundException("Output directory is not a directory: "
+                                            + outputDir.getPath());
+    }
+
     /**
      * Process the command line arguments
      * @param args the command line arguments
+     * @param inputFiles receives the input files given
+     * @return the converter settings given
+     */
+    static ConverterConfig parseCommandLine(String[] args, Vector<File> inputFiles)
+            throws Exception {
+        return parseCommandLine(args, inputFiles, null);
+    }
+
+    /**
+     * Process command line arguments given relative to a directory
+     * @param args the command line arguments
+     * @param inputFiles receives the input files given
+     * @param baseDir the directory against which relative paths are
+     *        resolved, or null for the current directory
+     * @return the converter settings given
      */
-    private static void parseCommandLine(String[] args) throws Exception {
+    static ConverterConfig parseCommandLine(String[] args, Vector<File> inputFiles, File baseDir)
+            throws Exception {
+        ConverterConfig.Builder builder = ConverterConfig.builder();
+        if (baseDir != null)
+            builder.outputDir(baseDir);
         CmdParseState state = CmdParseState.DEFAULT;
         for (int count = 0; count < args.length; count++) {
             String arg = args[count];
             switch (state) {
               case DEFAULT:
                   if (arg.equals("-verbose") || arg.equals("-v"))
-                      verboseMode = true;
+                      builder.verboseMode(true);
                   else if (arg.equals("-debug")) {
-                      verboseMode = true;
-                      debugMode = true;
+                      builder.verboseMode(true);
+                      builder.debugMode(true);
                   }
                   else if (arg.equals("-outputdir") || arg.equals("-o"))
                       state = CmdParseState.OUTPUTDIR;
@@ -138,24 +271,94 @@ public class Main {
                       state = CmdParseState.TILESIZE;
                   else if (arg.equals("-overlap"))
                       state = CmdParseState.OVERLAP;
+                  else if (arg.equals("-threads"))
+                      state = CmdParseState.THREADS;
+                  else if (arg.equals("-resample"))
+                      state = CmdParseState.RESAMPLE;
+                  else if (arg.equals("-quadtree"))
+                      builder.quadtreeMode(true);
+                  else if (arg.equals("-stream"))
+                      builder.streamMode(true);
+                  else if (arg.equals("-offheap"))
+                      builder.offHeapMode(true);
+                  else if (arg.equals("-pack"))
+                      builder.packMode(true);
+                  else if (arg.equals("-archive"))
+                      builder.archiveMode(true);
+                  else if (arg.equals("-resume"))
+                      builder.resumeMode(true);
+                  else if (arg.equals("-swap"))
+                      builder.swapMode(true);
+                  else if (arg.equals("-hash"))
+                      builder.hashTiles(true);
+                  else if (arg.equals("-blank"))
+                      state = CmdParseState.BLANK;
+                  else if (arg.equals("-format"))
+                      state = CmdParseState.FORMAT;
+                  else if (arg.equals("-quality"))
+                      state = CmdParseState.QUALITY;
+                  else if (arg.equals("-optimize"))
+                      builder.optimizeHuffman(true);
+                  else if (arg.equals("-progressive"))
+                      builder.progressive(true);
+                  else if (arg.equals("-subsampling"))
+                      state = CmdParseState.SUBSAMPLING;
+                  else if (arg.equals("-savings"))
+                      builder.reportSavings(true);
+                  else if (arg.equals("-decodeahead"))
+                      state = CmdParseState.DECODEAHEAD;
+                  else if (arg.equals("-decodebudget"))
+                      state = CmdParseState.DECODEBUDGET;
                   else
                       state = CmdParseState.INPUTFILE;
                   break;
               case OUTPUTDIR:
-                  outputDir = new File(arg);
+                  builder.outputDir(resolve(baseDir, arg));
                   state = CmdParseState.DEFAULT;
                   break;
               case TILESIZE:
-                  tileSize = Integer.parseInt(arg);
+                  builder.tileSize(Integer.parseInt(arg));
                   state = CmdParseState.DEFAULT;
                   break;
               case OVERLAP:
-                  tileOverlap = Integer.parseInt(arg);
+                  builder.tileOverlap(Integer.parseInt(arg));
+                  state = CmdParseState.DEFAULT;
+                  break;
+              case THREADS:
+                  builder.threadCount(Integer.parseInt(arg));
+                  state = CmdParseState.DEFAULT;
+                  break;
+              case RESAMPLE:
+                  builder.resampleMode(ConverterConfig.ResampleMode.valueOf(arg.toUpperCase()));
+                  state = CmdParseState.DEFAULT;
+                  break;
+              case FORMAT:
+                  builder.tileFormat(arg);
+                  state = CmdParseState.DEFAULT;
+                  break;
+              case QUALITY:
+                  builder.tileQuality(Float.parseFloat(arg));
+                  state = CmdParseState.DEFAULT;
+                  break;
+              case SUBSAMPLING:
+                  builder.chromaSubsampling(arg);
+                  state = CmdParseState.DEFAULT;
+                  break;
+              case DECODEAHEAD:
+                  builder.decodeAhead(Integer.parseInt(arg));
+                  state = CmdParseState.DEFAULT;
+                  break;
+              case DECODEBUDGET:
+                  builder.decodeBudgetMb(Integer.parseInt(arg));
+                  state = CmdParseState.DEFAULT;
+                  break;
+              case BLANK:
+                  builder.blankMode(ConverterConfig.BlankMode.valueOf(arg.toUpperCase()));
                   state = CmdParseState.DEFAULT;
                   break;
             }
             if (state == CmdParseState.INPUTFILE) {
-                File inputFile = new File(arg);
+                File inputFile = resolve(baseDir, arg);
                 if (!inputFile.exists())
                     throw new FileNotFoundException("Missing input file: " + inputFile.getPath());
                 inputFiles.add(inputFile);
@@ -163,240 +366,18 @@ public class Main {
         }
         if (inputFiles.size() == 0)
             throw new Exception("No input files given");
+        return builder.build();
     }
 
     /**
-     * Process the given image file, producing its Deep Zoom output files
-     * in a subdirectory of the given output directory.
-     * @param inFile the file containing the image
-     * @param outputDir the output directory
-     */
-    private static void processImageFile(File inFile, File outputDir) throws IOException {
-        if (verboseMode)
-             System.out.printf("Processing image file: %s\n", inFile);
-
-        String fileName = inFile.getName();
-        String nameWithoutExtension = fileName.substring(0, fileName.lastIndexOf('.'));
-        String pathWithoutExtension = outputDir + File.separator + nameWithoutExtension;
-
-        BufferedImage image = loadImage(inFile);
-
-        int originalWidth = image.getWidth();
-        int originalHeight = image.getHeight();
-
-        double maxDim = Math.max(originalWidth, originalHeight);
-
-        int nLevels = (int)Math.ceil(Math.log(maxDim) / Math.log(2));
-
-        if (debugMode)
-            System.out.printf("nLevels=%d\n", nLevels);
-
-        // Delete any existing output files and folders for this image
-
-        File descriptor = new File(pathWithoutExtension + ".xml");
-        if (descriptor.exists()) {
-            if (deleteExisting)
-                deleteFile(descriptor);
-            else
-                throw new IOException("File already exists in output dir: " + descriptor);
-        }
-
-        File imgDir = new File(pathWithoutExtension);
-        if (imgDir.exists()) {
-            if (deleteExisting) {
-                if (debugMode)
-                    System.out.printf("Deleting directory: %s\n", imgDir);
-                deleteDir(imgDir);
-            } else
-                throw new IOException("Image directory already exists in output dir: " + imgDir);
-        }
-
-        imgDir = createDir(outputDir, nameWithoutExtension);
-
-        double width = originalWidth;
-        double height = originalHeight;
-
-        for (int level = nLevels; level >= 0; level--) {
-            int nCols = (int)Math.ceil(width / tileSize);
-            int nRows = (int)Math.ceil(height / tileSize);
-            if (debugMode)
-                System.out.printf("level=%d w/h=%f/%f cols/rows=%d/%d\n",
-                                   level, width, height, nCols, nRows);
-            
-            File dir = createDir(imgDir, Integer.toString(level));
-            for (int col = 0; col < nCols; col++) {
-                for (int row = 0; row < nRows; row++) {
-                    BufferedImage tile = getTile(image, row, col);
-                    saveImage(tile, dir + File.separator + col + '_' + row);
-                }
-            }
-
-            // Scale down image for next level
-            width = Math.ceil(width / 2);
-            height = Math.ceil(height / 2);
-            if (width > 10 && height > 10) {
-                // resize in stages to improve quality
-                image = resizeImage(image, width * 1.66, height * 1.66);
-                image = resizeImage(image, width * 1.33, height * 1.33);
-            }
-            image = resizeImage(image, width, height);
-        }
-
-        saveImageDescriptor(originalWidth, originalHeight, descriptor);
-    }
-
-
-    /**
-     * Delete a file
-     * @param path the path of the directory to be deleted
-     */
-    private static void deleteFile(File file) throws IOException {
-         if (!file.delete())
-             throw new IOException("Failed to delete file: " + file);
-    }
-
-    /**
-     * Recursively deletes a directory
-     * @param path the path of the directory to be deleted
-     */
-    private static void deleteDir(File dir) throws IOException {
-        if (!dir.isDirectory())
-            deleteFile(dir);
-        else {
-            for (File file : dir.listFiles()) {
-               if (file.isDirectory())
-                   deleteDir(file);
-               else
-                   deleteFile(file);
-            }
-            if (!dir.delete())
-                throw new IOException("Failed to delete directory: " + dir);
-        }
-    }
-
-    /**
-     * Creates a directory
-     * @param parent the parent directory for the new directory
-     * @param name the new directory name
+     * Returns the file for a path given relative to a directory
+     * @param baseDir the directory, or null for the current directory
+     * @param path the path, which may be absolute
      */
-    private static File createDir(File parent, String name) throws IOException {
-        assert(parent.isDirectory());
-        File result = new File(parent + File.separator + name);
-        if (!result.mkdir())
-           throw new IOException("Unable to create directory: " + result);
-        return result;
+    private static File resolve(File baseDir, String path) {
+        File file = new File(path);
+        if (baseDir == null || file.isAbsolute())
+            return file;
+        return new File(baseDir, path);
     }
-
-    /**
-     * Loads image from file
-     * @param file the file containing the image
-     */
-    private static BufferedImage loadImage(File file) throws IOException {
-        BufferedImage result = null;
-        try {
-            result = ImageIO.read(file);
-        } catch (Exception e) {
-            throw new IOException("Cannot read image file: " + file);
-        }
-        return result;
-    }
-
-    /**
-     * Gets an image containing the tile at the given row and column
-     * for the given image.
-     * @param img - the input image from whihc the tile is taken
-     * @param row - the tile's row (i.e. y) index
-     * @param col - the tile's column (i.e. x) index
-     */
-    private static BufferedImage getTile(BufferedImage img, int row, int col) {
-        int x = col * tileSize - (col == 0 ? 0 : tileOverlap);
-        int y = row * tileSize - (row == 0 ? 0 : tileOverlap);
-        int w = tileSize + (col == 0 ? 1 : 2) * tileOverlap;
-        int h = tileSize + (row == 0 ? 1 : 2) * tileOverlap;
-
-        if (x + w > img.getWidth())
-            w = img.getWidth() - x;
-        if (y + h > img.getHeight())
-            h = img.getHeight() - y;
-
-        if (debugMode)
-            System.out.printf("getTile: row=%d, col=%d, x=%d, y=%d, w=%d, h=%d\n",
-                              row, col, x, y, w, h);
-        
-        assert(w > 0);
-        assert(h > 0);
-
-        BufferedImage result = new BufferedImage(w, h, img.getType());
-        Graphics2D g = result.createGraphics();
-        g.drawImage(img, 0, 0, w, h, x, y, x+w, y+h, null);
-
-        return result;
-    }
-
-    /**
-     * Returns resized image
-     * NB - useful reference on high quality image resizing can be found here:
-     *   http://today.java.net/pub/a/today/2007/04/03/perils-of-image-getscaledinstance.html
-     * @param width the required width
-     * @param height the frequired height
-     * @param img the image to be resized
-     */
-    private static BufferedImage resizeImage(BufferedImage img, double width, double height) {
-        int w = (int)width;
-        int h = (int)height;
-        BufferedImage result = new BufferedImage(w, h, img.getType());
-        Graphics2D g = result.createGraphics();
-        g.setRenderingHint(RenderingHints.KEY_INTERPOLATION,
-                           RenderingHints.VALUE_INTERPOLATION_BICUBIC);
-        g.drawImage(img, 0, 0, w, h, 0, 0, img.getWidth(), img.getHeight(), null);
-        return result;
-    }
-
-    /**
-     * Saves image to the given file
-     * @param img the image to be saved
-     * @param path the path of the file to which it is saved (less the extension)
-     */
-    private static void saveImage(BufferedImage img, String path) throws IOException {
-        File outputFile = new File(path + "." + tileFormat);
-        try {
-            ImageIO.write(img, tileFormat, outputFile);
-        } catch (IOException e) {
-            throw new IOException("Unable to save image file: " + outputFile);
-        }
-    }
-
-    /**
-     * Write image descriptor XML file
-     * @param width image width
-     * @param height image height
-     * @param file the file to which it is saved
-     */
-    private static void saveImageDescriptor(int width, int height, File file) throws IOException {
-        Vector lines = new Vector();
-        lines.add(xmlHeader);
-        lines.add("<Image TileSize=\"" + tileSize + "\" Overlap=\"" + tileOverlap +
-                  "\" Format=\"" + tileFormat + "\" ServerFormat=\"Default\" xmnls=\"" +
-                  schemaName + "\">");
-        lines.add("<Size Width=\"" + width + "\" Height=\"" + height + "\" />");
-        lines.add("</Image>");
-        saveText(lines, file);
-    }
-
-    /**
-     * Saves strings as text to the given file
-     * @param lines the image to be saved
-     * @param file the file to which it is saved
-     */
-    private static void saveText(Vector lines, File file) throws IOException {
-        try {
-            FileOutputStream fos = new FileOutputStream(file);
-            PrintStream ps = new PrintStream(fos);
-            for (int i = 0; i < lines.size(); i++)
-                ps.println((String)lines.elementAt(i));
-        } catch (IOException e) {
-            throw new IOException("Unable to write to text file: " + file);
-        }
-    }
-
 }
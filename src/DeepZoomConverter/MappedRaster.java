@@ -0,0 +1,252 @@
+package DeepZoomConverter;
+
+/**
+ *  Deep Zoom Converter
+ *
+ *  Version: MPL 1.1/GPL 3/LGPL 3
+ *
+ *  The contents of this file are subject to the Mozilla Public License Version
+ *  1.1 (the "License"); you may not use this file except in compliance with
+ *  the License. You may obtain a copy of the License at
+ *  http: *www.mozilla.org/MPL/
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ *  for the specific language governing rights and limitations under the
+ *  License.
+ *
+ *  The Original Code is this Java package called DeepZoomConverter
+ *
+ *  The Initial Developer of the Original Code is Glenn Lawrence.
+ *  Portions created by the Initial Developer are Copyright (c) 2007-2009
+ *  the Initial Developer. All Rights Reserved.
+ *
+ *  Contributor(s):
+ *    Glenn Lawrence  <glenn.c.lawrence@gmail.com>
+ *
+ *  Alternatively, the contents of this file may be used under the terms of
+ *  either the GNU General Public License Version 3 or later (the "GPL"), or
+ *  the GNU Lesser General Public License Version 3 or later (the "LGPL"),
+ *  in which case the provisions of the GPL or the LGPL are applicable instead
+ *  of those above. If you wish to allow use of your version of this file only
+ *  under the terms of either the GPL or the LGPL, and not to allow others to
+ *  use your version of this file under the terms of the MPL, indicate your
+ *  decision by deleting the provisions above and replace them with the notice
+ *  and other provisions required by the GPL or the LGPL. If you do not delete
+ *  the provisions above, a recipient may use your version of this file under
+ *  the terms of any one of the MPL, the GPL or the LGPL.
+ */
+
+import java.awt.image.BufferedImage;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.SampleModel;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A level held off the heap in a memory-mapped temporary file, so that its
+ * size is not limited by the 2^31 element limit of Java arrays and the
+ * pixels add nothing to the heap the garbage collector has to manage.
+ *
+ * The pixels are stored with the same layout as a template image that
+ * BoxReducer can reduce, i.e. packed ints or interleaved bytes, one row
+ * after another. Pixels are addressed with long offsets, and the file is
+ * mapped in chunks of whole rows of up to 1 GB each. Rows are moved in and
+ * out with bulk copies to and from images of the template's layout, and
+ * disjoint rows may be read and written from several threads at once.
+ */
+class MappedRaster {
+
+    private static final long MAX_CHUNK_BYTES = 1L << 30;
+
+    private final File file;
+    private final BufferedImage template;
+    private final int width;
+    private final int height;
+    private final boolean packedInts;
+    private final int rowElements;      // data elements in a row
+    private final int rowsPerChunk;
+    private final ByteBuffer[] byteChunks;
+    private final IntBuffer[] intChunks;
+    private boolean deleted = false;
+
+    /**
+     * Creates a raster in a new temporary file. Where the platform allows,
+     * the file is deleted as soon as it is mapped, so that it cannot be
+     * left behind if the process is killed, otherwise when the raster is
+     * closed.
+     * @param dir the directory for the temporary file
+     * @param template an image with the layout of the pixels, which must
+     *        satisfy BoxReducer.canReduce
+     * @param width the width of the raster
+     * @param height the height of the raster
+     */
+    MappedRaster(File dir, BufferedImage template, int width, int height) throws IOException {
+        this.template = template;
+        this.width = width;
+        this.height = height;
+        packedInts = template.getRaster().getDataBuffer() instanceof DataBufferInt;
+        int elementBytes = packedInts ? 4 : 1;
+        long rowLength = (long)width * pixelStride(template.getSampleModel());
+        if (rowLength * elementBytes > MAX_CHUNK_BYTES)
+            throw new IOException("Raster too wide to map: " + width);
+        rowElements = (int)rowLength;
+        rowsPerChunk = (int)Math.min(MAX_CHUNK_BYTES / Math.max(rowLength * elementBytes, 1),
+                                     Math.max(height, 1));
+        int nChunks = (height + rowsPerChunk - 1) / rowsPerChunk;
+        byteChunks = packedInts ? null : new ByteBuffer[nChunks];
+        intChunks = packedInts ? new IntBuffer[nChunks] : null;
+
+        file = File.createTempFile("raster", ".tmp", dir);
+        try {
+            RandomAccessFile raf = new RandomAccessFile(file, "rw");
+            try {
+                FileChannel channel = raf.getChannel();
+                long chunkBytes = (long)rowsPerChunk * rowLength * elementBytes;
+                long totalBytes = (long)height * rowLength * elementBytes;
+                for (int i = 0; i < nChunks; i++) {
+                    long position = i * chunkBytes;
+                    MappedByteBuffer chunk = channel.map(FileChannel.MapMode.READ_WRITE, position,
+                                                         Math.min(chunkBytes, totalBytes - position));
+                    chunk.order(ByteOrder.nativeOrder());
+                    if (packedInts)
+                        intChunks[i] = chunk.asIntBuffer();
+                    else
+                        byteChunks[i] = chunk;
+                }
+            } finally {
+                // The mappings stay valid once the channel is closed
+                raf.close();
+            }
+            deleted = file.delete();
+        } catch (IOException e) {
+            file.delete();
+            throw new IOException("Unable to map raster file: " + file);
+        }
+    }
+
+    private static int pixelStride(SampleModel sm) {
+        if (sm instanceof ComponentSampleModel)
+            return ((ComponentSampleModel)sm).getPixelStride();
+        return 1;
+    }
+
+    int getWidth() {
+        return width;
+    }
+
+    int getHeight() {
+        return height;
+    }
+
+    /**
+     * Returns the image giving the layout of the pixels
+     */
+    BufferedImage getTemplate() {
+        return template;
+    }
+
+    /**
+     * Creates an image with the raster's layout
+     * @param w the width of the image
+     * @param h the height of the image
+     */
+    BufferedImage createImage(int w, int h) {
+        return ImageUtil.createCompatible(template, w, h);
+    }
+
+    /**
+     * Copies rows of the given image into the raster
+     * @param img an image with the raster's layout and width
+     * @param y the raster row at which the first row is stored
+     * @param rows the number of rows to copy, from the top of the image
+     */
+    void write(BufferedImage img, int y, int rows) throws IOException {
+        checkLayout(img);
+        if (img.getWidth() != width)
+            throw new IOException("Image width doesn't match the raster: " + img.getWidth());
+        copyRows(img, 0, y, width, rows, true);
+    }
+
+    /**
+     * Fills the given image from the raster
+     * @param x the raster column of the image's left edge
+     * @param y the raster row of the image's top edge
+     * @param img an image with the raster's layout, lying within the raster
+     *        when placed at (x, y)
+     */
+    void read(int x, int y, BufferedImage img) throws IOException {
+        checkLayout(img);
+        copyRows(img, x, y, img.getWidth(), img.getHeight(), false);
+    }
+
+    /**
+     * Fills rows at the top of the given image from the raster
+     * @param y the raster row of the image's top edge
+     * @param rows the number of rows to fill
+     * @param img an image with the raster's layout and width
+     */
+    void readRows(int y, int rows, BufferedImage img) throws IOException {
+        checkLayout(img);
+        copyRows(img, 0, y, width, rows, false);
+    }
+
+    private void checkLayout(BufferedImage img) throws IOException {
+        DataBuffer db = img.getRaster().getDataBuffer();
+        if ((db instanceof DataBufferInt) != packedInts
+            || pixelStride(img.getSampleModel()) != pixelStride(template.getSampleModel())
+            || !img.getColorModel().equals(template.getColorModel()))
+            throw new IOException("Image layout doesn't match the raster");
+    }
+
+    /**
+     * Copies a block of pixels between the image and the raster, row by row
+     */
+    private void copyRows(BufferedImage img, int x, int y, int w, int rows, boolean toRaster) {
+        SampleModel sm = img.getSampleModel();
+        DataBuffer db = img.getRaster().getDataBuffer();
+        int stride = (sm instanceof SinglePixelPackedSampleModel)
+            ? ((SinglePixelPackedSampleModel)sm).getScanlineStride()
+            : ((ComponentSampleModel)sm).getScanlineStride();
+        int pixelStride = pixelStride(sm);
+        int length = w * pixelStride;
+        int index = db.getOffset();
+        for (int j = 0; j < rows; j++, index += stride) {
+            int row = y + j;
+            int chunk = row / rowsPerChunk;
+            int offset = (row % rowsPerChunk) * rowElements + x * pixelStride;
+            if (packedInts) {
+                int[] data = ((DataBufferInt)db).getData();
+                if (toRaster)
+                    intChunks[chunk].put(offset, data, index, length);
+                else
+                    intChunks[chunk].get(offset, data, index, length);
+            } else {
+                byte[] data = ((DataBufferByte)db).getData();
+                if (toRaster)
+                    byteChunks[chunk].put(offset, data, index, length);
+                else
+                    byteChunks[chunk].get(offset, data, index, length);
+            }
+        }
+    }
+
+    /**
+     * Deletes the raster's file if it is still there. The mapped memory is released once the
+     * buffers are garbage collected, so the raster must not be used again.
+     */
+    void close() {
+        if (!deleted)
+            file.delete();
+    }
+}
@@ -0,0 +1,251 @@
+package DeepZoomConverter;
+
+/**
+ *  Deep Zoom Converter
+ *
+ *  Version: MPL 1.1/GPL 3/LGPL 3
+ *
+ *  The contents of this file are subject to the Mozilla Public License Version
+ *  1.1 (the "License"); you may not use this file except in compliance with
+ *  the License. You may obtain a copy of the License at
+ *  http: *www.mozilla.org/MPL/
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ *  for the specific language governing rights and limitations under the
+ *  License.
+ *
+ *  The Original Code is this Java package called DeepZoomConverter
+ *
+ *  The Initial Developer of the Original Code is Glenn Lawrence.
+ *  Portions created by the Initial Developer are Copyright (c) 2007-2009
+ *  the Initial Developer. All Rights Reserved.
+ *
+ *  Contributor(s):
+ *    Glenn Lawrence  <glenn.c.lawrence@gmail.com>
+ *
+ *  Alternatively, the contents of this file may be used under the terms of
+ *  either the GNU General Public License Version 3 or later (the "GPL"), or
+ *  the GNU Lesser General Public License Version 3 or later (the "LGPL"),
+ *  in which case the provisions of the GPL or the LGPL are applicable instead
+ *  of those above. If you wish to allow use of your version of this file only
+ *  under the terms of either the GPL or the LGPL, and not to allow others to
+ *  use your version of this file under the terms of the MPL, indicate your
+ *  decision by deleting the provisions above and replace them with the notice
+ *  and other provisions required by the GPL or the LGPL. If you do not delete
+ *  the provisions above, a recipient may use your version of this file under
+ *  the terms of any one of the MPL, the GPL or the LGPL.
+ */
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Stores every tile of an image in one packed file, so that a pyramid of
+ * hundreds of thousands of tiles costs one file instead of a file for each
+ * tile and a directory for each level.
+ *
+ * Tiles are appended in the order they are written, through a large
+ * buffer so the file is written sequentially in big blocks. The index
+ * follows the tiles and the header is completed last, so a file whose
+ * conversion did not finish has no index offset. All numbers are big endian:
+ *
+ *   header:  int magic "DZPK", int version, long index offset
+ *   tiles:   the encoded tiles, back to back
+ *   index:   int level count, then for each level from 0 up:
+ *            int columns, int rows, then for each tile in row order:
+ *            long offset, int length (0 for a tile never written), where
+ *            tiles stored as copies of another share its offset
+ */
+class PackedTileStore implements TileStore {
+
+    static final String EXTENSION = "tiles";
+
+    static final int MAGIC = 0x445A504B;
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 16;
+
+    private static final int WRITE_BUFFER_SIZE = 4 << 20;
+
+    private final File file;
+    private final FileChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(WRITE_BUFFER_SIZE);
+    private final int[] nCols;
+    private final int[] nRows;
+    private final long[][] offsets;
+    private final int[][] lengths;
+    private long position = HEADER_SIZE;
+
+    /**
+     * Creates the packed file for an image, replacing any existing file
+     * @param file the packed file
+     * @param width the width of the image
+     * @param height the height of the image
+     * @param tileSize the tile size, without the overlap
+     */
+    PackedTileStore(File file, int width, int height, int tileSize) throws IOException {
+        this.file = file;
+        int nLevels = (int)Math.ceil(Math.log(Math.max(width, height)) / Math.log(2));
+        nCols = new int[nLevels + 1];
+        nRows = new int[nLevels + 1];
+        offsets = new long[nLevels + 1][];
+        lengths = new int[nLevels + 1][];
+        for (int level = nLevels; level >= 0; level--) {
+            nCols[level] = (width + tileSize - 1) / tileSize;
+            nRows[level] = (height + tileSize - 1) / tileSize;
+            offsets[level] = new long[nCols[level] * nRows[level]];
+            lengths[level] = new int[nCols[level] * nRows[level]];
+            width = (width + 1) / 2;
+            height = (height + 1) / 2;
+        }
+
+        try {
+            channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                                       StandardOpenOption.TRUNCATE_EXISTING,
+                                       StandardOpenOption.WRITE);
+        } catch (IOException e) {
+            throw new IOException("Unable to create packed tile file: " + file);
+        }
+        // The index offset stays 0 until the index has been written
+        buffer.putInt(MAGIC).putInt(VERSION).putLong(0);
+    }
+
+    /**
+     * Returns the number of levels, which is the index of the top level plus one
+     */
+    int getLevelCount() {
+        return nCols.length;
+    }
+
+    /**
+     * Returns the number of tile columns at the given level
+     */
+    int getColCount(int level) {
+        return nCols[level];
+    }
+
+    /**
+     * Returns the number of tile rows at the given level
+     */
+    int getRowCount(int level) {
+        return nRows[level];
+    }
+
+    /**
+     * Returns the offset in the file of a tile written to the store
+     */
+    synchronized long getOffset(int level, int col, int row) {
+        return offsets[level][row * nCols[level] + col];
+    }
+
+    /**
+     * Returns the length of a tile, or 0 if it has not been written
+     */
+    synchronized int getLength(int level, int col, int row) {
+        return lengths[level][row * nCols[level] + col];
+    }
+
+    public boolean hasTile(int level, int col, int row) {
+        return false;
+    }
+
+    public void beginLevel(int level) {
+    }
+
+    public synchronized void write(int level, int col, int row, TileBuffer tile)
+            throws IOException {
+        int length = tile.getLength();
+        try {
+            if (length > buffer.remaining())
+                flush();
+            if (length > buffer.remaining())
+                writeFully(ByteBuffer.wrap(tile.getData(), 0, length));
+            else
+                buffer.put(tile.getData(), 0, length);
+        } catch (IOException e) {
+            throw new IOException("Unable to write to packed tile file: " + file);
+        }
+        int i = row * nCols[level] + col;
+        offsets[level][i] = position;
+        lengths[level][i] = length;
+        position += length;
+    }
+
+    public boolean writeUniform(int level, int col, int row, BufferedImage tile) {
+        return false;
+    }
+
+    /**
+     * Points the tile's index entry at the bytes of the tile already written
+     */
+    public synchronized void writeCopy(int level, int col, int row,
+                                       int fromLevel, int fromCol, int fromRow) {
+        int i = row * nCols[level] + col;
+        int from = fromRow * nCols[fromLevel] + fromCol;
+        offsets[level][i] = offsets[fromLevel][from];
+        lengths[level][i] = lengths[fromLevel][from];
+    }
+
+    /**
+     * Writes the index after the tiles and records its offset in the header
+     */
+    public synchronized void finish() throws IOException {
+        long indexOffset = position;
+        try {
+            putInt(nCols.length);
+            for (int level = 0; level < nCols.length; level++) {
+                putInt(nCols[level]);
+                putInt(nRows[level]);
+                for (int i = 0; i < offsets[level].length; i++) {
+                    if (buffer.remaining() < 12)
+                        flush();
+                    buffer.putLong(offsets[level][i]).putInt(lengths[level][i]);
+                }
+            }
+            flush();
+            ByteBuffer offset = ByteBuffer.allocate(8);
+            offset.putLong(indexOffset).flip();
+            while (offset.hasRemaining())
+                channel.write(offset, 8 + offset.position());
+        } catch (IOException e) {
+            throw new IOException("Unable to write index of packed tile file: " + file);
+        }
+    }
+
+    /**
+     * Writes out the tiles still held in the buffer, leaving the file
+     * without an index
+     */
+    synchronized void flushTiles() throws IOException {
+        try {
+            flush();
+        } catch (IOException e) {
+            throw new IOException("Unable to write to packed tile file: " + file);
+        }
+    }
+
+    public synchronized void close() throws IOException {
+        channel.close();
+    }
+
+    private void putInt(int value) throws IOException {
+        if (buffer.remaining() < 4)
+            flush();
+        buffer.putInt(value);
+    }
+
+    private void flush() throws IOException {
+        buffer.flip();
+        writeFully(buffer);
+        buffer.clear();
+    }
+
+    private void writeFully(ByteBuffer data) throws IOException {
+        while (data.hasRemaining())
+            channel.write(data);
+    }
+}
@@ -0,0 +1,323 @@
+package DeepZoomConverter;
+
+/**
+ *  Deep Zoom Converter
+ *
+ *  Version: MPL 1.1/GPL 3/LGPL 3
+ *
+ *  The contents of this file are subject to the Mozilla Public License Version
+ *  1.1 (the "License"); you may not use this file except in compliance with
+ *  the License. You may obtain a copy of the License at
+ *  http: *www.mozilla.org/MPL/
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ *  for the specific language governing rights and limitations under the
+ *  License.
+ *
+ *  The Original Code is this Java package called DeepZoomConverter
+ *
+ *  The Initial Developer of the Original Code is Glenn Lawrence.
+ *  Portions created by the Initial Developer are Copyright (c) 2007-2009
+ *  the Initial Developer. All Rights Reserved.
+ *
+ *  Contributor(s):
+ *    Glenn Lawrence  <glenn.c.lawrence@gmail.com>
+ *
+ *  Alternatively, the contents of this file may be used under the terms of
+ *  either the GNU General Public License Version 3 or later (the "GPL"), or
+ *  the GNU Lesser General Public License Version 3 or later (the "LGPL"),
+ *  in which case the provisions of the GPL or the LGPL are applicable instead
+ *  of those above. If you wish to allow use of your version of this file only
+ *  under the terms of either the GPL or the LGPL, and not to allow others to
+ *  use your version of this file under the terms of the MPL, indicate your
+ *  decision by deleting the provisions above and replace them with the notice
+ *  and other provisions required by the GPL or the LGPL. If you do not delete
+ *  the provisions above, a recipient may use your version of this file under
+ *  the terms of any one of the MPL, the GPL or the LGPL.
+ */
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Serves pyramids already written to an output directory over HTTP.
+ * Requests for /name.xml return the descriptor and requests for
+ * /name_files/level/col_row.format the tile in the image directory.
+ *
+ * Descriptors are held in memory and tiles are sent from open channels,
+ * both kept in a cache of recently served files, so a tile is not opened
+ * again for each request. Each file's ETag is computed when it is cached,
+ * from its identity, size and modification time, and a request whose
+ * If-None-Match holds it is answered with 304 Not Modified. A cached file
+ * is checked against the file system on each request, so output replaced
+ * by a new conversion, e.g. in swap mode, is picked up.
+ */
+class PyramidServer implements Closeable {
+
+    static final int DEFAULT_OPEN_FILES = 4096;
+
+    private static final Pattern TILE_PATH =
+        Pattern.compile("/([^/]+)_files/(\\d+)/(\\d+_\\d+\\.\\w+)");
+    private static final Pattern DESCRIPTOR_PATH = Pattern.compile("/([^/]+\\.xml)");
+
+    private final File rootDir;
+    private final LruCache<Path, ServedFile> files;
+    private final ExecutorService requestPool;
+    private final HttpServer server;
+
+    /**
+     * A file as last seen, with its contents in memory or an open channel
+     */
+    private static class ServedFile {
+        final Object fileKey;
+        final long modified;
+        final long size;
+        final String etag;
+        final byte[] data;
+        final FileChannel channel;
+        private int users = 0;
+        private boolean discarded = false;
+
+        ServedFile(BasicFileAttributes attrs, byte[] data, FileChannel channel) {
+            this.fileKey = attrs.fileKey();
+            this.modified = attrs.lastModifiedTime().toMillis();
+            this.size = attrs.size();
+            this.etag = "\"" + Integer.toHexString(fileKey != null ? fileKey.hashCode() : 0)
+                + "-" + Long.toHexString(size) + "-" + Long.toHexString(modified) + "\"";
+            this.data = data;
+            this.channel = channel;
+        }
+
+        /**
+         * Returns true if the file has not changed since it was cached
+         */
+        boolean matches(BasicFileAttributes attrs) {
+            return attrs.size() == size && attrs.lastModifiedTime().toMillis() == modified
+                && (fileKey == null || fileKey.equals(attrs.fileKey()));
+        }
+
+        /**
+         * Marks the file as in use, returning false if it has been discarded
+         */
+        synchronized boolean acquire() {
+            if (discarded)
+                return false;
+            users++;
+            return true;
+        }
+
+        synchronized void release() {
+            users--;
+            if (discarded && users == 0)
+                closeChannel();
+        }
+
+        synchronized void discard() {
+            discarded = true;
+            if (users == 0)
+                closeChannel();
+        }
+
+        private void closeChannel() {
+            if (channel == null)
+                return;
+            try {
+                channel.close();
+            } catch (IOException e) {
+                // nothing more to release
+            }
+        }
+    }
+
+    /**
+     * Creates a server, which answers requests once started
+     * @param rootDir the output directory holding the pyramids
+     * @param port the port on which to listen
+     * @param threadCount the number of threads answering requests
+     * @param maxOpenFiles the number of files kept open or in memory
+     */
+    PyramidServer(File rootDir, int port, int threadCount, int maxOpenFiles) throws IOException {
+        this.rootDir = rootDir;
+        files = new LruCache<Path, ServedFile>(maxOpenFiles) {
+            protected long sizeOf(ServedFile file) {
+                return 1;
+            }
+
+            protected void discarded(ServedFile file) {
+                file.discard();
+            }
+        };
+        requestPool = Executors.newFixedThreadPool(threadCount);
+        server = HttpServer.create(new InetSocketAddress(port), 0);
+        server.setExecutor(requestPool);
+        server.createContext("/", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                try {
+                    serve(exchange);
+                } finally {
+                    exchange.close();
+                }
+            }
+        });
+    }
+
+    /**
+     * Starts answering requests
+     */
+    void start() {
+        server.start();
+    }
+
+    /**
+     * Returns the port on which the server listens
+     */
+    int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * Stops the server and closes the cached files
+     */
+    public void close() {
+        server.stop(0);
+        requestPool.shutdown();
+        files.clear();
+    }
+
+    /**
+     * Answers a request for a descriptor or tile
+     * @param exchange the request
+     */
+    private void serve(HttpExchange exchange) throws IOException {
+        String method = exchange.getRequestMethod();
+        if (!method.equals("GET") && !method.equals("HEAD")) {
+            exchange.sendResponseHeaders(405, -1);
+            return;
+        }
+        String path = exchange.getRequestURI().getPath();
+        File file = null;
+        Matcher matcher = TILE_PATH.matcher(path);
+        if (matcher.matches())
+            file = new File(new File(new File(rootDir, matcher.group(1)), matcher.group(2)),
+                            matcher.group(3));
+        else {
+            matcher = DESCRIPTOR_PATH.matcher(path);
+            if (matcher.matches())
+                file = new File(rootDir, matcher.group(1));
+        }
+        if (file == null || matcher.group(1).startsWith(".")) {
+            exchange.sendResponseHeaders(404, -1);
+            return;
+        }
+
+        ServedFile served;
+        try {
+            served = open(file.toPath());
+        } catch (NoSuchFileException e) {
+            exchange.sendResponseHeaders(404, -1);
+            return;
+        }
+        try {
+            exchange.getResponseHeaders().set("ETag", served.etag);
+            String ifNoneMatch = exchange.getRequestHeaders().getFirst("If-None-Match");
+            if (ifNoneMatch != null && matchesETag(ifNoneMatch, served.etag)) {
+                exchange.sendResponseHeaders(304, -1);
+                return;
+            }
+            exchange.getResponseHeaders().set("Content-Type", contentType(file.getName()));
+            if (method.equals("HEAD")) {
+                // The server sends no length for HEAD, and logs a warning if
+                // given one, so the length a GET would have is set here
+                exchange.getResponseHeaders().set("Content-Length", Long.toString(served.size));
+                exchange.sendResponseHeaders(200, -1);
+                return;
+            }
+            exchange.sendResponseHeaders(200, served.size);
+            OutputStream body = exchange.getResponseBody();
+            if (served.data != null)
+                body.write(served.data);
+            else {
+                WritableByteChannel out = Channels.newChannel(body);
+                for (long pos = 0; pos < served.size; ) {
+                    long count = served.channel.transferTo(pos, served.size - pos, out);
+                    if (count <= 0) {
+                        // The file shrank since it was cached, so the length
+                        // sent cannot be met and the exchange is abandoned
+                        files.remove(file.toPath(), served);
+                        throw new IOException("File changed while being served: " + file);
+                    }
+                    pos += count;
+                }
+            }
+            body.close();
+        } finally {
+            served.release();
+        }
+    }
+
+    /**
+     * Returns the cached file for a path, opening it again if it is not
+     * cached or has changed. The file is returned in use and must be
+     * released after use.
+     * @param path the path of the file
+     */
+    private ServedFile open(Path path) throws IOException {
+        BasicFileAttributes attrs = Files.readAttributes(path, BasicFileAttributes.class);
+        ServedFile served = files.get(path);
+        if (served != null && served.matches(attrs) && served.acquire())
+            return served;
+
+        if (path.getFileName().toString().endsWith(".xml"))
+            served = new ServedFile(attrs, Files.readAllBytes(path), null);
+        else
+            served = new ServedFile(attrs, null, FileChannel.open(path, StandardOpenOption.READ));
+        served.acquire();
+        files.put(path, served);
+        return served;
+    }
+
+    /**
+     * Returns true if an If-None-Match header lists the given ETag
+     */
+    private static boolean matchesETag(String header, String etag) {
+        for (String tag : header.split(",")) {
+            tag = tag.trim();
+            if (tag.startsWith("W/"))
+                tag = tag.substring(2);
+            if (tag.equals(etag) || tag.equals("*"))
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Returns the content type for a file name
+     */
+    private static String contentType(String fileName) {
+        String extension = fileName.substring(fileName.lastIndexOf('.') + 1).toLowerCase();
+        if (extension.equals("xml"))
+            return "application/xml";
+        if (extension.equals("jpg") || extension.equals("jpeg"))
+            return "image/jpeg";
+        return "image/" + extension;
+    }
+}
@@ -0,0 +1,288 @@
+package DeepZoomConverter;
+
+/**
+ *  Deep Zoom Converter
+ *
+ *  Version: MPL 1.1/GPL 3/LGPL 3
+ *
+ *  The contents of this file are subject to the Mozilla Public License Version
+ *  1.1 (the "License"); you may not use this file except in compliance with
+ *  the License. You may obtain a copy of the License at
+ *  http: *www.mozilla.org/MPL/
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ *  for the specific language governing rights and limitations under the
+ *  License.
+ *
+ *  The Original Code is this Java package called DeepZoomConverter
+ *
+ *  The Initial Developer of the Original Code is Glenn Lawrence.
+ *  Portions created by the Initial Developer are Copyright (c) 2007-2009
+ *  the Initial Developer. All Rights Reserved.
+ *
+ *  Contributor(s):
+ *    Glenn Lawrence  <glenn.c.lawrence@gmail.com>
+ *
+ *  Alternatively, the contents of this file may be used under the terms of
+ *  either the GNU General Public License Version 3 or later (the "GPL"), or
+ *  the GNU Lesser General Public License Version 3 or later (the "LGPL"),
+ *  in which case the provisions of the GPL or the LGPL are applicable instead
+ *  of those above. If you wish to allow use of your version of this file only
+ *  under the terms of either the GPL or the LGPL, and not to allow others to
+ *  use your version of this file under the terms of the MPL, indicate your
+ *  decision by deleting the provisions above and replace them with the notice
+ *  and other provisions required by the GPL or the LGPL. If you do not delete
+ *  the provisions above, a recipient may use your version of this file under
+ *  the terms of any one of the MPL, the GPL or the LGPL.
+ */
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Out-of-core pyramid generation. Rather than holding a full image for each
+ * level, every tile below the top level is built from its four child tiles
+ * by 2x2 box reduction, recursively and in parallel on a fork/join pool.
+ * Only the source regions of the subtrees currently being worked on are
+ * read into memory, so memory use depends on the tile size rather than the
+ * image size.
+ *
+ * Each node of the tree produces the core of its tile, i.e. the tile
+ * without overlap. A tile is cut and saved once the cores of all the
+ * neighbours supplying its overlap are available, and a core is discarded
+ * once every tile needing it has been saved. With an overlap, the cores
+ * along the edges of finished subtrees therefore stay in memory until the
+ * subtrees beside them are done, which at each level is a few rows and
+ * columns of tiles rather than the whole level.
+ *
+ * Reading only regions of the source needs a format whose regions can be
+ * decoded on their own, such as BMP or striped or tiled TIFF. Sequential
+ * formats such as JPEG and PNG would be decoded again from the start for
+ * each region, so ImageReaderSource decodes them in full and the whole
+ * top level is then held in memory.
+ */
+class QuadtreeTiler {
+
+    private final DeepZoomConverter converter;
+    private final LevelStats levelStats;
+    private final RegionSource source;
+    private final TileStore store;
+    private final int tileSize;
+    private final int tileOverlap;
+    private final boolean vectorKernels;
+    private final int nLevels;
+    private final int[] levelWidth;
+    private final int[] levelHeight;
+    private final LevelAssembler[] assemblers;
+
+    /**
+     * @param converter the converter saving the tiles, whose overlap must
+     *        be no larger than its tile size
+     * @param levelStats the statistics for the image
+     * @param source the source image
+     * @param store the store receiving the tiles
+     * @param nLevels the index of the top (full resolution) level
+     */
+    QuadtreeTiler(DeepZoomConverter converter, LevelStats levelStats, RegionSource source,
+                  TileStore store, int nLevels) {
+        this.converter = converter;
+        this.levelStats = levelStats;
+        this.source = source;
+        this.store = store;
+        this.tileSize = converter.getConfig().getTileSize();
+        this.tileOverlap = converter.getConfig().getTileOverlap();
+        this.vectorKernels =
+            converter.getConfig().getResampleMode() == ConverterConfig.ResampleMode.VECTOR;
+        assert(tileOverlap <= tileSize);
+        this.nLevels = nLevels;
+        levelWidth = new int[nLevels + 1];
+        levelHeight = new int[nLevels + 1];
+        assemblers = new LevelAssembler[nLevels + 1];
+        int w = source.getWidth();
+        int h = source.getHeight();
+        for (int level = nLevels; level >= 0; level--) {
+            levelWidth[level] = w;
+            levelHeight[level] = h;
+            assemblers[level] = new LevelAssembler(level);
+            w = (w + 1) / 2;
+            h = (h + 1) / 2;
+        }
+    }
+
+    /**
+     * Generates and saves every tile of the pyramid. Every level must
+     * already have been begun in the store.
+     * @param pool the pool on which the tree is processed
+     */
+    void run(ForkJoinPool pool) throws IOException {
+        try {
+            pool.invoke(new Node(0, 0, 0));
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Returns the number of tile columns at the given level
+     */
+    private int colCount(int level) {
+        return (levelWidth[level] + tileSize - 1) / tileSize;
+    }
+
+    /**
+     * Returns the number of tile rows at the given level
+     */
+    private int rowCount(int level) {
+        return (levelHeight[level] + tileSize - 1) / tileSize;
+    }
+
+    /**
+     * Computes the core of one tile from its children, or from the source
+     * at the top level.
+     */
+    private class Node extends RecursiveTask<BufferedImage> {
+        private static final long serialVersionUID = 1L;
+
+        private final int level;
+        private final int col;
+        private final int row;
+
+        Node(int level, int col, int row) {
+            this.level = level;
+            this.col = col;
+            this.row = row;
+        }
+
+        protected BufferedImage compute() {
+            BufferedImage core;
+            try {
+                if (level == nLevels)
+                    core = readCore();
+                else
+                    core = reduceChildren();
+                assemblers[level].add(col, row, core);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return core;
+        }
+
+        private BufferedImage readCore() throws IOException {
+            int x = col * tileSize;
+            int y = row * tileSize;
+            int w = Math.min(tileSize, levelWidth[level] - x);
+            int h = Math.min(tileSize, levelHeight[level] - y);
+            return BoxReducer.toReducible(source.read(new Rectangle(x, y, w, h)));
+        }
+
+        private BufferedImage reduceChildren() {
+            int childLevel = level + 1;
+            int nCols = colCount(childLevel);
+            int nRows = rowCount(childLevel);
+            Node[] children = new Node[4];
+            int n = 0;
+            for (int dy = 0; dy < 2; dy++) {
+                for (int dx = 0; dx < 2; dx++) {
+                    if (2 * col + dx < nCols && 2 * row + dy < nRows)
+                        children[n++] = new Node(childLevel, 2 * col + dx, 2 * row + dy);
+                }
+            }
+            for (int i = n - 1; i > 0; i--)
+                children[i].fork();
+            BufferedImage first = children[0].compute();
+            BufferedImage block = null;
+            int x0 = 2 * col * tileSize;
+            int y0 = 2 * row * tileSize;
+            for (int i = 0; i < n; i++) {
+                BufferedImage child = (i == 0) ? first : children[i].join();
+                if (block == null) {
+                    int w = Math.min(2 * tileSize, levelWidth[childLevel] - x0);
+                    int h = Math.min(2 * tileSize, levelHeight[childLevel] - y0);
+                    block = ImageUtil.createCompatible(child, w, h);
+                }
+                ImageUtil.copyInto(child, children[i].col * tileSize - x0,
+                                   children[i].row * tileSize - y0, block);
+            }
+            return BoxReducer.reduce(block, vectorKernels);
+        }
+    }
+
+    /**
+     * Collects the tile cores of one level, saving each tile as soon as the
+     * cores of the neighbours that supply its overlap have arrived.
+     */
+    private class LevelAssembler {
+        private final int level;
+        private final int nCols;
+        private final int nRows;
+        private final int radius;
+        private final ConcurrentHashMap<Integer, BufferedImage> cores;
+        private final AtomicIntegerArray arrived;  // per tile, neighbour cores present
+        private final AtomicIntegerArray needed;   // per core, tiles not yet saved
+
+        LevelAssembler(int level) {
+            this.level = level;
+            this.nCols = colCount(level);
+            this.nRows = rowCount(level);
+            this.radius = (tileOverlap > 0) ? 1 : 0;
+            this.cores = new ConcurrentHashMap<Integer, BufferedImage>();
+            this.arrived = new AtomicIntegerArray(nCols * nRows);
+            this.needed = new AtomicIntegerArray(nCols * nRows);
+            for (int row = 0; row < nRows; row++) {
+                for (int col = 0; col < nCols; col++)
+                    needed.set(row * nCols + col, neighbourCount(col, row));
+            }
+        }
+
+        private int neighbourCount(int col, int row) {
+            int cols = Math.min(col + radius, nCols - 1) - Math.max(col - radius, 0) + 1;
+            int rows = Math.min(row + radius, nRows - 1) - Math.max(row - radius, 0) + 1;
+            return cols * rows;
+        }
+
+        void add(int col, int row, BufferedImage core) throws IOException {
+            cores.put(row * nCols + col, core);
+            for (int r = Math.max(row - radius, 0); r <= Math.min(row + radius, nRows - 1); r++) {
+                for (int c = Math.max(col - radius, 0); c <= Math.min(col + radius, nCols - 1); c++) {
+                    if (arrived.incrementAndGet(r * nCols + c) == neighbourCount(c, r))
+                        saveTile(c, r);
+                }
+            }
+        }
+
+        private void saveTile(int col, int row) throws IOException {
+            // Same geometry as DeepZoomConverter.getTile
+            int x = col * tileSize - (col == 0 ? 0 : tileOverlap);
+            int y = row * tileSize - (row == 0 ? 0 : tileOverlap);
+            int w = Math.min(tileSize + (col == 0 ? 1 : 2) * tileOverlap, levelWidth[level] - x);
+            int h = Math.min(tileSize + (row == 0 ? 1 : 2) * tileOverlap, levelHeight[level] - y);
+
+            if (!store.hasTile(level, col, row)) {
+                BufferedImage tile = null;
+                for (int r = Math.max(row - radius, 0); r <= Math.min(row + radius, nRows - 1); r++) {
+                    for (int c = Math.max(col - radius, 0); c <= Math.min(col + radius, nCols - 1); c++) {
+                        BufferedImage core = cores.get(r * nCols + c);
+                        if (tile == null)
+                            tile = converter.getTileExtractor().tileImage(core, w, h);
+                        ImageUtil.copyInto(core, c * tileSize - x, r * tileSize - y, tile);
+                    }
+                }
+                converter.saveImage(tile, level, col, row, store, levelStats);
+            }
+
+            for (int r = Math.max(row - radius, 0); r <= Math.min(row + radius, nRows - 1); r++) {
+                for (int c = Math.max(col - radius, 0); c <= Math.min(col + radius, nCols - 1); c++) {
+                    if (needed.decrementAndGet(r * nCols + c) == 0)
+                        cores.remove(r * nCols + c);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,274 @@
+package DeepZoomConverter;
+
+/**
+ *  Deep Zoom Converter
+ *
+ *  Version: MPL 1.1/GPL 3/LGPL 3
+ *
+ *  The contents of this file are subject to the Mozilla Public License Version
+ *  1.1 (the "License"); you may not use this file except in compliance with
+ *  the License. You may obtain a copy of the License at
+ *  http: *www.mozilla.org/MPL/
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ *  for the specific language governing rights and limitations under the
+ *  License.
+ *
+ *  The Original Code is this Java package called DeepZoomConverter
+ *
+ *  The Initial Developer of the Original Code is Glenn Lawrence.
+ *  Portions created by the Initial Developer are Copyright (c) 2007-2009
+ *  the Initial Developer. All Rights Reserved.
+ *
+ *  Contributor(s):
+ *    Glenn Lawrence  <glenn.c.lawrence@gmail.com>
+ *
+ *  Alternatively, the contents of this file may be used under the terms of
+ *  either the GNU General Public License Version 3 or later (the "GPL"), or
+ *  the GNU Lesser General Public License Version 3 or later (the "LGPL"),
+ *  in which case the provisions of the GPL or the LGPL are applicable instead
+ *  of those above. If you wish to allow use of your version of this file only
+ *  under the terms of either the GPL or the LGPL, and not to allow others to
+ *  use your version of this file under the terms of the MPL, indicate your
+ *  decision by deleting the provisions above and replace them with the notice
+ *  and other provisions required by the GPL or the LGPL. If you do not delete
+ *  the provisions above, a recipient may use your version of this file under
+ *  the terms of any one of the MPL, the GPL or the LGPL.
+ */
+
+import java.awt.image.BufferedImage;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.HashMap;
+
+/**
+ * Stores tiles in the directory layout while recording each completed tile
+ * in a journal beside the descriptor, so that an interrupted conversion can
+ * be resumed.
+ *
+ * A tile is only recorded once its file has been written and closed, and
+ * the journal is flushed after every record, so it survives the process
+ * being killed. When a conversion with the same settings is resumed, tiles
+ * whose file still has the recorded length are not produced again. Once
+ * the store is finished the settings line is kept in a settings file and
+ * the journal is deleted, so a later run can tell whether the finished
+ * output was produced with its own settings.
+ *
+ * The journal is a text file: a line identifying the settings, then
+ * "t level col row length" for each tile.
+ */
+class ResumableTileStore implements TileStore {
+
+    static final String EXTENSION = "journal";
+    static final String SETTINGS_EXTENSION = "settings";
+
+    private final DirectoryTileStore tiles;
+    private final File journal;
+    private final File settingsFile;
+    private final String settings;
+    private final PrintStream out;
+    private final HashMap<Long, Integer> lengths = new HashMap<Long, Integer>();
+    private final int resumedTiles;
+
+    /**
+     * Opens the store, resuming from the journal if it exists
+     * @param imgDir the image directory, which must exist
+     * @param tileFormat the informal name of the tile format
+     * @param journal the journal file, which if it exists must have been
+     *        written with the same settings
+     * @param settingsFile the file to which the settings line is saved once
+     *        the store is finished
+     * @param settings the line identifying the settings, from settingsLine
+     */
+    ResumableTileStore(File imgDir, String tileFormat, File journal, File settingsFile,
+                       String settings) throws IOException {
+        this.tiles = new DirectoryTileStore(imgDir, tileFormat);
+        this.journal = journal;
+        this.settingsFile = settingsFile;
+        this.settings = settings;
+
+        boolean resuming = journal.exists();
+        if (resuming)
+            load();
+        resumedTiles = lengths.size();
+        try {
+            out = new PrintStream(new FileOutputStream(journal, true));
+        } catch (IOException e) {
+            throw new IOException("Unable to open journal file: " + journal);
+        }
+        if (!resuming) {
+            out.println(settings);
+            flush();
+        }
+    }
+
+    /**
+     * Returns the line identifying the settings a journal was written with,
+     * which covers every setting that affects the bytes of the tiles
+     * @param config the converter settings
+     * @param width the width of the image
+     * @param height the height of the image
+     */
+    static String settingsLine(ConverterConfig config, int width, int height) {
+        return "DeepZoomConverter journal 2 size=" + width + "x" + height
+               + " tileSize=" + config.getTileSize() + " overlap=" + config.getTileOverlap()
+               + " format=" + config.getTileFormat() + " quality=" + config.getTileQuality()
+               + " resample=" + config.getResampleMode()
+               + " subsampling=" + config.getChromaSubsampling()
+               + " progressive=" + config.getProgressive()
+               + " optimize=" + config.getOptimizeHuffman();
+    }
+
+    /**
+     * Returns true if the journal exists and was written with the given settings
+     * @param journal the journal file
+     * @param settings the line identifying the settings, from settingsLine
+     */
+    static boolean canResume(File journal, String settings) throws IOException {
+        return startsWith(journal, settings);
+    }
+
+    /**
+     * Returns true if the settings file of a finished store exists and holds
+     * the given settings
+     * @param settingsFile the settings file
+     * @param settings the line identifying the settings, from settingsLine
+     */
+    static boolean isFinishedWith(File settingsFile, String settings) throws IOException {
+        return startsWith(settingsFile, settings);
+    }
+
+    /**
+     * Returns true if the file exists and its first line is the given one
+     */
+    private static boolean startsWith(File file, String line) throws IOException {
+        if (!file.exists())
+            return false;
+        BufferedReader in = new BufferedReader(new FileReader(file));
+        try {
+            return line.equals(in.readLine());
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Reads the tiles recorded in the journal. A line cut short by the
+     * process being killed is ignored.
+     */
+    private void load() throws IOException {
+        BufferedReader in = new BufferedReader(new FileReader(journal));
+        try {
+            in.readLine();
+            String line;
+            while ((line = in.readLine()) != null) {
+                String[] fields = line.split(" ");
+                if (fields.length != 5 || !fields[0].equals("t"))
+                    continue;
+                try {
+                    int level = Integer.parseInt(fields[1]);
+                    int col = Integer.parseInt(fields[2]);
+                    int row = Integer.parseInt(fields[3]);
+                    int length = Integer.parseInt(fields[4]);
+                    lengths.put(key(level, col, row), length);
+                } catch (NumberFormatException e) {
+                    // the line was not completely written
+                }
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Returns the number of tiles recorded in the journal when the store
+     * was opened
+     */
+    int getResumedTileCount() {
+        return resumedTiles;
+    }
+
+    /**
+     * Returns the file holding the given tile
+     */
+    File tileFile(int level, int col, int row) {
+        return tiles.tileFile(level, col, row);
+    }
+
+    private static long key(int level, int col, int row) {
+        return ((long)level << 56) | ((long)col << 28) | row;
+    }
+
+    public boolean hasTile(int level, int col, int row) {
+        Integer length;
+        synchronized (this) {
+            length = lengths.get(key(level, col, row));
+        }
+        return length != null && tiles.tileFile(level, col, row).length() == length;
+    }
+
+    public void beginLevel(int level) throws IOException {
+        if (!tiles.tileFile(level, 0, 0).getParentFile().isDirectory())
+            tiles.beginLevel(level);
+    }
+
+    public void write(int level, int col, int row, TileBuffer tile) throws IOException {
+        tiles.write(level, col, row, tile);
+        record(level, col, row, tile.getLength());
+    }
+
+    public boolean writeUniform(int level, int col, int row, BufferedImage tile) {
+        return false;
+    }
+
+    public void writeCopy(int level, int col, int row, int fromLevel, int fromCol, int fromRow)
+            throws IOException {
+        tiles.writeCopy(level, col, row, fromLevel, fromCol, fromRow);
+        record(level, col, row, (int)tiles.tileFile(level, col, row).length());
+    }
+
+    /**
+     * Records a tile whose file has been written in the journal
+     */
+    private synchronized void record(int level, int col, int row, int length)
+            throws IOException {
+        out.println("t " + level + " " + col + " " + row + " " + length);
+        lengths.put(key(level, col, row), length);
+        flush();
+    }
+
+    private void flush() throws IOException {
+        out.flush();
+        if (out.checkError())
+            throw new IOException("Unable to write to journal file: " + journal);
+    }
+
+    /**
+     * Saves the settings line and deletes the journal, as every tile has
+     * been written
+     */
+    public synchronized void finish() throws IOException {
+        out.close();
+        PrintStream settingsOut;
+        try {
+            settingsOut = new PrintStream(new FileOutputStream(settingsFile));
+        } catch (IOException e) {
+            throw new IOException("Unable to create settings file: " + settingsFile);
+        }
+        settingsOut.println(settings);
+        settingsOut.close();
+        if (settingsOut.checkError())
+            throw new IOException("Unable to write to settings file: " + settingsFile);
+        if (!journal.delete())
+            throw new IOException("Failed to delete file: " + journal);
+    }
+
+    public synchronized void close() {
+        out.close();
+    }
+}
@@ -0,0 +1,288 @@
+package DeepZoomConverter;
+
+/**
+ *  Deep Zoom Converter
+ *
+ *  Version: MPL 1.1/GPL 3/LGPL 3
+ *
+ *  The contents of this file are subject to the Mozilla Public License Version
+ *  1.1 (the "License"); you may not use this file except in compliance with
+ *  the License. You may obtain a copy of the License at
+ *  http: *www.mozilla.org/MPL/
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ *  for the specific language governing rights and limitations under the
+ *  License.
+ *
+ *  The Original Code is this Java package called DeepZoomConverter
+ *
+ *  The Initial Developer of the Original Code is Glenn Lawrence.
+ *  Portions created by the Initial Developer are Copyright (c) 2007-2009
+ *  the Initial Developer. All Rights Reserved.
+ *
+ *  Contributor(s):
+ *    Glenn Lawrence  <glenn.c.lawrence@gmail.com>
+ *
+ *  Alternatively, the contents of this file may be used under the terms of
+ *  either the GNU General Public License Version 3 or later (the "GPL"), or
+ *  the GNU Lesser General Public License Version 3 or later (the "LGPL"),
+ *  in which case the provisions of the GPL or the LGPL are applicable instead
+ *  of those above. If you wish to allow use of your version of this file only
+ *  under the terms of either the GPL or the LGPL, and not to allow others to
+ *  use your version of this file under the terms of the MPL, indicate your
+ *  decision by deleting the provisions above and replace them with the notice
+ *  and other provisions required by the GPL or the LGPL. If you do not delete
+ *  the provisions above, a recipient may use your version of this file under
+ *  the terms of any one of the MPL, the GPL or the LGPL.
+ */
+
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Vector;
+import java.util.concurrent.Future;
+
+/**
+ * Accepts the rows of an image in order and produces its whole pyramid in
+ * a single pass, obtained from DeepZoomConverter.beginImage.
+ *
+ * Each level has a line buffer holding the rows of its current tile row,
+ * including the overlap. Whenever a tile row is complete its tiles are
+ * handed to the converter's tile pool, and each pair of rows is reduced
+ * with the box filter straight into the line buffer of the level below,
+ * which cuts its own tiles as it fills in turn. Memory use is therefore
+ * proportional to the width times the tile size, summed over the levels,
+ * and the output is the same as for the image in stream mode.
+ *
+ * A sink is not thread safe; rows must be pushed from one thread at a time.
+ * A sink that is not finished, e.g. because pushing rows failed, must be
+ * closed to release its output.
+ */
+public class ScanlineSink implements Closeable {
+
+    private final DeepZoomConverter converter;
+    private final BufferedImage template;
+    private final int width;
+    private final int height;
+    private final int tileSize;
+    private final int tileOverlap;
+    private final TileStore store;
+    private final String name;
+    private final LevelStats levelStats;
+    private final LevelBuffer top;
+    private boolean finished = false;
+
+    /**
+     * The line buffer of one level. The buffer holds the level's rows from
+     * bufferY onwards, of which the first filled rows have arrived.
+     */
+    private class LevelBuffer {
+        final int level;
+        final int levelWidth;
+        final int levelHeight;
+        final int nCols;
+        final int nRows;
+        final LevelBuffer next;
+        final int capacity;
+        BufferedImage buffer;
+        int bufferY = 0;
+        int filled = 0;
+        int tileRow = 0;        // the next tile row to be cut
+        int nextRow = 0;        // the next row of the level below to be reduced
+        Vector<Future<Void>> pending = new Vector<Future<Void>>();
+
+        LevelBuffer(int level, int levelWidth, int levelHeight) throws IOException {
+            this.level = level;
+            this.levelWidth = levelWidth;
+            this.levelHeight = levelHeight;
+            nCols = (levelWidth + tileSize - 1) / tileSize;
+            nRows = (levelHeight + tileSize - 1) / tileSize;
+            store.beginLevel(level);
+            // A tile row with its overlap, and a row left over from reducing
+            capacity = Math.min(tileSize + 2 * tileOverlap + 2, levelHeight);
+            buffer = ImageUtil.createCompatible(template, levelWidth, capacity);
+            next = (level > 0) ? new LevelBuffer(level - 1, (levelWidth + 1) / 2,
+                                                 (levelHeight + 1) / 2)
+                               : null;
+        }
+
+        int free() {
+            return capacity - filled;
+        }
+
+        /**
+         * Reduces whatever rows of the level below can now be computed and
+         * cuts any tile rows that are complete
+         */
+        void rowsAdded() throws IOException {
+            int available = bufferY + filled;
+            if (next != null) {
+                int toRow = nextRow;
+                while (toRow < next.levelHeight
+                       && Math.min(2 * toRow + 1, levelHeight - 1) < available)
+                    toRow++;
+                while (nextRow < toRow) {
+                    int rows = Math.min(toRow - nextRow, next.free());
+                    if (rows == 0)
+                        throw new IllegalStateException("Level buffer full: " + next.level);
+                    // Rows are addressed relative to the two buffers
+                    int dstRow = nextRow - next.bufferY;
+                    converter.reduceRows(buffer, bufferY - 2 * next.bufferY,
+                                         levelHeight - 2 * next.bufferY,
+                                         next.buffer, dstRow, dstRow + rows);
+                    nextRow += rows;
+                    next.filled += rows;
+                    next.rowsAdded();
+                }
+            }
+
+            while (tileRow < nRows
+                   && available >= Math.min((tileRow + 1) * tileSize + tileOverlap, levelHeight)) {
+                // Hold at most two buffers: wait for the previous tile row
+                DeepZoomConverter.awaitAll(pending);
+                pending = converter.submitTiles(buffer, bufferY, levelHeight, level, store, nCols,
+                                                tileRow, tileRow + 1, levelStats);
+                tileRow++;
+                // Keep the overlap of the next tile row and any row not yet reduced
+                int keepFrom = tileRow * tileSize - tileOverlap;
+                if (next != null)
+                    keepFrom = Math.min(keepFrom, 2 * nextRow);
+                keepFrom = Math.max(Math.min(keepFrom, available), bufferY);
+                BufferedImage old = buffer;
+                buffer = ImageUtil.createCompatible(template, levelWidth, capacity);
+                if (available > keepFrom)
+                    ImageUtil.copyInto(old, 0, bufferY - keepFrom, buffer);
+                filled = available - keepFrom;
+                bufferY = keepFrom;
+            }
+        }
+
+        /**
+         * Waits for the tiles of this level and the levels below
+         */
+        void awaitTiles() throws IOException {
+            try {
+                DeepZoomConverter.awaitAll(pending);
+            } finally {
+                if (next != null)
+                    next.awaitTiles();
+            }
+        }
+    }
+
+    ScanlineSink(DeepZoomConverter converter, BufferedImage template, int width, int height,
+                 String name) throws IOException {
+        this.converter = converter;
+        this.template = template;
+        this.width = width;
+        this.height = height;
+        ConverterConfig config = converter.getConfig();
+        tileSize = config.getTileSize();
+        tileOverlap = config.getTileOverlap();
+        int nLevels = (int)Math.ceil(Math.log(Math.max(width, height)) / Math.log(2));
+        levelStats = new LevelStats(nLevels);
+        this.name = name;
+        store = converter.openTileStore(name, width, height);
+        try {
+            top = new LevelBuffer(nLevels, width, height);
+        } catch (IOException e) {
+            store.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Returns the number of rows pushed so far
+     */
+    public int getRowCount() {
+        return top.bufferY + top.filled;
+    }
+
+    /**
+     * Pushes the next rows of the image. Rows in a different layout from
+     * the sink's image type are converted.
+     * @param rows an image of the image's width holding the next rows
+     */
+    public void pushRows(BufferedImage rows) throws IOException {
+        pushRows(rows, 0, rows.getHeight());
+    }
+
+    /**
+     * Pushes the next rows of the image, taken from part of an image
+     * @param rows an image of the image's width holding the next rows
+     * @param fromRow the first row of the image to push
+     * @param count the number of rows to push
+     */
+    public void pushRows(BufferedImage rows, int fromRow, int count) throws IOException {
+        if (finished)
+            throw new IllegalStateException("Image already finished");
+        if (rows.getWidth() != width)
+            throw new IllegalArgumentException("Row width " + rows.getWidth()
+                                               + " doesn't match image width " + width);
+        if (getRowCount() + count > height)
+            throw new IllegalArgumentException("More rows pushed than the image height " + height);
+        boolean sameLayout = rows.getType() == template.getType()
+            && rows.getType() != BufferedImage.TYPE_CUSTOM;
+        while (count > 0) {
+            int n = Math.min(count, top.free());
+            if (sameLayout)
+                ImageUtil.copyInto(rows.getSubimage(0, fromRow, width, n), 0, top.filled,
+                                   top.buffer);
+            else {
+                Graphics2D g = top.buffer.createGraphics();
+                g.drawImage(rows, 0, top.filled, width, top.filled + n,
+                            0, fromRow, width, fromRow + n, null);
+                g.dispose();
+            }
+            top.filled += n;
+            fromRow += n;
+            count -= n;
+            top.rowsAdded();
+        }
+    }
+
+    /**
+     * Waits for the remaining tiles and writes the descriptor once every
+     * row has been pushed. The output is closed whether or not this
+     * succeeds; an incomplete image is abandoned as by close.
+     */
+    public void finish() throws IOException {
+        if (finished)
+            return;
+        if (getRowCount() != height) {
+            int rowCount = getRowCount();
+            close();
+            throw new IOException("Image incomplete: " + rowCount + " of " + height
+                                  + " rows pushed");
+        }
+        finished = true;
+        try {
+            top.awaitTiles();
+            converter.finishImage(store, name, width, height);
+        } finally {
+            store.close();
+        }
+        if (converter.getConfig().getVerboseMode() || converter.getConfig().getReportSavings())
+            levelStats.print(converter.getConfig().getReportSavings());
+    }
+
+    /**
+     * Abandons the image unless it has been finished: waits for the tiles
+     * already handed to the tile pool, then closes the output without
+     * completing it or writing the descriptor
+     */
+    public void close() throws IOException {
+        if (finished)
+            return;
+        finished = true;
+        try {
+            top.awaitTiles();
+        } catch (IOException e) {
+            // the image is abandoned, so a failed tile no longer matters
+        } finally {
+            store.close();
+        }
+    }
+}
@@ -0,0 +1,261 @@
+package DeepZoomConverter;
+
+/**
+ *  Deep Zoom Converter
+ *
+ *  Version: MPL 1.1/GPL 3/LGPL 3
+ *
+ *  The contents of this file are subject to the Mozilla Public License Version
+ *  1.1 (the "License"); you may not use this file except in compliance with
+ *  the License. You may obtain a copy of the License at
+ *  http: *www.mozilla.org/MPL/
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ *  for the specific language governing rights and limitations under the
+ *  License.
+ *
+ *  The Original Code is this Java package called DeepZoomConverter
+ *
+ *  The Initial Developer of the Original Code is Glenn Lawrence.
+ *  Portions created by the Initial Developer are Copyright (c) 2007-2009
+ *  the Initial Developer. All Rights Reserved.
+ *
+ *  Contributor(s):
+ *    Glenn Lawrence  <glenn.c.lawrence@gmail.com>
+ *
+ *  Alternatively, the contents of this file may be used under the terms of
+ *  either the GNU General Public License Version 3 or later (the "GPL"), or
+ *  the GNU Lesser General Public License Version 3 or later (the "LGPL"),
+ *  in which case the provisions of the GPL or the LGPL are applicable instead
+ *  of those above. If you wish to allow use of your version of this file only
+ *  under the terms of either the GPL or the LGPL, and not to allow others to
+ *  use your version of this file under the terms of the MPL, indicate your
+ *  decision by deleting the provisions above and replace them with the notice
+ *  and other provisions required by the GPL or the LGPL. If you do not delete
+ *  the provisions above, a recipient may use your version of this file under
+ *  the terms of any one of the MPL, the GPL or the LGPL.
+ */
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Vector;
+
+/**
+ * Builds the output of one image in a hidden staging directory beside its
+ * final place, so that the previous output stays intact and readable until
+ * the new output is complete. Publishing renames the new output files into
+ * place and the old ones aside, each in a single atomic rename, and leaves
+ * the renamed-aside output to be deleted in the background.
+ */
+class StagedTileStore implements TileStore {
+
+    // The suffixes of the tile outputs an image may have, the descriptor aside
+    private static final String[] TILE_OUTPUTS = {
+        "", "." + PackedTileStore.EXTENSION, "." + ArchiveTileStore.EXTENSION,
+        "." + UniformTileStore.EXTENSION, "." + ResumableTileStore.EXTENSION,
+        "." + ResumableTileStore.SETTINGS_EXTENSION, "." + HashingTileStore.EXTENSION
+    };
+
+    private final TileStore store;
+    private final File outputDir;
+    private final File stagingDir;
+    private final String name;
+    private final TreeDeleter deleter;
+    private File trashDir = null;
+    private boolean finished = false;
+    private boolean published = false;
+
+    /**
+     * @param store the store writing the tiles into the staging directory
+     * @param outputDir the directory in which the output is published
+     * @param stagingDir the staging directory
+     * @param name the name of the output files
+     * @param deleter deletes the replaced output and the staging directory
+     */
+    StagedTileStore(TileStore store, File outputDir, File stagingDir, String name,
+                    TreeDeleter deleter) {
+        this.store = store;
+        this.outputDir = outputDir;
+        this.stagingDir = stagingDir;
+        this.name = name;
+        this.deleter = deleter;
+    }
+
+    /**
+     * Creates an empty staging directory for an image
+     * @param outputDir the directory in which the output is published
+     * @param name the name of the output files
+     */
+    static File createStagingDir(File outputDir, String name) throws IOException {
+        return Files.createTempDirectory(outputDir.toPath(), "." + name + ".new").toFile();
+    }
+
+    /**
+     * Deletes in the background any staging directories, and directories
+     * of output renamed aside, left for an image by interrupted runs
+     * @param outputDir the directory in which the output is published
+     * @param name the name of the output files
+     * @param deleter deletes the directories
+     */
+    static void deleteLeftovers(File outputDir, String name, TreeDeleter deleter) {
+        File[] files = outputDir.listFiles();
+        if (files == null)
+            return;
+        for (File file : files) {
+            String fileName = file.getName();
+            if (file.isDirectory() && (isTempDir(fileName, "." + name + ".new")
+                                       || isTempDir(fileName, "." + name + ".old")))
+                deleter.delete(file);
+        }
+    }
+
+    /**
+     * Returns true if the name is that of a temporary directory created
+     * with the given prefix, i.e. the prefix followed by digits
+     */
+    private static boolean isTempDir(String fileName, String prefix) {
+        if (!fileName.startsWith(prefix) || fileName.length() == prefix.length())
+            return false;
+        for (int i = prefix.length(); i < fileName.length(); i++) {
+            if (!Character.isDigit(fileName.charAt(i)))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Returns an output file or directory of an image, if any exists
+     * @param outputDir the directory in which the output is published
+     * @param name the name of the output files
+     * @return the first existing output, or null if there is none
+     */
+    static File findOutput(File outputDir, String name) {
+        File descriptor = new File(outputDir, name + ".xml");
+        if (descriptor.exists())
+            return descriptor;
+        for (String suffix : TILE_OUTPUTS) {
+            File file = new File(outputDir, name + suffix);
+            if (file.exists())
+                return file;
+        }
+        return null;
+    }
+
+    /**
+     * Returns the directory in which the output is built
+     */
+    File getStagingDir() {
+        return stagingDir;
+    }
+
+    public boolean hasTile(int level, int col, int row) {
+        return store.hasTile(level, col, row);
+    }
+
+    public void beginLevel(int level) throws IOException {
+        store.beginLevel(level);
+    }
+
+    public void write(int level, int col, int row, TileBuffer tile) throws IOException {
+        store.write(level, col, row, tile);
+    }
+
+    public boolean writeUniform(int level, int col, int row, BufferedImage tile)
+            throws IOException {
+        return store.writeUniform(level, col, row, tile);
+    }
+
+    public void writeCopy(int level, int col, int row, int fromLevel, int fromCol, int fromRow)
+            throws IOException {
+        store.writeCopy(level, col, row, fromLevel, fromCol, fromRow);
+    }
+
+    /**
+     * Completes and closes the staged tile output, ready to be published
+     */
+    public void finish() throws IOException {
+        store.finish();
+        finished = true;
+        store.close();
+    }
+
+    /**
+     * Moves the staged output into place once the descriptor has been
+     * written to the staging directory. The tile outputs are moved first
+     * and the descriptor last. A replaced file is overwritten by the rename;
+     * a replaced directory, and any output of a different layout, is first
+     * renamed into a hidden directory that is then deleted in the background.
+     *
+     * Publishing is not atomic as a whole. When an image directory is
+     * replaced, the old descriptor briefly refers to a missing directory,
+     * between the old directory being renamed aside and the new one being
+     * renamed into place. Until the descriptor itself is renamed, the old
+     * descriptor is then served with the new tiles, which only matches if
+     * the image's size and tile settings are unchanged.
+     */
+    void publish() throws IOException {
+        if (!finished)
+            throw new IllegalStateException("Tiles not finished: " + stagingDir);
+        Vector<File> stale = new Vector<File>();
+        for (String suffix : TILE_OUTPUTS) {
+            File staged = new File(stagingDir, name + suffix);
+            File target = new File(outputDir, name + suffix);
+            if (staged.exists()) {
+                if (target.isDirectory())
+                    moveAside(target);
+                move(staged, target);
+            } else if (target.exists())
+                stale.add(target);
+        }
+        move(new File(stagingDir, name + ".xml"), new File(outputDir, name + ".xml"));
+        for (File file : stale)
+            moveAside(file);
+        published = true;
+        deleter.delete(stagingDir);
+        if (trashDir != null)
+            deleter.delete(trashDir);
+    }
+
+    /**
+     * Renames an old output into the directory of output to be deleted
+     * @param file the old output file or directory
+     */
+    private void moveAside(File file) throws IOException {
+        if (trashDir == null)
+            trashDir = Files.createTempDirectory(outputDir.toPath(), "." + name + ".old").toFile();
+        move(file, new File(trashDir, file.getName()));
+    }
+
+    /**
+     * Renames a file or directory in a single step
+     * @param from the file or directory
+     * @param to its new path, which must not be a directory
+     */
+    private static void move(File from, File to) throws IOException {
+        try {
+            Files.move(from.toPath(), to.toPath(), StandardCopyOption.ATOMIC_MOVE,
+                       StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            throw new IOException("Unable to rename " + from + " to: " + to);
+        }
+    }
+
+    /**
+     * Closes the staged tile output if unfinished and, unless the output
+     * was published, deletes the staging directory in the background. Old
+     * output renamed aside by a failed publish is kept.
+     */
+    public void close() throws IOException {
+        try {
+            if (!finished)
+                store.close();
+        } finally {
+            if (!published)
+                deleter.delete(stagingDir);
+        }
+    }
+}
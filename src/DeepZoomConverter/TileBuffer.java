@@ -0,0 +1,164 @@
+package DeepZoomConverter;
+
+/**
+ *  Deep Zoom Converter
+ *
+ *  Version: MPL 1.1/GPL 3/LGPL 3
+ *
+ *  The contents of this file are subject to the Mozilla Public License Version
+ *  1.1 (the "License"); you may not use this file except in compliance with
+ *  the License. You may obtain a copy of the License at
+ *  http: *www.mozilla.org/MPL/
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ *  for the specific language governing rights and limitations under the
+ *  License.
+ *
+ *  The Original Code is this Java package called DeepZoomConverter
+ *
+ *  The Initial Developer of the Original Code is Glenn Lawrence.
+ *  Portions created by the Initial Developer are Copyright (c) 2007-2009
+ *  the Initial Developer. All Rights Reserved.
+ *
+ *  Contributor(s):
+ *    Glenn Lawrence  <glenn.c.lawrence@gmail.com>
+ *
+ *  Alternatively, the contents of this file may be used under the terms of
+ *  either the GNU General Public License Version 3 or later (the "GPL"), or
+ *  the GNU Lesser General Public License Version 3 or later (the "LGPL"),
+ *  in which case the provisions of the GPL or the LGPL are applicable instead
+ *  of those above. If you wish to allow use of your version of this file only
+ *  under the terms of either the GPL or the LGPL, and not to allow others to
+ *  use your version of this file under the terms of the MPL, indicate your
+ *  decision by deleting the provisions above and replace them with the notice
+ *  and other provisions required by the GPL or the LGPL. If you do not delete
+ *  the provisions above, a recipient may use your version of this file under
+ *  the terms of any one of the MPL, the GPL or the LGPL.
+ */
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import javax.imageio.stream.ImageOutputStreamImpl;
+
+/**
+ * A growable in-memory image output stream that can be reused for one
+ * encoded tile after another without reallocating its buffer
+ */
+class TileBuffer extends ImageOutputStreamImpl {
+
+    private byte[] data = new byte[64 * 1024];
+    private int length = 0;
+
+    /**
+     * Empties the buffer so that it can be written again
+     */
+    void clear() {
+        length = 0;
+        streamPos = 0;
+        bitOffset = 0;
+        flushedPos = 0;
+    }
+
+    /**
+     * Returns the array holding the encoded bytes, which is only valid
+     * until the buffer is next written
+     */
+    byte[] getData() {
+        return data;
+    }
+
+    /**
+     * Returns the number of encoded bytes
+     */
+    int getLength() {
+        return length;
+    }
+
+    /**
+     * Writes the encoded bytes to the given file in a single write
+     * @param file the file to be written
+     */
+    void writeTo(File file) throws IOException {
+        OutputStream out = new FileOutputStream(file);
+        try {
+            out.write(data, 0, length);
+        } finally {
+            out.close();
+        }
+    }
+
+    private void ensureCapacity(long capacity) throws IOException {
+        if (capacity > Integer.MAX_VALUE - 8)
+            throw new IOException("Encoded tile too large");
+        if (capacity > data.length) {
+            byte[] grown = new byte[(int)Math.max(capacity, 2L * data.length)];
+            System.arraycopy(data, 0, grown, 0, length);
+            data = grown;
+        }
+    }
+
+    public void write(int b) throws IOException {
+        flushBits();
+        ensureCapacity(streamPos + 1);
+        data[(int)streamPos++] = (byte)b;
+        length = Math.max(length, (int)streamPos);
+    }
+
+    public void write(byte[] b, int off, int len) throws IOException {
+        flushBits();
+        ensureCapacity(streamPos + len);
+        System.arraycopy(b, off, data, (int)streamPos, len);
+        streamPos += len;
+        length = Math.max(length, (int)streamPos);
+    }
+
+    public int read() throws IOException {
+        bitOffset = 0;
+        if (streamPos >= length)
+            return -1;
+        return data[(int)streamPos++] & 0xff;
+    }
+
+    public int read(byte[] b, int off, int len) throws IOException {
+        bitOffset = 0;
+        if (streamPos >= length)
+            return -1;
+        int n = (int)Math.min(len, length - streamPos);
+        System.arraycopy(data, (int)streamPos, b, off, n);
+        streamPos += n;
+        return n;
+    }
+
+    public long length() {
+        return length;
+    }
+
+    /**
+     * Moves the write position, zero filling any gap left past the end
+     * so that no bytes of an earlier tile become part of this one
+     */
+    public void seek(long pos) throws IOException {
+        super.seek(pos);
+        ensureCapacity(pos);
+        if (pos > length) {
+            Arrays.fill(data, length, (int)pos, (byte)0);
+            length = (int)pos;
+        }
+    }
+
+    public boolean isCached() {
+        return true;
+    }
+
+    public boolean isCachedMemory() {
+        return true;
+    }
+
+    public void close() {
+        // nothing to release, the buffer is reused
+    }
+}
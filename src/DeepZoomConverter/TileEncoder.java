@@ -0,0 +1,268 @@
+package DeepZoomConverter;
+
+/**
+ *  Deep Zoom Converter
+ *
+ *  Version: MPL 1.1/GPL 3/LGPL 3
+ *
+ *  The contents of this file are subject to the Mozilla Public License Version
+ *  1.1 (the "License"); you may not use this file except in compliance with
+ *  the License. You may obtain a copy of the License at
+ *  http: *www.mozilla.org/MPL/
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ *  for the specific language governing rights and limitations under the
+ *  License.
+ *
+ *  The Original Code is this Java package called DeepZoomConverter
+ *
+ *  The Initial Developer of the Original Code is Glenn Lawrence.
+ *  Portions created by the Initial Developer are Copyright (c) 2007-2009
+ *  the Initial Developer. All Rights Reserved.
+ *
+ *  Contributor(s):
+ *    Glenn Lawrence  <glenn.c.lawrence@gmail.com>
+ *
+ *  Alternatively, the contents of this file may be used under the terms of
+ *  either the GNU General Public License Version 3 or later (the "GPL"), or
+ *  the GNU Lesser General Public License Version 3 or later (the "LGPL"),
+ *  in which case the provisions of the GPL or the LGPL are applicable instead
+ *  of those above. If you wish to allow use of your version of this file only
+ *  under the terms of either the GPL or the LGPL, and not to allow others to
+ *  use your version of this file under the terms of the MPL, indicate your
+ *  decision by deleting the provisions above and replace them with the notice
+ *  and other provisions required by the GPL or the LGPL. If you do not delete
+ *  the provisions above, a recipient may use your version of this file under
+ *  the terms of any one of the MPL, the GPL or the LGPL.
+ */
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.Iterator;
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.metadata.IIOInvalidTreeException;
+import javax.imageio.metadata.IIOMetadata;
+import javax.imageio.plugins.jpeg.JPEGImageWriteParam;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+/**
+ * Encodes tiles with an ImageWriter kept for each worker thread. Every tile
+ * is encoded into the thread's reusable in-memory buffer and then written
+ * to disk in one go, avoiding the writer lookup, construction and stream
+ * setup that ImageIO.write repeats on each call.
+ *
+ * The compression quality, and for JPEG the Huffman table optimisation,
+ * progressive mode and chroma subsampling, can be set; anything left unset
+ * uses the writer's defaults, as ImageIO.write does.
+ */
+class TileEncoder {
+
+    static final float DEFAULT_QUALITY = -1;
+
+    private static final String JPEG_METADATA_FORMAT = "javax_imageio_jpeg_image_1.0";
+
+    private final String format;
+    private final float quality;
+    private final boolean optimizeHuffman;
+    private final boolean progressive;
+    private final String subsampling;
+    private final ThreadLocal<Worker> workers;
+
+    /**
+     * The writer, write parameters and buffers belonging to one thread
+     */
+    private class Worker {
+        final ImageWriter writer;
+        final ImageWriteParam param;
+        final TileBuffer buffer = new TileBuffer();
+        ImageWriter defaultWriter = null;
+        TileBuffer defaultBuffer = null;
+        ImageTypeSpecifier metadataType = null;
+        IIOMetadata metadata = null;
+
+        Worker() {
+            writer = createWriter();
+            param = createParam(writer);
+        }
+    }
+
+    /**
+     * @param format the informal name of the tile format, e.g. "jpg"
+     * @param quality the compression quality from 0 to 1, or DEFAULT_QUALITY
+     * @param optimizeHuffman whether to compute optimal JPEG Huffman tables
+     * @param progressive whether to write progressive images
+     * @param subsampling the JPEG chroma subsampling ("444", "422" or "420"),
+     *        or null for the writer's default
+     */
+    TileEncoder(String format, float quality, boolean optimizeHuffman,
+                boolean progressive, String subsampling) throws IOException {
+        this.format = format;
+        this.quality = quality;
+        this.optimizeHuffman = optimizeHuffman;
+        this.progressive = progressive;
+        this.subsampling = subsampling;
+        if (quality != DEFAULT_QUALITY && (quality < 0 || quality > 1))
+            throw new IllegalArgumentException("Quality must be between 0 and 1: " + quality);
+        if (subsampling != null && lumaSampling(subsampling) == null)
+            throw new IllegalArgumentException("Unknown chroma subsampling: " + subsampling);
+
+        // fail early on unknown formats and unsupported settings
+        ImageWriter writer = createWriter();
+        try {
+            createParam(writer);
+        } finally {
+            writer.dispose();
+        }
+        this.workers = new ThreadLocal<Worker>() {
+            protected Worker initialValue() {
+                return new Worker();
+            }
+        };
+    }
+
+    /**
+     * Returns true if any setting differs from the writer's defaults
+     */
+    boolean hasCustomSettings() {
+        return quality != DEFAULT_QUALITY || optimizeHuffman || progressive || subsampling != null;
+    }
+
+    private ImageWriter createWriter() {
+        Iterator<ImageWriter> writers = ImageIO.getImageWritersByFormatName(format);
+        if (!writers.hasNext())
+            throw new IllegalArgumentException("No image writer for format: " + format);
+        return writers.next();
+    }
+
+    /**
+     * Creates the write parameters for the configured settings
+     * @param writer the writer the parameters are for
+     */
+    private ImageWriteParam createParam(ImageWriter writer) {
+        if (!hasCustomSettings())
+            return null;
+        ImageWriteParam param = writer.getDefaultWriteParam();
+        if (quality != DEFAULT_QUALITY) {
+            if (!param.canWriteCompressed())
+                throw new IllegalArgumentException("Format does not support a quality setting: " + format);
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            if (param.getCompressionType() == null)
+                param.setCompressionType(param.getCompressionTypes()[0]);
+            param.setCompressionQuality(quality);
+        }
+        if (progressive) {
+            if (!param.canWriteProgressive())
+                throw new IllegalArgumentException("Format does not support progressive mode: " + format);
+            param.setProgressiveMode(ImageWriteParam.MODE_DEFAULT);
+        }
+        if (optimizeHuffman || subsampling != null) {
+            if (!(param instanceof JPEGImageWriteParam))
+                throw new IllegalArgumentException("Huffman and subsampling settings need JPEG: " + format);
+            ((JPEGImageWriteParam)param).setOptimizeHuffmanTables(optimizeHuffman);
+        }
+        return param;
+    }
+
+    /**
+     * Returns the horizontal and vertical sampling factors of the luma
+     * component for the given chroma subsampling, or null if unknown
+     */
+    private static int[] lumaSampling(String subsampling) {
+        if (subsampling.equals("444"))
+            return new int[] { 1, 1 };
+        if (subsampling.equals("422"))
+            return new int[] { 2, 1 };
+        if (subsampling.equals("420"))
+            return new int[] { 2, 2 };
+        return null;
+    }
+
+    /**
+     * Returns the image metadata setting the chroma subsampling for images
+     * like the given one, or null if the writer's default is wanted.
+     * The metadata is reused while the image type stays the same.
+     */
+    private IIOMetadata getMetadata(Worker worker, BufferedImage img) throws IOException {
+        if (subsampling == null)
+            return null;
+        ImageTypeSpecifier type = ImageTypeSpecifier.createFromRenderedImage(img);
+        if (type.equals(worker.metadataType))
+            return worker.metadata;
+
+        IIOMetadata metadata = worker.writer.getDefaultImageMetadata(type, worker.param);
+        Node tree = metadata.getAsTree(JPEG_METADATA_FORMAT);
+        NodeList specs = ((Element)tree).getElementsByTagName("componentSpec");
+        if (specs.getLength() > 1) {
+            int[] luma = lumaSampling(subsampling);
+            for (int i = 0; i < specs.getLength(); i++) {
+                Element spec = (Element)specs.item(i);
+                spec.setAttribute("HsamplingFactor", Integer.toString(i == 0 ? luma[0] : 1));
+                spec.setAttribute("VsamplingFactor", Integer.toString(i == 0 ? luma[1] : 1));
+            }
+            try {
+                metadata.setFromTree(JPEG_METADATA_FORMAT, tree);
+            } catch (IIOInvalidTreeException e) {
+                throw new IOException("Cannot set chroma subsampling: " + e.getMessage());
+            }
+        }
+        worker.metadataType = type;
+        worker.metadata = metadata;
+        return metadata;
+    }
+
+    /**
+     * Returns the informal name of the tile format
+     */
+    String getFormat() {
+        return format;
+    }
+
+    /**
+     * Encodes the image into the calling thread's buffer. The buffer is
+     * only valid until the thread next encodes a tile.
+     * @param img the tile image
+     * @return the buffer holding the encoded tile
+     */
+    TileBuffer encode(BufferedImage img) throws IOException {
+        Worker worker = workers.get();
+        TileBuffer buffer = worker.buffer;
+        buffer.clear();
+        try {
+            worker.writer.setOutput(buffer);
+            worker.writer.write(null, new IIOImage(img, null, getMetadata(worker, img)),
+                                worker.param);
+        } finally {
+            worker.writer.reset();
+        }
+        return buffer;
+    }
+
+    /**
+     * Returns the size the image would have if encoded with the writer's
+     * default settings, for comparison with the configured settings
+     * @param img the tile image
+     */
+    int defaultEncodedLength(BufferedImage img) throws IOException {
+        Worker worker = workers.get();
+        if (worker.defaultWriter == null) {
+            worker.defaultWriter = createWriter();
+            worker.defaultBuffer = new TileBuffer();
+        }
+        TileBuffer buffer = worker.defaultBuffer;
+        buffer.clear();
+        try {
+            worker.defaultWriter.setOutput(buffer);
+            worker.defaultWriter.write(null, new IIOImage(img, null, null), null);
+        } finally {
+            worker.defaultWriter.reset();
+        }
+        return buffer.getLength();
+    }
+}
@@ -0,0 +1,334 @@
+package DeepZoomConverter;
+
+/**
+ *  Deep Zoom Converter
+ *
+ *  Version: MPL 1.1/GPL 3/LGPL 3
+ *
+ *  The contents of this file are subject to the Mozilla Public License Version
+ *  1.1 (the "License"); you may not use this file except in compliance with
+ *  the License. You may obtain a copy of the License at
+ *  http: *www.mozilla.org/MPL/
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ *  for the specific language governing rights and limitations under the
+ *  License.
+ *
+ *  The Original Code is this Java package called DeepZoomConverter
+ *
+ *  The Initial Developer of the Original Code is Glenn Lawrence.
+ *  Portions created by the Initial Developer are Copyright (c) 2007-2009
+ *  the Initial Developer. All Rights Reserved.
+ *
+ *  Contributor(s):
+ *    Glenn Lawrence  <glenn.c.lawrence@gmail.com>
+ *
+ *  Alternatively, the contents of this file may be used under the terms of
+ *  either the GNU General Public License Version 3 or later (the "GPL"), or
+ *  the GNU Lesser General Public License Version 3 or later (the "LGPL"),
+ *  in which case the provisions of the GPL or the LGPL are applicable instead
+ *  of those above. If you wish to allow use of your version of this file only
+ *  under the terms of either the GPL or the LGPL, and not to allow others to
+ *  use your version of this file under the terms of the MPL, indicate your
+ *  decision by deleting the provisions above and replace them with the notice
+ *  and other provisions required by the GPL or the LGPL. If you do not delete
+ *  the provisions above, a recipient may use your version of this file under
+ *  the terms of any one of the MPL, the GPL or the LGPL.
+ */
+
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.DataBufferUShort;
+import java.awt.image.PixelInterleavedSampleModel;
+import java.awt.image.Raster;
+import java.awt.image.SampleModel;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+import java.util.Arrays;
+
+/**
+ * Cuts tiles out of a level by copying rows of the raster's data array
+ * straight into a tile image kept for each worker thread, instead of
+ * allocating a new image and drawing into it through Java2D.
+ *
+ * Each thread has one data buffer big enough for the largest tile, and
+ * tile images of the sizes recently cut are views onto it, so once a
+ * thread has cut a tile of a given size it cuts further tiles of that size
+ * without allocating. A tile image is only valid until the thread cuts its
+ * next tile, which suits the cut, encode, cut pattern of the tile workers.
+ *
+ * Single pixel packed and pixel interleaved rasters of bytes, ushorts or
+ * ints are copied directly; other layouts fall back to a new image per tile.
+ */
+class TileExtractor {
+
+    // A level has at most three tile widths and three tile heights
+    private static final int TILE_CACHE_SIZE = 9;
+
+    private final int maxSize;
+    private final ThreadLocal<Worker> workers;
+
+    /**
+     * The tile buffer and tile images belonging to one thread
+     */
+    private static class Worker {
+        // The layout the buffer and tile images were made for
+        SampleModel layoutModel = null;
+        ColorModel layoutColors = null;
+        DataBuffer buffer = null;
+        // Views onto the buffer for the tile sizes most recently cut
+        final BufferedImage[] tiles = new BufferedImage[TILE_CACHE_SIZE];
+        int nextTile = 0;
+    }
+
+    /**
+     * @param maxSize the largest tile width and height, i.e. the tile size
+     *        plus twice the overlap
+     */
+    TileExtractor(int maxSize) {
+        this.maxSize = maxSize;
+        this.workers = new ThreadLocal<Worker>() {
+            protected Worker initialValue() {
+                return new Worker();
+            }
+        };
+    }
+
+    /**
+     * Returns true if tiles can be copied directly from the given image
+     * @param img the image the tiles are cut from
+     */
+    static boolean canCopy(BufferedImage img) {
+        WritableRaster raster = img.getRaster();
+        if (raster.getSampleModelTranslateX() != 0 || raster.getSampleModelTranslateY() != 0)
+            return false;
+        SampleModel sm = raster.getSampleModel();
+        DataBuffer db = raster.getDataBuffer();
+        if (db.getNumBanks() != 1)
+            return false;
+        if (!(db instanceof DataBufferInt || db instanceof DataBufferByte
+              || db instanceof DataBufferUShort))
+            return false;
+        if (sm instanceof SinglePixelPackedSampleModel)
+            return true;
+        if (!(sm instanceof ComponentSampleModel))
+            return false;
+        ComponentSampleModel csm = (ComponentSampleModel)sm;
+        for (int offset : csm.getBandOffsets()) {
+            if (offset < 0 || offset >= csm.getPixelStride())
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Returns true if every pixel of the image is the same, checked in a
+     * single pass over the data array that stops at the first difference
+     * @param img the tile
+     */
+    static boolean isUniform(BufferedImage img) {
+        if (!canCopy(img)) {
+            int first = img.getRGB(0, 0);
+            for (int y = 0; y < img.getHeight(); y++) {
+                for (int x = 0; x < img.getWidth(); x++) {
+                    if (img.getRGB(x, y) != first)
+                        return false;
+                }
+            }
+            return true;
+        }
+
+        Raster raster = img.getRaster();
+        DataBuffer db = raster.getDataBuffer();
+        SampleModel sm = raster.getSampleModel();
+        int pixelStride = pixelStride(sm);
+        int stride;
+        if (sm instanceof SinglePixelPackedSampleModel)
+            stride = ((SinglePixelPackedSampleModel)sm).getScanlineStride();
+        else
+            stride = ((ComponentSampleModel)sm).getScanlineStride();
+        int start = db.getOffset();
+        int rowLength = img.getWidth() * pixelStride;
+        // Each element must match the one a pixel to its left, and each
+        // row's first pixel the first pixel of the tile
+        if (db instanceof DataBufferInt) {
+            int[] data = ((DataBufferInt)db).getData();
+            for (int j = 0, row = start; j < img.getHeight(); j++, row += stride) {
+                for (int i = 0; i < pixelStride; i++) {
+                    if (data[row + i] != data[start + i])
+                        return false;
+                }
+                for (int i = row + pixelStride; i < row + rowLength; i++) {
+                    if (data[i] != data[i - pixelStride])
+                        return false;
+                }
+            }
+        } else if (db instanceof DataBufferUShort) {
+            short[] data = ((DataBufferUShort)db).getData();
+            for (int j = 0, row = start; j < img.getHeight(); j++, row += stride) {
+                for (int i = 0; i < pixelStride; i++) {
+                    if (data[row + i] != data[start + i])
+                        return false;
+                }
+                for (int i = row + pixelStride; i < row + rowLength; i++) {
+                    if (data[i] != data[i - pixelStride])
+                        return false;
+                }
+            }
+        } else {
+            byte[] data = ((DataBufferByte)db).getData();
+            for (int j = 0, row = start; j < img.getHeight(); j++, row += stride) {
+                for (int i = 0; i < pixelStride; i++) {
+                    if (data[row + i] != data[start + i])
+                        return false;
+                }
+                for (int i = row + pixelStride; i < row + rowLength; i++) {
+                    if (data[i] != data[i - pixelStride])
+                        return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns an image holding the given region of a band of rows of a
+     * level. The image belongs to the calling thread and is only valid
+     * until the thread next calls this method or tileImage.
+     * @param img the band of rows from which the tile is taken
+     * @param imgY the row of the level at which the band starts
+     * @param x the left of the tile within the level
+     * @param y the top of the tile within the level
+     * @param w the width of the tile
+     * @param h the height of the tile
+     */
+    BufferedImage extract(BufferedImage img, int imgY, int x, int y, int w, int h) {
+        BufferedImage tile = tileImage(img, w, h);
+        if (tile.getRaster().getDataBuffer() != workers.get().buffer) {
+            ImageUtil.copyInto(img, -x, imgY - y, tile);
+            return tile;
+        }
+
+        Raster in = img.getRaster();
+        DataBuffer db = in.getDataBuffer();
+        SampleModel sm = in.getSampleModel();
+        int pixelStride = pixelStride(sm);
+        int stride;
+        if (sm instanceof SinglePixelPackedSampleModel)
+            stride = ((SinglePixelPackedSampleModel)sm).getScanlineStride();
+        else
+            stride = ((ComponentSampleModel)sm).getScanlineStride();
+        Object src = dataArray(db);
+        Object dst = dataArray(tile.getRaster().getDataBuffer());
+        int srcIndex = db.getOffset() + (y - imgY) * stride + x * pixelStride;
+        int rowLength = w * pixelStride;
+        for (int j = 0; j < h; j++) {
+            System.arraycopy(src, srcIndex, dst, j * rowLength, rowLength);
+            srcIndex += stride;
+        }
+        return tile;
+    }
+
+    /**
+     * Returns an image of the given size with the same layout as the given
+     * image, for filling with a tile. Where the layout can be copied
+     * directly the image belongs to the calling thread and is only valid
+     * until the thread next calls this method or extract; otherwise it is
+     * a new image.
+     * @param like the image whose layout is to be matched
+     * @param w the width of the tile
+     * @param h the height of the tile
+     */
+    BufferedImage tileImage(BufferedImage like, int w, int h) {
+        Worker worker = workers.get();
+        if (!isLayout(worker, like)) {
+            if (w > maxSize || h > maxSize || !canCopy(like))
+                return ImageUtil.createCompatible(like, w, h);
+            SampleModel sm = like.getSampleModel();
+            worker.layoutModel = sm;
+            worker.layoutColors = like.getColorModel();
+            worker.buffer = createBuffer(sm, maxSize * maxSize * pixelStride(sm));
+            Arrays.fill(worker.tiles, null);
+        } else if (w > maxSize || h > maxSize)
+            return ImageUtil.createCompatible(like, w, h);
+
+        for (BufferedImage tile : worker.tiles) {
+            if (tile != null && tile.getWidth() == w && tile.getHeight() == h)
+                return tile;
+        }
+        WritableRaster raster = Raster.createWritableRaster(createSampleModel(worker.layoutModel, w, h),
+                                                           worker.buffer, null);
+        ColorModel cm = worker.layoutColors;
+        BufferedImage tile = new BufferedImage(cm, raster, cm.isAlphaPremultiplied(), null);
+        worker.tiles[worker.nextTile] = tile;
+        worker.nextTile = (worker.nextTile + 1) % TILE_CACHE_SIZE;
+        return tile;
+    }
+
+    /**
+     * Returns true if the worker's buffer was made for the layout of the
+     * given image. Once an image has matched, its sample model is kept so
+     * that further tiles from it are matched without allocating.
+     */
+    private static boolean isLayout(Worker worker, BufferedImage img) {
+        SampleModel sm = img.getSampleModel();
+        SampleModel layout = worker.layoutModel;
+        if (sm == layout)
+            return true;
+        if (layout == null || !img.getColorModel().equals(worker.layoutColors)
+            || sm.getDataType() != layout.getDataType() || sm.getClass() != layout.getClass()
+            || !canCopy(img))
+            return false;
+        boolean same;
+        if (sm instanceof SinglePixelPackedSampleModel)
+            same = Arrays.equals(((SinglePixelPackedSampleModel)sm).getBitMasks(),
+                                 ((SinglePixelPackedSampleModel)layout).getBitMasks());
+        else
+            same = pixelStride(sm) == pixelStride(layout)
+                && Arrays.equals(((ComponentSampleModel)sm).getBandOffsets(),
+                                 ((ComponentSampleModel)layout).getBandOffsets());
+        if (same)
+            worker.layoutModel = sm;
+        return same;
+    }
+
+    private static int pixelStride(SampleModel sm) {
+        if (sm instanceof ComponentSampleModel)
+            return ((ComponentSampleModel)sm).getPixelStride();
+        return 1;
+    }
+
+    /**
+     * Creates a sample model for a tile of the given size with the same
+     * pixel layout as the given one and rows packed one after the other
+     */
+    private static SampleModel createSampleModel(SampleModel sm, int w, int h) {
+        if (sm instanceof SinglePixelPackedSampleModel)
+            return new SinglePixelPackedSampleModel(sm.getDataType(), w, h,
+                    ((SinglePixelPackedSampleModel)sm).getBitMasks());
+        ComponentSampleModel csm = (ComponentSampleModel)sm;
+        return new PixelInterleavedSampleModel(sm.getDataType(), w, h, csm.getPixelStride(),
+                                               w * csm.getPixelStride(), csm.getBandOffsets());
+    }
+
+    private static DataBuffer createBuffer(SampleModel sm, int size) {
+        if (sm.getDataType() == DataBuffer.TYPE_INT)
+            return new DataBufferInt(size);
+        if (sm.getDataType() == DataBuffer.TYPE_USHORT)
+            return new DataBufferUShort(size);
+        return new DataBufferByte(size);
+    }
+
+    private static Object dataArray(DataBuffer db) {
+        if (db instanceof DataBufferInt)
+            return ((DataBufferInt)db).getData();
+        if (db instanceof DataBufferUShort)
+            return ((DataBufferUShort)db).getData();
+        return ((DataBufferByte)db).getData();
+    }
+}
@@ -0,0 +1,432 @@
+package DeepZoomConverter;
+
+/**
+ *  Deep Zoom Converter
+ *
+ *  Version: MPL 1.1/GPL 3/LGPL 3
+ *
+ *  The contents of this file are subject to the Mozilla Public License Version
+ *  1.1 (the "License"); you may not use this file except in compliance with
+ *  the License. You may obtain a copy of the License at
+ *  http: *www.mozilla.org/MPL/
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ *  for the specific language governing rights and limitations under the
+ *  License.
+ *
+ *  The Original Code is this Java package called DeepZoomConverter
+ *
+ *  The Initial Developer of the Original Code is Glenn Lawrence.
+ *  Portions created by the Initial Developer are Copyright (c) 2007-2009
+ *  the Initial Developer. All Rights Reserved.
+ *
+ *  Contributor(s):
+ *    Glenn Lawrence  <glenn.c.lawrence@gmail.com>
+ *
+ *  Alternatively, the contents of this file may be used under the terms of
+ *  either the GNU General Public License Version 3 or later (the "GPL"), or
+ *  the GNU Lesser General Public License Version 3 or later (the "LGPL"),
+ *  in which case the provisions of the GPL or the LGPL are applicable instead
+ *  of those above. If you wish to allow use of your version of this file only
+ *  under the terms of either the GPL or the LGPL, and not to allow others to
+ *  use your version of this file under the terms of the MPL, indicate your
+ *  decision by deleting the provisions above and replace them with the notice
+ *  and other provisions required by the GPL or the LGPL. If you do not delete
+ *  the provisions above, a recipient may use your version of this file under
+ *  the terms of any one of the MPL, the GPL or the LGPL.
+ */
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Serves the Deep Zoom tiles of images over HTTP, producing each tile
+ * only when it is first asked for. Requests for /name.xml return the
+ * descriptor and requests for /name_files/level/col_row.format the tile.
+ *
+ * Tiles are built as in quadtree mode: the core of a tile, i.e. the tile
+ * without overlap, is read from the source at the top level and reduced
+ * from the cores of its four children below it, and a tile is cut from
+ * the cores of itself and its neighbours. Two caches, each bounded by the
+ * bytes it holds, keep the work done: one for encoded tiles, and one for
+ * cores, i.e. decoded regions of the source and of the levels below it.
+ * Concurrent requests for a tile or core not yet cached wait for a single
+ * computation of it rather than each computing it again.
+ */
+class TileServer implements Closeable {
+
+    static final int DEFAULT_TILE_CACHE_MB = 256;
+    static final int DEFAULT_REGION_CACHE_MB = 512;
+
+    private static final long MB = 1024 * 1024;
+    private static final Pattern TILE_PATH =
+        Pattern.compile("/(.+)_files/(\\d+)/(\\d+)_(\\d+)\\.(\\w+)");
+
+    private final DeepZoomConverter converter;
+    private final int tileSize;
+    private final int tileOverlap;
+    private final String tileFormat;
+    private final boolean vectorKernels;
+    private final boolean verboseMode;
+    private final HashMap<String, ServedImage> images = new HashMap<String, ServedImage>();
+    private final LruCache<String, byte[]> tileCache;
+    private final LruCache<String, BufferedImage> regionCache;
+    private final SingleFlight<String, byte[]> tileFlights = new SingleFlight<String, byte[]>();
+    private final SingleFlight<String, BufferedImage> regionFlights =
+        new SingleFlight<String, BufferedImage>();
+    private final ExecutorService requestPool;
+    private final HttpServer server;
+
+    /**
+     * An image being served
+     */
+    private static class ServedImage {
+        final String name;
+        final RegionSource source;
+        final int nLevels;
+        final int[] levelWidth;
+        final int[] levelHeight;
+        final byte[] descriptor;
+
+        ServedImage(String name, RegionSource source, byte[] descriptor) {
+            this.name = name;
+            this.source = source;
+            this.descriptor = descriptor;
+            int w = source.getWidth();
+            int h = source.getHeight();
+            nLevels = (int)Math.ceil(Math.log(Math.max(w, h)) / Math.log(2));
+            levelWidth = new int[nLevels + 1];
+            levelHeight = new int[nLevels + 1];
+            for (int level = nLevels; level >= 0; level--) {
+                levelWidth[level] = w;
+                levelHeight[level] = h;
+                w = (w + 1) / 2;
+                h = (h + 1) / 2;
+            }
+        }
+    }
+
+    /**
+     * Creates a server, which answers requests once started
+     * @param converter the converter whose settings and encoders are used,
+     *        whose overlap must be no larger than its tile size
+     * @param port the port on which to listen
+     * @param tileCacheMb the memory for encoded tiles, in MB
+     * @param regionCacheMb the memory for decoded regions, in MB
+     */
+    TileServer(DeepZoomConverter converter, int port, int tileCacheMb, int regionCacheMb)
+            throws IOException {
+        this.converter = converter;
+        ConverterConfig config = converter.getConfig();
+        tileSize = config.getTileSize();
+        tileOverlap = config.getTileOverlap();
+        tileFormat = config.getTileFormat();
+        vectorKernels = config.getResampleMode() == ConverterConfig.ResampleMode.VECTOR;
+        verboseMode = config.getVerboseMode();
+        if (tileOverlap > tileSize)
+            throw new IllegalArgumentException("Serving tiles needs an overlap no larger than the tile size");
+        tileCache = new LruCache<String, byte[]>(tileCacheMb * MB) {
+            protected long sizeOf(byte[] tile) {
+                return tile.length;
+            }
+        };
+        regionCache = new LruCache<String, BufferedImage>(regionCacheMb * MB) {
+            protected long sizeOf(BufferedImage region) {
+                DataBuffer db = region.getRaster().getDataBuffer();
+                return (long)db.getSize() * db.getNumBanks()
+                    * DataBuffer.getDataTypeSize(db.getDataType()) / 8;
+            }
+        };
+        requestPool = Executors.newFixedThreadPool(config.getThreadCount());
+        server = HttpServer.create(new InetSocketAddress(port), 0);
+        server.setExecutor(requestPool);
+        server.createContext("/", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                try {
+                    serve(exchange);
+                } finally {
+                    exchange.close();
+                }
+            }
+        });
+    }
+
+    /**
+     * Adds an image to be served under the name of its file without extension
+     * @param file the file containing the image
+     */
+    void addImage(File file) throws IOException {
+        String name = DeepZoomConverter.nameWithoutExtension(file);
+        if (images.containsKey(name))
+            throw new IOException("Image name already served: " + file);
+        RegionSource source = ImageReaderSource.open(file, verboseMode);
+        StringBuilder descriptor = new StringBuilder();
+        Vector<String> lines = converter.imageDescriptorLines(source.getWidth(), source.getHeight());
+        for (int i = 0; i < lines.size(); i++)
+            descriptor.append(lines.elementAt(i)).append('\n');
+        images.put(name, new ServedImage(name, source,
+                                         descriptor.toString().getBytes(StandardCharsets.UTF_8)));
+    }
+
+    /**
+     * Starts answering requests
+     */
+    void start() {
+        server.start();
+    }
+
+    /**
+     * Returns the port on which the server listens
+     */
+    int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * Stops the server and releases the images
+     */
+    public void close() {
+        server.stop(0);
+        requestPool.shutdown();
+        for (ServedImage image : images.values())
+            image.source.close();
+    }
+
+    /**
+     * Answers a request for a descriptor or tile
+     * @param exchange the request
+     */
+    private void serve(HttpExchange exchange) throws IOException {
+        String method = exchange.getRequestMethod();
+        if (!method.equals("GET") && !method.equals("HEAD")) {
+            send(exchange, 405, null, null);
+            return;
+        }
+        String path = exchange.getRequestURI().getPath();
+        if (path.endsWith(".xml")) {
+            ServedImage image = images.get(path.substring(1, path.length() - 4));
+            if (image == null)
+                send(exchange, 404, null, null);
+            else
+                send(exchange, 200, "application/xml", image.descriptor);
+            return;
+        }
+
+        Matcher matcher = TILE_PATH.matcher(path);
+        ServedImage image = matcher.matches() ? images.get(matcher.group(1)) : null;
+        if (image == null || !matcher.group(5).equals(tileFormat)) {
+            send(exchange, 404, null, null);
+            return;
+        }
+        int level, col, row;
+        try {
+            level = Integer.parseInt(matcher.group(2));
+            col = Integer.parseInt(matcher.group(3));
+            row = Integer.parseInt(matcher.group(4));
+        } catch (NumberFormatException e) {
+            send(exchange, 404, null, null);
+            return;
+        }
+        if (level > image.nLevels || col >= colCount(image, level) || row >= rowCount(image, level)) {
+            send(exchange, 404, null, null);
+            return;
+        }
+        byte[] tile;
+        try {
+            tile = getTile(image, level, col, row);
+        } catch (IOException e) {
+            System.out.printf("Unable to serve %s: %s\n", path, e.getMessage());
+            send(exchange, 500, null, null);
+            return;
+        }
+        send(exchange, 200, tileFormat.equals("jpg") ? "image/jpeg" : "image/" + tileFormat, tile);
+    }
+
+    /**
+     * Sends a response
+     * @param exchange the request
+     * @param status the HTTP status code
+     * @param contentType the type of the body, or null if there is none
+     * @param body the body, or null if there is none
+     */
+    private static void send(HttpExchange exchange, int status, String contentType, byte[] body)
+            throws IOException {
+        if (contentType != null)
+            exchange.getResponseHeaders().set("Content-Type", contentType);
+        if (body == null || exchange.getRequestMethod().equals("HEAD")) {
+            // The server sends no length for HEAD, and logs a warning if
+            // given one, so the length a GET would have is set here
+            if (body != null)
+                exchange.getResponseHeaders().set("Content-Length", Integer.toString(body.length));
+            exchange.sendResponseHeaders(status, -1);
+            return;
+        }
+        exchange.sendResponseHeaders(status, body.length);
+        OutputStream out = exchange.getResponseBody();
+        out.write(body);
+        out.close();
+    }
+
+    /**
+     * Returns the number of tile columns at the given level
+     */
+    private int colCount(ServedImage image, int level) {
+        return (image.levelWidth[level] + tileSize - 1) / tileSize;
+    }
+
+    /**
+     * Returns the number of tile rows at the given level
+     */
+    private int rowCount(ServedImage image, int level) {
+        return (image.levelHeight[level] + tileSize - 1) / tileSize;
+    }
+
+    /**
+     * Returns an encoded tile, from the cache if it was produced before
+     * @param image the image
+     * @param level the tile's level
+     * @param col the tile's column
+     * @param row the tile's row
+     */
+    private byte[] getTile(final ServedImage image, final int level, final int col, final int row)
+            throws IOException {
+        final String key = image.name + "/" + level + "/" + col + "_" + row;
+        byte[] tile = tileCache.get(key);
+        if (tile != null)
+            return tile;
+        return tileFlights.run(key, new Callable<byte[]>() {
+            public byte[] call() throws IOException {
+                byte[] tile = tileCache.get(key);
+                if (tile == null) {
+                    tile = renderTile(image, level, col, row);
+                    tileCache.put(key, tile);
+                }
+                return tile;
+            }
+        });
+    }
+
+    /**
+     * Cuts and encodes a tile from the cores of itself and its neighbours
+     */
+    private byte[] renderTile(ServedImage image, int level, int col, int row) throws IOException {
+        // Same geometry as DeepZoomConverter.getTile
+        int x = col * tileSize - (col == 0 ? 0 : tileOverlap);
+        int y = row * tileSize - (row == 0 ? 0 : tileOverlap);
+        int w = Math.min(tileSize + (col == 0 ? 1 : 2) * tileOverlap, image.levelWidth[level] - x);
+        int h = Math.min(tileSize + (row == 0 ? 1 : 2) * tileOverlap, image.levelHeight[level] - y);
+
+        int radius = (tileOverlap > 0) ? 1 : 0;
+        int c0 = Math.max(col - radius, 0);
+        int r0 = Math.max(row - radius, 0);
+        int c1 = Math.min(col + radius, colCount(image, level) - 1);
+        int r1 = Math.min(row + radius, rowCount(image, level) - 1);
+        BufferedImage[] cores = new BufferedImage[(c1 - c0 + 1) * (r1 - r0 + 1)];
+        for (int r = r0; r <= r1; r++) {
+            for (int c = c0; c <= c1; c++)
+                cores[(r - r0) * (c1 - c0 + 1) + c - c0] = getCore(image, level, c, r);
+        }
+
+        BufferedImage tile = converter.getTileExtractor().tileImage(cores[0], w, h);
+        for (int r = r0; r <= r1; r++) {
+            for (int c = c0; c <= c1; c++)
+                ImageUtil.copyInto(cores[(r - r0) * (c1 - c0 + 1) + c - c0],
+                                   c * tileSize - x, r * tileSize - y, tile);
+        }
+        TileBuffer encoded;
+        try {
+            encoded = converter.getTileEncoder().encode(tile);
+        } catch (IOException e) {
+            throw new IOException("Unable to encode tile: " + image.name + File.separator + level
+                                  + File.separator + col + '_' + row + "." + tileFormat);
+        }
+        return Arrays.copyOf(encoded.getData(), encoded.getLength());
+    }
+
+    /**
+     * Returns the core of a tile, from the cache if it was produced before
+     */
+    private BufferedImage getCore(final ServedImage image, final int level, final int col,
+                                  final int row) throws IOException {
+        final String key = image.name + "/" + level + "/" + col + "_" + row;
+        BufferedImage core = regionCache.get(key);
+        if (core != null)
+            return core;
+        return regionFlights.run(key, new Callable<BufferedImage>() {
+            public BufferedImage call() throws IOException {
+                BufferedImage core = regionCache.get(key);
+                if (core == null) {
+                    core = computeCore(image, level, col, row);
+                    regionCache.put(key, core);
+                }
+                return core;
+            }
+        });
+    }
+
+    /**
+     * Computes the core of a tile, read from the source at the top level
+     * and otherwise reduced from the cores of its children
+     */
+    private BufferedImage computeCore(ServedImage image, int level, int col, int row)
+            throws IOException {
+        BufferedImage core;
+        if (level == image.nLevels) {
+            int x = col * tileSize;
+            int y = row * tileSize;
+            int w = Math.min(tileSize, image.levelWidth[level] - x);
+            int h = Math.min(tileSize, image.levelHeight[level] - y);
+            core = BoxReducer.toReducible(image.source.read(new Rectangle(x, y, w, h)));
+        } else {
+            int childLevel = level + 1;
+            int x0 = 2 * col * tileSize;
+            int y0 = 2 * row * tileSize;
+            BufferedImage block = null;
+            for (int dy = 0; dy < 2; dy++) {
+                for (int dx = 0; dx < 2; dx++) {
+                    int childCol = 2 * col + dx;
+                    int childRow = 2 * row + dy;
+                    if (childCol >= colCount(image, childLevel)
+                            || childRow >= rowCount(image, childLevel))
+                        continue;
+                    BufferedImage child = getCore(image, childLevel, childCol, childRow);
+                    if (block == null) {
+                        int w = Math.min(2 * tileSize, image.levelWidth[childLevel] - x0);
+                        int h = Math.min(2 * tileSize, image.levelHeight[childLevel] - y0);
+                        block = ImageUtil.createCompatible(child, w, h);
+                    }
+                    ImageUtil.copyInto(child, childCol * tileSize - x0,
+                                       childRow * tileSize - y0, block);
+                }
+            }
+            core = BoxReducer.reduce(block, vectorKernels);
+        }
+        return core;
+    }
+
+    /**
+     * Returns the usage of the tile and region caches
+     */
+    public String toString() {
+        return "tiles: " + tileCache + ", regions: " + regionCache;
+    }
+}
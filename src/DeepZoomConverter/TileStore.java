@@ -0,0 +1,103 @@
+package DeepZoomConverter;
+
+/**
+ *  Deep Zoom Converter
+ *
+ *  Version: MPL 1.1/GPL 3/LGPL 3
+ *
+ *  The contents of this file are subject to the Mozilla Public License Version
+ *  1.1 (the "License"); you may not use this file except in compliance with
+ *  the License. You may obtain a copy of the License at
+ *  http: *www.mozilla.org/MPL/
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ *  for the specific language governing rights and limitations under the
+ *  License.
+ *
+ *  The Original Code is this Java package called DeepZoomConverter
+ *
+ *  The Initial Developer of the Original Code is Glenn Lawrence.
+ *  Portions created by the Initial Developer are Copyright (c) 2007-2009
+ *  the Initial Developer. All Rights Reserved.
+ *
+ *  Contributor(s):
+ *    Glenn Lawrence  <glenn.c.lawrence@gmail.com>
+ *
+ *  Alternatively, the contents of this file may be used under the terms of
+ *  either the GNU General Public License Version 3 or later (the "GPL"), or
+ *  the GNU Lesser General Public License Version 3 or later (the "LGPL"),
+ *  in which case the provisions of the GPL or the LGPL are applicable instead
+ *  of those above. If you wish to allow use of your version of this file only
+ *  under the terms of either the GPL or the LGPL, and not to allow others to
+ *  use your version of this file under the terms of the MPL, indicate your
+ *  decision by deleting the provisions above and replace them with the notice
+ *  and other provisions required by the GPL or the LGPL. If you do not delete
+ *  the provisions above, a recipient may use your version of this file under
+ *  the terms of any one of the MPL, the GPL or the LGPL.
+ */
+
+import java.awt.image.BufferedImage;
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Receives the encoded tiles of one image. Tiles may be written
+ * concurrently from the tile pool, in any order.
+ */
+interface TileStore extends Closeable {
+
+    /**
+     * Returns true if the tile was stored by an earlier, interrupted run
+     * and need not be produced again
+     * @param level the tile's level
+     * @param col the tile's column
+     * @param row the tile's row
+     */
+    boolean hasTile(int level, int col, int row);
+
+    /**
+     * Prepares for the tiles of a level, before any of them are written
+     * @param level the index of the level
+     */
+    void beginLevel(int level) throws IOException;
+
+    /**
+     * Stores one encoded tile
+     * @param level the tile's level
+     * @param col the tile's column
+     * @param row the tile's row
+     * @param tile the buffer holding the encoded tile
+     */
+    void write(int level, int col, int row, TileBuffer tile) throws IOException;
+
+    /**
+     * Stores a tile of a single colour without it being encoded, if the
+     * store can do so, e.g. by sharing an identical tile already written
+     * @param level the tile's level
+     * @param col the tile's column
+     * @param row the tile's row
+     * @param tile the tile, every pixel of which is the same
+     * @return false if the tile must be encoded and written as usual
+     */
+    boolean writeUniform(int level, int col, int row, BufferedImage tile) throws IOException;
+
+    /**
+     * Stores a tile whose encoding is the same as that of a tile already
+     * written, sharing its output where the store can
+     * @param level the tile's level
+     * @param col the tile's column
+     * @param row the tile's row
+     * @param fromLevel the level of the tile already written
+     * @param fromCol the column of the tile already written
+     * @param fromRow the row of the tile already written
+     */
+    void writeCopy(int level, int col, int row, int fromLevel, int fromCol, int fromRow)
+            throws IOException;
+
+    /**
+     * Completes the output once every tile has been written. Closing the
+     * store without finishing it leaves incomplete output.
+     */
+    void finish() throws IOException;
+}
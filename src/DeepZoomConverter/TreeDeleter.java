@@ -0,0 +1,154 @@
+package DeepZoomConverter;
+
+/**
+ *  Deep Zoom Converter
+ *
+ *  Version: MPL 1.1/GPL 3/LGPL 3
+ *
+ *  The contents of this file are subject to the Mozilla Public License Version
+ *  1.1 (the "License"); you may not use this file except in compliance with
+ *  the License. You may obtain a copy of the License at
+ *  http: *www.mozilla.org/MPL/
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ *  for the specific language governing rights and limitations under the
+ *  License.
+ *
+ *  The Original Code is this Java package called DeepZoomConverter
+ *
+ *  The Initial Developer of the Original Code is Glenn Lawrence.
+ *  Portions created by the Initial Developer are Copyright (c) 2007-2009
+ *  the Initial Developer. All Rights Reserved.
+ *
+ *  Contributor(s):
+ *    Glenn Lawrence  <glenn.c.lawrence@gmail.com>
+ *
+ *  Alternatively, the contents of this file may be used under the terms of
+ *  either the GNU General Public License Version 3 or later (the "GPL"), or
+ *  the GNU Lesser General Public License Version 3 or later (the "LGPL"),
+ *  in which case the provisions of the GPL or the LGPL are applicable instead
+ *  of those above. If you wish to allow use of your version of this file only
+ *  under the terms of either the GPL or the LGPL, and not to allow others to
+ *  use your version of this file under the terms of the MPL, indicate your
+ *  decision by deleting the provisions above and replace them with the notice
+ *  and other provisions required by the GPL or the LGPL. If you do not delete
+ *  the provisions above, a recipient may use your version of this file under
+ *  the terms of any one of the MPL, the GPL or the LGPL.
+ */
+
+import java.io.File;
+import java.util.Iterator;
+import java.util.Vector;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Deletes directory trees in the background on a pool of its own, so that
+ * removing an old pyramid of hundreds of thousands of tiles does not hold
+ * up the next conversion. Subdirectories are walked in parallel, and a
+ * directory's files are deleted in batches on separate workers.
+ */
+class TreeDeleter {
+
+    private static final int FILES_PER_TASK = 256;
+
+    private final ForkJoinPool pool;
+    private final Vector<ForkJoinTask<Void>> pending = new Vector<ForkJoinTask<Void>>();
+    private final AtomicReference<File> failure = new AtomicReference<File>();
+
+    /**
+     * @param threadCount the number of threads deleting files
+     */
+    TreeDeleter(int threadCount) {
+        pool = new ForkJoinPool(threadCount);
+    }
+
+    /**
+     * Starts deleting a file or directory tree. Deletions that have
+     * completed are forgotten, so a long-running converter does not keep
+     * every task it has started.
+     * @param file the file or directory
+     */
+    void delete(File file) {
+        synchronized (pending) {
+            for (Iterator<ForkJoinTask<Void>> i = pending.iterator(); i.hasNext(); ) {
+                if (i.next().isDone())
+                    i.remove();
+            }
+            pending.add(pool.submit(new DeleteTree(file)));
+        }
+    }
+
+    /**
+     * Waits for the deletions started so far and stops the threads
+     * @return the first file that could not be deleted, or null
+     */
+    File close() {
+        Vector<ForkJoinTask<Void>> tasks;
+        synchronized (pending) {
+            tasks = new Vector<ForkJoinTask<Void>>(pending);
+        }
+        for (ForkJoinTask<Void> task : tasks)
+            task.join();
+        pool.shutdown();
+        return failure.get();
+    }
+
+    private void deleteFile(File file) {
+        if (!file.delete() && file.exists())
+            failure.compareAndSet(null, file);
+    }
+
+    /**
+     * Deletes a directory once its subdirectories and files are deleted
+     */
+    private class DeleteTree extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        final File file;
+
+        DeleteTree(File file) {
+            this.file = file;
+        }
+
+        protected void compute() {
+            File[] children = file.listFiles();
+            if (children != null) {
+                Vector<RecursiveAction> tasks = new Vector<RecursiveAction>();
+                Vector<File> files = new Vector<File>();
+                for (File child : children) {
+                    if (child.isDirectory())
+                        tasks.add(new DeleteTree(child));
+                    else
+                        files.add(child);
+                }
+                for (int i = 0; i < files.size(); i += FILES_PER_TASK)
+                    tasks.add(new DeleteFiles(files.subList(i, Math.min(i + FILES_PER_TASK,
+                                                                        files.size()))));
+                invokeAll(tasks);
+            }
+            deleteFile(file);
+        }
+    }
+
+    /**
+     * Deletes a batch of files
+     */
+    private class DeleteFiles extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        final java.util.List<File> files;
+
+        DeleteFiles(java.util.List<File> files) {
+            this.files = files;
+        }
+
+        protected void compute() {
+            for (File file : files)
+                deleteFile(file);
+        }
+    }
+}
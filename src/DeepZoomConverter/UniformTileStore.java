@@ -0,0 +1,176 @@
+package DeepZoomConverter;
+
+/**
+ *  Deep Zoom Converter
+ *
+ *  Version: MPL 1.1/GPL 3/LGPL 3
+ *
+ *  The contents of this file are subject to the Mozilla Public License Version
+ *  1.1 (the "License"); you may not use this file except in compliance with
+ *  the License. You may obtain a copy of the License at
+ *  http: *www.mozilla.org/MPL/
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ *  for the specific language governing rights and limitations under the
+ *  License.
+ *
+ *  The Original Code is this Java package called DeepZoomConverter
+ *
+ *  The Initial Developer of the Original Code is Glenn Lawrence.
+ *  Portions created by the Initial Developer are Copyright (c) 2007-2009
+ *  the Initial Developer. All Rights Reserved.
+ *
+ *  Contributor(s):
+ *    Glenn Lawrence  <glenn.c.lawrence@gmail.com>
+ *
+ *  Alternatively, the contents of this file may be used under the terms of
+ *  either the GNU General Public License Version 3 or later (the "GPL"), or
+ *  the GNU Lesser General Public License Version 3 or later (the "LGPL"),
+ *  in which case the provisions of the GPL or the LGPL are applicable instead
+ *  of those above. If you wish to allow use of your version of this file only
+ *  under the terms of either the GPL or the LGPL, and not to allow others to
+ *  use your version of this file under the terms of the MPL, indicate your
+ *  decision by deleting the provisions above and replace them with the notice
+ *  and other provisions required by the GPL or the LGPL. If you do not delete
+ *  the provisions above, a recipient may use your version of this file under
+ *  the terms of any one of the MPL, the GPL or the LGPL.
+ */
+
+import java.awt.image.BufferedImage;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.HashMap;
+
+/**
+ * Handles tiles of a single colour for another store, so that large areas
+ * of uniform background are neither encoded nor written tile by tile.
+ *
+ * In skip mode uniform tiles are not stored at all. Each one is recorded
+ * in a sparse tile manifest beside the descriptor, as a line
+ * "level col row width height colour", the colour being the hex ARGB of
+ * its pixels. In link mode the first tile of each size and colour is
+ * encoded and written as usual, and later ones are stored as copies of it:
+ * hard links in the tile directories, shared entries in packed files.
+ */
+class UniformTileStore implements TileStore {
+
+    static final String EXTENSION = "blank";
+
+    private final TileStore store;
+    private final File manifest;
+    private final PrintStream out;
+    // The first tile of each size and colour, once written
+    private final HashMap<String, int[]> written = new HashMap<String, int[]>();
+    // The tiles being written as the first of their size and colour
+    private final HashMap<Long, String> claimed = new HashMap<Long, String>();
+
+    /**
+     * @param store the store receiving the tiles
+     * @param manifest the sparse tile manifest to be written in skip mode,
+     *        or null for link mode
+     */
+    UniformTileStore(TileStore store, File manifest) throws IOException {
+        this.store = store;
+        this.manifest = manifest;
+        if (manifest != null) {
+            try {
+                out = new PrintStream(new BufferedOutputStream(new FileOutputStream(manifest)));
+            } catch (IOException e) {
+                throw new IOException("Unable to create sparse tile manifest: " + manifest);
+            }
+        } else
+            out = null;
+    }
+
+    private static long position(int level, int col, int row) {
+        return ((long)level << 56) | ((long)col << 28) | row;
+    }
+
+    /**
+     * Returns a key identifying the size and pixel value of a uniform tile
+     */
+    private static String key(BufferedImage tile) {
+        StringBuilder key = new StringBuilder();
+        key.append(tile.getWidth()).append('x').append(tile.getHeight());
+        int[] pixel = tile.getRaster().getPixel(0, 0, (int[])null);
+        for (int sample : pixel)
+            key.append(' ').append(sample);
+        return key.toString();
+    }
+
+    public boolean hasTile(int level, int col, int row) {
+        return store.hasTile(level, col, row);
+    }
+
+    public void beginLevel(int level) throws IOException {
+        store.beginLevel(level);
+    }
+
+    public void write(int level, int col, int row, TileBuffer tile) throws IOException {
+        store.write(level, col, row, tile);
+        if (out == null) {
+            synchronized (this) {
+                String key = claimed.remove(position(level, col, row));
+                if (key != null)
+                    written.put(key, new int[] { level, col, row });
+            }
+        }
+    }
+
+    /**
+     * Records the tile in the manifest in skip mode. In link mode, stores
+     * the tile as a copy of the first of its size and colour if that has
+     * been written; otherwise the tile must be written, and if it is the
+     * first it becomes the one copied.
+     */
+    public boolean writeUniform(int level, int col, int row, BufferedImage tile)
+            throws IOException {
+        if (out != null) {
+            String line = level + " " + col + " " + row + " " + tile.getWidth() + " "
+                          + tile.getHeight() + " " + String.format("%08x", tile.getRGB(0, 0));
+            synchronized (this) {
+                out.println(line);
+                if (out.checkError())
+                    throw new IOException("Unable to write to sparse tile manifest: " + manifest);
+            }
+            return true;
+        }
+
+        String key = key(tile);
+        int[] from;
+        synchronized (this) {
+            from = written.get(key);
+            if (from == null) {
+                if (!claimed.containsValue(key))
+                    claimed.put(position(level, col, row), key);
+                return false;
+            }
+        }
+        store.writeCopy(level, col, row, from[0], from[1], from[2]);
+        return true;
+    }
+
+    public void writeCopy(int level, int col, int row, int fromLevel, int fromCol, int fromRow)
+            throws IOException {
+        store.writeCopy(level, col, row, fromLevel, fromCol, fromRow);
+    }
+
+    public void finish() throws IOException {
+        if (out != null) {
+            out.close();
+            if (out.checkError())
+                throw new IOException("Unable to write to sparse tile manifest: " + manifest);
+        }
+        store.finish();
+    }
+
+    public void close() throws IOException {
+        if (out != null)
+            out.close();
+        store.close();
+    }
+}
@@ -0,0 +1,250 @@
+package DeepZoomConverter;
+
+/**
+ *  Deep Zoom Converter
+ *
+ *  Version: MPL 1.1/GPL 3/LGPL 3
+ *
+ *  The contents of this file are subject to the Mozilla Public License Version
+ *  1.1 (the "License"); you may not use this file except in compliance with
+ *  the License. You may obtain a copy of the License at
+ *  http: *www.mozilla.org/MPL/
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ *  for the specific language governing rights and limitations under the
+ *  License.
+ *
+ *  The Original Code is this Java package called DeepZoomConverter
+ *
+ *  The Initial Developer of the Original Code is Glenn Lawrence.
+ *  Portions created by the Initial Developer are Copyright (c) 2007-2009
+ *  the Initial Developer. All Rights Reserved.
+ *
+ *  Contributor(s):
+ *    Glenn Lawrence  <glenn.c.lawrence@gmail.com>
+ *
+ *  Alternatively, the contents of this file may be used under the terms of
+ *  either the GNU General Public License Version 3 or later (the "GPL"), or
+ *  the GNU Lesser General Public License Version 3 or later (the "LGPL"),
+ *  in which case the provisions of the GPL or the LGPL are applicable instead
+ *  of those above. If you wish to allow use of your version of this file only
+ *  under the terms of either the GPL or the LGPL, and not to allow others to
+ *  use your version of this file under the terms of the MPL, indicate your
+ *  decision by deleting the provisions above and replace them with the notice
+ *  and other provisions required by the GPL or the LGPL. If you do not delete
+ *  the provisions above, a recipient may use your version of this file under
+ *  the terms of any one of the MPL, the GPL or the LGPL.
+ */
+
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.LongVector;
+import jdk.incubator.vector.ShortVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorShape;
+import jdk.incubator.vector.VectorShuffle;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * The 2x2 box filter of BoxReducer written against the incubating Vector
+ * API, so that a row of pixels is averaged a whole SIMD register at a time.
+ * The results are identical to BoxReducer's scalar kernels, which handle
+ * the columns left over at the end of each row.
+ *
+ * This class needs the jdk.incubator.vector module, which the JVM only
+ * resolves when started with --add-modules jdk.incubator.vector.
+ * BoxReducer loads it reflectively and keeps to the scalar kernels if it
+ * cannot be linked.
+ *
+ * Packed 32 bit pixels, whether held as ints or as four interleaved bytes,
+ * are read as longs holding two neighbouring pixels and averaged with the
+ * same split into 16 bit fields as BoxReducer.average. Gray bytes are read
+ * as ints holding four pixels. Three byte pixels don't divide a register
+ * evenly, so they are widened to shorts and the neighbouring pixels picked
+ * out with a shuffle.
+ */
+class VectorReducer {
+
+    private static final VectorSpecies<Byte> BYTES = ByteVector.SPECIES_PREFERRED;
+    private static final VectorSpecies<Integer> INTS = IntVector.SPECIES_PREFERRED;
+    private static final VectorSpecies<Short> SHORTS = ShortVector.SPECIES_PREFERRED;
+    private static final VectorShape HALF_SHAPE =
+        VectorShape.forBitSize(BYTES.vectorBitSize() / 2);
+    private static final VectorSpecies<Integer> HALF_INTS = VectorSpecies.of(int.class, HALF_SHAPE);
+    private static final VectorSpecies<Short> HALF_SHORTS = VectorSpecies.of(short.class, HALF_SHAPE);
+    private static final VectorSpecies<Byte> HALF_BYTES = VectorSpecies.of(byte.class, HALF_SHAPE);
+
+    // For three byte pixels, the lanes of the first and second pixel of
+    // each pair, taken from two vectors of shorts
+    private static final int RGB_PIXELS = SHORTS.length() / 3;
+    private static final VectorShuffle<Short> RGB_FIRST = rgbShuffle(0);
+    private static final VectorShuffle<Short> RGB_SECOND = rgbShuffle(3);
+
+    private static final long FIELDS = 0x00ff00ff00ff00ffL;
+
+    private static VectorShuffle<Short> rgbShuffle(int offset) {
+        int[] lanes = new int[SHORTS.length()];
+        for (int i = 0; i < lanes.length; i++) {
+            int pixel = Math.min(i / 3, RGB_PIXELS - 1);
+            lanes[i] = 6 * pixel + offset + i % 3;
+        }
+        return VectorShuffle.fromArray(SHORTS, lanes, 0);
+    }
+
+    /**
+     * Returns the number of bits in the preferred vector size
+     */
+    static int vectorBitSize() {
+        return BYTES.vectorBitSize();
+    }
+
+    /**
+     * Averages 2x2 blocks of packed pixels, as BoxReducer.reduceInts
+     */
+    static void reduceInts(int[] src, int srcOffset, int srcStride, int srcWidth, int srcHeight,
+                           int[] dst, int dstOffset, int dstStride, int dstWidth,
+                           int fromRow, int toRow) {
+        int step = INTS.length() / 2;
+        for (int y = fromRow; y < toRow; y++) {
+            int row0 = srcOffset + 2 * y * srcStride;
+            int row1 = (2 * y + 1 < srcHeight) ? row0 + srcStride : row0;
+            int out = dstOffset + y * dstStride;
+            int x = 0;
+            for (; 2 * (x + step) <= srcWidth; x += step) {
+                LongVector p0 = IntVector.fromArray(INTS, src, row0 + 2 * x).reinterpretAsLongs();
+                LongVector p1 = IntVector.fromArray(INTS, src, row1 + 2 * x).reinterpretAsLongs();
+                average(p0, p1).convertShape(VectorOperators.L2I, HALF_INTS, 0)
+                               .reinterpretAsInts().intoArray(dst, out + x);
+            }
+            for (; x < dstWidth; x++) {
+                int x0 = 2 * x;
+                int x1 = (x0 + 1 < srcWidth) ? x0 + 1 : x0;
+                dst[out + x] = BoxReducer.average(src[row0 + x0], src[row0 + x1],
+                                                  src[row1 + x0], src[row1 + x1]);
+            }
+        }
+    }
+
+    /**
+     * Averages the two pixels packed in each long of the given rows byte
+     * by byte, leaving the average in the low 32 bits. The byte order
+     * doesn't matter, as each byte is only added to bytes in the same
+     * position of other pixels.
+     */
+    private static LongVector average(LongVector p0, LongVector p1) {
+        LongVector rb = p0.and(FIELDS).add(p1.and(FIELDS));
+        LongVector ag = p0.lanewise(VectorOperators.LSHR, 8).and(FIELDS)
+                          .add(p1.lanewise(VectorOperators.LSHR, 8).and(FIELDS));
+        rb = rb.add(rb.lanewise(VectorOperators.LSHR, 32)).add(0x00020002L)
+               .lanewise(VectorOperators.LSHR, 2).and(0x00ff00ffL);
+        ag = ag.add(ag.lanewise(VectorOperators.LSHR, 32)).add(0x00020002L)
+               .lanewise(VectorOperators.LSHR, 2).and(0x00ff00ffL);
+        return rb.or(ag.lanewise(VectorOperators.LSHL, 8));
+    }
+
+    /**
+     * Averages 2x2 blocks of interleaved byte pixels, as BoxReducer.reduceBytes
+     */
+    static void reduceBytes(byte[] src, int srcOffset, int srcStride, int srcWidth, int srcHeight,
+                            byte[] dst, int dstOffset, int dstStride, int dstWidth,
+                            int pixelStride, int fromRow, int toRow) {
+        for (int y = fromRow; y < toRow; y++) {
+            int row0 = srcOffset + 2 * y * srcStride;
+            int row1 = (2 * y + 1 < srcHeight) ? row0 + srcStride : row0;
+            int out = dstOffset + y * dstStride;
+            int x;
+            if (pixelStride == 4)
+                x = reduceQuads(src, row0, row1, srcWidth, dst, out);
+            else if (pixelStride == 1)
+                x = reduceGray(src, row0, row1, srcWidth, dst, out);
+            else if (pixelStride == 3)
+                x = reduceTriples(src, row0, row1, srcWidth, dst, out, dstWidth);
+            else
+                x = 0;
+            out += x * pixelStride;
+            for (; x < dstWidth; x++) {
+                int x0 = 2 * x * pixelStride;
+                int x1 = (2 * x + 1 < srcWidth) ? x0 + pixelStride : x0;
+                for (int b = 0; b < pixelStride; b++) {
+                    int sum = (src[row0 + x0 + b] & 0xff) + (src[row0 + x1 + b] & 0xff)
+                            + (src[row1 + x0 + b] & 0xff) + (src[row1 + x1 + b] & 0xff);
+                    dst[out++] = (byte)((sum + 2) >> 2);
+                }
+            }
+        }
+    }
+
+    /**
+     * Reduces as many four byte pixels of a row as whole vectors allow
+     * @return the number of reduced pixels written
+     */
+    private static int reduceQuads(byte[] src, int row0, int row1, int srcWidth,
+                                   byte[] dst, int out) {
+        int step = BYTES.length() / 8;
+        int x = 0;
+        for (; 2 * (x + step) <= srcWidth; x += step) {
+            LongVector p0 = ByteVector.fromArray(BYTES, src, row0 + 8 * x).reinterpretAsLongs();
+            LongVector p1 = ByteVector.fromArray(BYTES, src, row1 + 8 * x).reinterpretAsLongs();
+            average(p0, p1).convertShape(VectorOperators.L2I, HALF_INTS, 0)
+                           .reinterpretAsBytes().intoArray(dst, out + 4 * x);
+        }
+        return x;
+    }
+
+    /**
+     * Reduces as many gray pixels of a row as whole vectors allow. Each int
+     * holds four pixels, and yields two reduced pixels in its low 16 bits.
+     * @return the number of reduced pixels written
+     */
+    private static int reduceGray(byte[] src, int row0, int row1, int srcWidth,
+                                  byte[] dst, int out) {
+        int step = BYTES.length() / 2;
+        int x = 0;
+        for (; 2 * (x + step) <= srcWidth; x += step) {
+            IntVector p0 = ByteVector.fromArray(BYTES, src, row0 + 2 * x).reinterpretAsInts();
+            IntVector p1 = ByteVector.fromArray(BYTES, src, row1 + 2 * x).reinterpretAsInts();
+            IntVector sum = p0.and(0x00ff00ff).add(p0.lanewise(VectorOperators.LSHR, 8).and(0x00ff00ff))
+                .add(p1.and(0x00ff00ff)).add(p1.lanewise(VectorOperators.LSHR, 8).and(0x00ff00ff))
+                .add(0x00020002).lanewise(VectorOperators.LSHR, 2);
+            sum.and(0xff).or(sum.lanewise(VectorOperators.LSHR, 8).and(0xff00))
+               .convertShape(VectorOperators.I2S, HALF_SHORTS, 0)
+               .reinterpretAsBytes().intoArray(dst, out + x);
+        }
+        return x;
+    }
+
+    /**
+     * Reduces as many three byte pixels of a row as whole vectors allow.
+     * Each step writes a whole vector of bytes of which only the first
+     * RGB_PIXELS pixels are complete, so it stops while the rest of the
+     * vector still falls within the row, to be overwritten later.
+     * @return the number of reduced pixels written
+     */
+    private static int reduceTriples(byte[] src, int row0, int row1, int srcWidth,
+                                     byte[] dst, int out, int dstWidth) {
+        int lanes = SHORTS.length();
+        int x = 0;
+        if (RGB_PIXELS == 0)
+            return x;
+        for (; 6 * x + 2 * lanes <= 3 * srcWidth && 3 * x + lanes <= 3 * dstWidth;
+             x += RGB_PIXELS) {
+            int in = 6 * x;
+            ShortVector lo = widen(src, row0 + in).add(widen(src, row1 + in));
+            ShortVector hi = widen(src, row0 + in + lanes).add(widen(src, row1 + in + lanes));
+            ShortVector sum = lo.rearrange(RGB_FIRST, hi).add(lo.rearrange(RGB_SECOND, hi))
+                                .add((short)2).lanewise(VectorOperators.LSHR, 2);
+            sum.convertShape(VectorOperators.S2B, HALF_BYTES, 0)
+               .reinterpretAsBytes().intoArray(dst, out + 3 * x);
+        }
+        return x;
+    }
+
+    /**
+     * Loads a vector of unsigned bytes as shorts
+     */
+    private static ShortVector widen(byte[] src, int index) {
+        return ((ShortVector)ByteVector.fromArray(HALF_BYTES, src, index)
+                .convertShape(VectorOperators.B2S, SHORTS, 0)).and((short)0xff);
+    }
+}